@@ -0,0 +1,145 @@
+package core.document.graph;
+
+import com.sun.javafx.application.PlatformImpl;
+import core.document.CidrList;
+import javafx.application.Platform;
+import util.Cidr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Measures multi-threaded LogicalGraph.addEdge with real LogicalNodes and LogicalEdges.
+ *
+ * Every insertion constructs a LogicalEdge between the inserting thread's own LogicalNodes and passes it to addEdge,
+ * as the import workers do for an address pair they have not seen.  Edges are drawn at random from a fixed set, so
+ * most insertions find an existing edge and threads race to add the same ones.  Each case is run against LogicalGraph
+ * and against LockedLogicalGraph, which takes NetworkGraph.lock around the whole of addEdge as NetworkGraph did before
+ * its nodes and edges were moved to ConcurrentOrderedStores.
+ *
+ * Run with "ant -f build-ant.xml benchmark".  The arguments are [threads,...] [insertions per thread]; the defaults are
+ * 1,2,4,8 threads and 200000 insertions per thread.  Each case is run WARMUP_ROUNDS times before MEASURED_ROUNDS timed
+ * runs, and the median throughput is reported.  Scaling is only meaningful on a machine with at least as many cores
+ * as the largest thread count.
+ */
+public class EdgeInsertionBenchmark {
+    private static final int CNT_NODES = 10000;
+    private static final int CNT_EDGES = 100000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    /**
+     * LogicalGraph with addEdge serialized on NetworkGraph.lock, as it was before ConcurrentOrderedStore.
+     */
+    private static class LockedLogicalGraph extends LogicalGraph {
+        @Override
+        public LogicalEdge addEdge(LogicalEdge edgeNew) {
+            synchronized(lock) {
+                return super.addEdge(edgeNew);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int[] threadCounts = args.length > 0 ? Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray() : new int[] {1, 2, 4, 8};
+        final int cntInsertions = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        //LogicalGraph hands its networks to a dialog, so the toolkit has to be running and graphs built on its thread.
+        final CountDownLatch started = new CountDownLatch(1);
+        PlatformImpl.startup(started::countDown);
+        started.await();
+
+        final Random random = new Random(0);
+        final int[] sources = new int[CNT_EDGES];
+        final int[] destinations = new int[CNT_EDGES];
+        for(int idx = 0; idx < CNT_EDGES; idx++) {
+            sources[idx] = random.nextInt(CNT_NODES);
+            do {
+                destinations[idx] = random.nextInt(CNT_NODES);
+            } while(destinations[idx] == sources[idx]);
+        }
+
+        //No networks are defined, so nodes never find one.
+        final CidrList networks = new CidrList();
+
+        System.out.println(String.format("%-20s %8s %16s", "Graph", "Threads", "Insertions/ms"));
+        for(int cntThreads : threadCounts) {
+            //Every thread has its own nodes, as each worker constructs nodes for addresses it has not seen.
+            final LogicalNode[][] nodes = new LogicalNode[cntThreads][CNT_NODES];
+            final int[][] workloads = new int[cntThreads][cntInsertions];
+            for(int idxThread = 0; idxThread < cntThreads; idxThread++) {
+                for(int idxNode = 0; idxNode < CNT_NODES; idxNode++) {
+                    nodes[idxThread][idxNode] = new LogicalNode(Cidr.of(0x0A000000L + idxNode), null, networks);
+                }
+                for(int idx = 0; idx < cntInsertions; idx++) {
+                    workloads[idxThread][idx] = random.nextInt(CNT_EDGES);
+                }
+            }
+
+            report("LockedLogicalGraph", cntThreads, measure(LockedLogicalGraph::new, nodes, sources, destinations, workloads));
+            report("LogicalGraph", cntThreads, measure(LogicalGraph::new, nodes, sources, destinations, workloads));
+        }
+
+        Platform.exit();
+    }
+
+    private static LogicalGraph createOnFxThread(Supplier<LogicalGraph> factory) throws InterruptedException {
+        final LogicalGraph[] result = new LogicalGraph[1];
+        final CountDownLatch created = new CountDownLatch(1);
+        Platform.runLater(() -> {
+            result[0] = factory.get();
+            created.countDown();
+        });
+        created.await();
+        return result[0];
+    }
+
+    /**
+     * @return The median throughput of the measured rounds, in insertions per millisecond across all threads.
+     */
+    private static double measure(Supplier<LogicalGraph> factory, LogicalNode[][] nodes, int[] sources, int[] destinations, int[][] workloads) throws InterruptedException {
+        final FrameArchive archive = new FrameArchive();
+        final List<Double> results = new ArrayList<>();
+        for(int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            final LogicalGraph graph = createOnFxThread(factory);
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread[] threads = new Thread[workloads.length];
+            for(int idxThread = 0; idxThread < workloads.length; idxThread++) {
+                final LogicalNode[] nodesThread = nodes[idxThread];
+                final int[] workload = workloads[idxThread];
+                threads[idxThread] = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch(InterruptedException ex) {
+                        return;
+                    }
+                    for(int idxEdge : workload) {
+                        graph.addEdge(new LogicalEdge(nodesThread[sources[idxEdge]], nodesThread[destinations[idxEdge]], archive));
+                    }
+                }, "Benchmark-" + idxThread);
+                threads[idxThread].start();
+            }
+
+            final long nsStart = System.nanoTime();
+            start.countDown();
+            for(Thread thread : threads) {
+                thread.join();
+            }
+            final long nsElapsed = System.nanoTime() - nsStart;
+
+            if(round >= WARMUP_ROUNDS) {
+                results.add((double)workloads[0].length * workloads.length / (nsElapsed / 1000000.0));
+            }
+        }
+        results.sort(Double::compare);
+        return results.get(results.size() / 2);
+    }
+
+    private static void report(String name, int cntThreads, double throughput) {
+        System.out.println(String.format("%-20s %8d %16.0f", name, cntThreads, throughput));
+    }
+}
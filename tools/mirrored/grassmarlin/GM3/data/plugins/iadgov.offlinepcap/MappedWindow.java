@@ -0,0 +1,85 @@
+package iadgov.offlinepcap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only view of a file that keeps a single region of it memory-mapped, remapping whenever a read falls outside
+ * that region.  Reads are expected to move forward through the file, so each mapping starts at the requested offset.
+ */
+public class MappedWindow {
+    /**
+     * Default size of the region mapped at one time.
+     */
+    public static final long DEFAULT_WINDOW_SIZE = 64L * 1024L * 1024L;
+
+    private final FileChannel channel;
+    private final long cbFile;
+    private final long sizeWindow;
+    private ByteOrder order;
+
+    private MappedByteBuffer buffer;
+    private long offsetWindow;
+
+    public MappedWindow(FileChannel channel, long sizeWindow) throws IOException {
+        this.channel = channel;
+        this.cbFile = channel.size();
+        this.sizeWindow = sizeWindow;
+        this.order = ByteOrder.BIG_ENDIAN;
+        this.buffer = null;
+        this.offsetWindow = 0;
+    }
+
+    public long size() {
+        return cbFile;
+    }
+
+    /**
+     * Sets the byte order used by the mapped buffer, now and after any future remapping.
+     */
+    public void setOrder(ByteOrder order) {
+        this.order = order;
+        if(buffer != null) {
+            buffer.order(order);
+        }
+    }
+
+    /**
+     * Ensures the given range of the file is mapped.
+     * @return The index within {@link #buffer()} that corresponds to offset.
+     * @throws IOException If the range extends past the end of the file or cannot be mapped.
+     */
+    public int map(long offset, int length) throws IOException {
+        if(offset < 0 || length < 0 || offset + length > cbFile) {
+            throw new IOException("Attempted to read past the end of the file (" + offset + "+" + length + " of " + cbFile + ")");
+        }
+        if(buffer == null || offset < offsetWindow || offset + length > offsetWindow + buffer.capacity()) {
+            offsetWindow = offset;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsetWindow, Math.min(Math.max(sizeWindow, length), cbFile - offsetWindow));
+            buffer.order(order);
+        }
+        return (int)(offset - offsetWindow);
+    }
+
+    /**
+     * @return The currently mapped region; only valid until the next call to map.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Maps a range of the file and returns it as an independent buffer in network byte order, without copying.
+     */
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        final int idx = map(offset, length);
+        buffer.limit(idx + length);
+        buffer.position(idx);
+        final ByteBuffer result = buffer.slice();
+        buffer.clear();
+        return result;
+    }
+}
@@ -39,7 +39,7 @@ public class PCAPImport extends core.importmodule.ImportItem {
             ByteBuffer buffer = ByteBuffer.allocate(12);
             reader.read(buffer);
             int bom = buffer.getInt(0);
-            if(bom == 0xA1B2C3D4 || bom == 0xD4C3B2A1) {
+            if(bom == 0xA1B2C3D4 || bom == 0xD4C3B2A1 || bom == 0xA1B23C4D || bom == 0x4D3CB2A1) {
                 return true;
             }
 
@@ -6,12 +6,10 @@ import core.fingerprint.PacketData;
 import core.importmodule.ImportItem;
 import core.protocol.IEEE_802_15_4;
 import core.protocol.Zep;
-import org.jnetpcap.nio.JBuffer;
 import util.Cidr;
 
 import java.lang.InterruptedException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.HashMap;
 
@@ -66,8 +64,8 @@ public class PacketHandler {
             final int cbHeader = (ipVersionAndHeaderSize & 0x0F) * 4;
 
             protocol = bufPacket.get(startCurrentHeader + 9);
-            ipSource = new Cidr(((long)bufPacket.getInt(startCurrentHeader + 12)) & 0x00000000FFFFFFFFL);
-            ipDest = new Cidr(((long)bufPacket.getInt(startCurrentHeader + 16)) & 0x00000000FFFFFFFFL);
+            ipSource = Cidr.of(((long)bufPacket.getInt(startCurrentHeader + 12)) & 0x00000000FFFFFFFFL);
+            ipDest = Cidr.of(((long)bufPacket.getInt(startCurrentHeader + 16)) & 0x00000000FFFFFFFFL);
             ttl = (int)bufPacket.get(startCurrentHeader + 8) & 0x000000FF;
             cbIp = (int)bufPacket.getShort(startCurrentHeader + 2) & 0x0000FFFF;
             //if cbIp is 0 there is a good chance that TSO is happening, we'er just going to guess that the packet is
@@ -148,7 +146,6 @@ public class PacketHandler {
         // Transport Layer (Itemize Tcp and Udp with metadata-only handling of other packets)
         final int portSource;
         final int portDest;
-        final JBuffer temp;
         final PMetaData meta;
 
         switch(protocol) {
@@ -158,25 +155,21 @@ public class PacketHandler {
                 final int cbTcpHeaders = 0x3C & (bufPayload.get(startCurrentHeader + 12) >>> 2);
                 final int cbPayload;
 
-                if(idxLastIpByte - (startCurrentHeader + cbTcpHeaders) == 0) {
-                    //Hack to allow 0-byte TCP packets
-                    temp = new JBuffer(1);
-                    cbPayload = 0;
-                } else {
-                    final byte[] contents = new byte[idxLastIpByte - (startCurrentHeader + cbTcpHeaders)];
-                    bufPayload.position(startCurrentHeader + cbTcpHeaders);
-                    bufPayload.get(contents);
-                    temp = new JBuffer(contents);
-                    cbPayload = contents.length;
-                }
+                //0-byte TCP packets still carry an (empty) payload.
+                cbPayload = idxLastIpByte - (startCurrentHeader + cbTcpHeaders);
+                final ByteBuffer bufTcpPayload = bufPayload.duplicate();
+                bufTcpPayload.limit(idxLastIpByte);
+                bufTcpPayload.position(startCurrentHeader + cbTcpHeaders);
                 meta = new PMetaData(source, msSinceEpoch, idxFrame, portSource, portDest, protocol,
                         ipSource, macSource, ipDest, macDestination, -1, cbPayload, etherType,
                         -1, -1, ttl, -1, null);
+                final PacketData dataTcp = PacketData.copyOf(cbPacket, meta, bufTcpPayload);
                 try {
-                    packetQueue.put(new PacketData(cbPacket, meta, temp));
+                    packetQueue.put(dataTcp);
                 } catch(InterruptedException ex) {
                     //Probably nothing worth worrying about.
                     ex.printStackTrace();
+                    dataTcp.release();
                 }
                 return cbPacket;
             case 17:    //UDP
@@ -184,16 +177,20 @@ public class PacketHandler {
                 portDest = bufPayload.getShort(startCurrentHeader + 2) & 0x0000FFFF;
                 final int cbUdp = bufPayload.getShort(startCurrentHeader + 4) & 0x0000FFFF;
 
-                final byte[] contents;
+                final int cbContents;
+                final ByteBuffer contents = bufPayload.duplicate();
                 try {
                     if(startCurrentHeader + cbUdp > cbPacket) {
-                        contents = new byte[cbPacket - startCurrentHeader - 8];
+                        cbContents = cbPacket - startCurrentHeader - 8;
                     } else {
-                        contents = new byte[cbUdp - 8];
+                        cbContents = cbUdp - 8;
+                    }
+                    if(cbContents < 0 || startCurrentHeader + 8 + cbContents > contents.limit()) {
+                        throw new java.nio.BufferUnderflowException();
                     }
-                    bufPayload.position(startCurrentHeader + 8);
-                    bufPayload.get(contents);
-                } catch(java.nio.BufferUnderflowException | java.lang.NegativeArraySizeException ex) {
+                    contents.position(startCurrentHeader + 8);
+                    contents.limit(startCurrentHeader + 8 + cbContents);
+                } catch(java.nio.BufferUnderflowException ex) {
                     System.out.println("idxFrame=" + idxFrame + ", cbUdp=" + cbUdp + ", cbPacket=" + cbPacket + ", startCurrentHeader=" + startCurrentHeader + ", bufPacket.position()=" + bufPacket.position() + ", bufPacket.limit()=" + bufPacket.limit());
 
                     throw ex;
@@ -202,7 +199,9 @@ public class PacketHandler {
                     final Zep zep = new Zep();
                     final IEEE_802_15_4 ieee802154 = new IEEE_802_15_4();
 
-                    zep.fromArray(Arrays.copyOf(contents, contents.length));
+                    final byte[] arrContents = new byte[cbContents];
+                    contents.duplicate().get(arrContents);
+                    zep.fromArray(arrContents);
                     ieee802154.setBuffer(zep.getNextBuffer());
                     IEEE802154Data meshData = new IEEE802154Data();
                     meshData.setChannel(zep.getChannelID());
@@ -218,19 +217,16 @@ public class PacketHandler {
 
                     }
                 }
-                if (contents.length > 0) {
-                    temp = new JBuffer(contents);
-                } else {
-                    temp = null;
-                }
                 meta = new PMetaData(source, msSinceEpoch, idxFrame, portSource, portDest, protocol,
-                        ipSource, macSource, ipDest, macDestination, -1, contents.length, etherType,
+                        ipSource, macSource, ipDest, macDestination, -1, cbContents, etherType,
                         -1, -1, ttl, -1, null);
+                final PacketData dataUdp = cbContents > 0 ? PacketData.copyOf(cbPacket, meta, contents) : new PacketData(cbPacket, meta);
                 try {
-                    packetQueue.put(new PacketData(cbPacket, meta, temp));
+                    packetQueue.put(dataUdp);
                 } catch(InterruptedException ex) {
                     //Probably nothing worth worrying about.
                     ex.printStackTrace();
+                    dataUdp.release();
                 }
                 return cbPacket;
             //case 2:     //IGMP (We need better handling, but keep the default for now)
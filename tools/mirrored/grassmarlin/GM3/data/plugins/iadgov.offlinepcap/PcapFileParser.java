@@ -1,29 +1,23 @@
 package iadgov.offlinepcap;
 
-import core.exec.IEEE802154Data;
-import core.fingerprint.PMetaData;
-import core.fingerprint.PacketData;
 import core.importmodule.ImportItem;
-import core.protocol.IEEE_802_15_4;
-import core.protocol.Zep;
-import org.jnetpcap.nio.JBuffer;
-import util.Cidr;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.lang.InterruptedException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.ByteChannel;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
-import java.time.Instant;
-import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
 import java.util.Iterator;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 
 public class PcapFileParser {
+    protected static final int PCAP_HEADER_SIZE = 24;
+    protected static final int RECORD_HEADER_SIZE = 16;
+    protected static final int MAGIC_MICROSECONDS = 0xA1B2C3D4;
+    protected static final int MAGIC_NANOSECONDS = 0xA1B23C4D;
+
     private final ImportItem source;
     protected final Path inPath;
     private boolean done;
@@ -50,68 +44,8 @@ public class PcapFileParser {
         done = false;
 
         Runnable loop = () -> {
-            int idxFrame = 1;
-            try(ByteChannel reader = Files.newByteChannel(inPath)) {
-                // Read header
-                byte[] header = new byte[24];
-                ByteBuffer buffer = ByteBuffer.allocate(header.length);
-                reader.read(buffer);
-                buffer.rewind();
-                buffer.get(header);
-                // Process header
-                final boolean isSwapped;
-                //TODO: These need to be adjsuted for sign, what with signed byte values being a thing.
-                if(header[0] == -95 && header[1] == -78 && header[2] == -61 && header[3] == -44) {
-                    isSwapped = true;
-                } else if(header[0] == -44 && header[1] == -61 && header[2] == -78 && header[3] == -95) {
-                    isSwapped = false;
-                } else {
-                    //Invalid header
-                    return;
-                }
-
-                //final int majorVersion = intFromBytes(header, 5, 2, isSwapped);
-                //final int minorVersion = intFromBytes(header, 7, 2, isSwapped);
-                final long secGmtOffset = intFromBytes(header, 9, 4, isSwapped);
-                //TODO: SigFigs
-                //TODO: SnapLen
-                //TODO: Network
-
-                final ByteBuffer reusableBuffer = ByteBuffer.allocateDirect(1500);
-
-                buffer = ByteBuffer.allocateDirect(16);
-                buffer.mark();
-                if (isSwapped) {
-                    buffer.order(ByteOrder.BIG_ENDIAN);
-                } else {
-                    buffer.order(ByteOrder.LITTLE_ENDIAN);
-                }
-                while(16 == reader.read(buffer)) {
-                    final long sTimestamp = buffer.getInt(0);//intFromBytes(headerPacket, 0, 4, true);
-                    final long usTimestamp = buffer.getInt(4);//intFromBytes(headerPacket, 4, 4, true);
-                    final int lengthPacket = buffer.getInt(8);//intFromBytes(headerPacket, 8, 4, true);       //This is the captured length
-
-                    final ByteBuffer contentsPacket;
-                    if (lengthPacket <= 1500) {
-                        contentsPacket = reusableBuffer;
-                        contentsPacket.limit(lengthPacket);
-                        contentsPacket.position(0);
-                    } else {
-                        contentsPacket = ByteBuffer.allocateDirect(lengthPacket);
-                    }
-
-                    int read = reader.read(contentsPacket);
-                    if(lengthPacket != read) {
-                        //Insufficient bytes in file to read packet
-                        return;
-                    }
-                    contentsPacket.rewind();
-
-                    final int cbProcessed = handler.handle(contentsPacket, (sTimestamp + secGmtOffset) * 1000L + usTimestamp / 1000, idxFrame++);
-                    source.recordTaskProgress(lengthPacket + 16 - cbProcessed);
-
-                    buffer.reset();
-                }
+            try(FileChannel channel = FileChannel.open(inPath, StandardOpenOption.READ)) {
+                parseChannel(channel);
             } catch(IOException ex) {
                 ex.printStackTrace();
             } finally {
@@ -123,6 +57,69 @@ public class PcapFileParser {
         loopThread.start();
     }
 
+    /**
+     * Reads every record from a classic (microsecond or nanosecond) pcap file.  The file is memory-mapped in windows of
+     * up to MappedWindow.DEFAULT_WINDOW_SIZE bytes and each packet is handed to the PacketHandler as a slice of the mapped window, so
+     * packet contents are never copied by the reader.
+     */
+    protected void parseChannel(FileChannel channel) throws IOException {
+        final long cbFile = channel.size();
+        if(cbFile < PCAP_HEADER_SIZE) {
+            return;
+        }
+
+        // Process header
+        final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, PCAP_HEADER_SIZE);
+        final int magic = header.getInt(0);
+        final ByteOrder order;
+        final boolean isNanosecond;
+        if(magic == MAGIC_MICROSECONDS || magic == MAGIC_NANOSECONDS) {
+            order = ByteOrder.BIG_ENDIAN;
+            isNanosecond = magic == MAGIC_NANOSECONDS;
+        } else if(magic == Integer.reverseBytes(MAGIC_MICROSECONDS) || magic == Integer.reverseBytes(MAGIC_NANOSECONDS)) {
+            order = ByteOrder.LITTLE_ENDIAN;
+            isNanosecond = magic == Integer.reverseBytes(MAGIC_NANOSECONDS);
+        } else {
+            //Invalid header
+            return;
+        }
+        header.order(order);
+
+        //final int majorVersion = header.getShort(4);
+        //final int minorVersion = header.getShort(6);
+        final long secGmtOffset = header.getInt(8);
+        //TODO: SigFigs
+        //TODO: SnapLen
+        //TODO: Network
+
+        final long fracPerMillisecond = isNanosecond ? 1000000L : 1000L;
+
+        // Record headers are read in the file's byte order; packets are handed to the handler as slices, which are in
+        // network byte order.
+        final MappedWindow window = new MappedWindow(channel, MappedWindow.DEFAULT_WINDOW_SIZE);
+        window.setOrder(order);
+
+        int idxFrame = 1;
+        long offsetRecord = PCAP_HEADER_SIZE;
+        while(offsetRecord + RECORD_HEADER_SIZE <= cbFile) {
+            final int idxRecord = window.map(offsetRecord, RECORD_HEADER_SIZE);
+            final long sTimestamp = window.buffer().getInt(idxRecord) & 0xFFFFFFFFL;
+            final long fracTimestamp = window.buffer().getInt(idxRecord + 4) & 0xFFFFFFFFL;
+            final int lengthPacket = window.buffer().getInt(idxRecord + 8);       //This is the captured length
+
+            if(lengthPacket < 0 || offsetRecord + RECORD_HEADER_SIZE + lengthPacket > cbFile) {
+                //Insufficient bytes in file to read packet
+                return;
+            }
+            final ByteBuffer contentsPacket = window.slice(offsetRecord + RECORD_HEADER_SIZE, lengthPacket);
+
+            final int cbProcessed = handler.handle(contentsPacket, (sTimestamp + secGmtOffset) * 1000L + fracTimestamp / fracPerMillisecond, idxFrame++);
+            source.recordTaskProgress(lengthPacket + RECORD_HEADER_SIZE - cbProcessed);
+
+            offsetRecord += RECORD_HEADER_SIZE + lengthPacket;
+        }
+    }
+
     protected static int intFromBytes(byte[] buffer, int offset, int size, boolean isSwapped) {
         int result = 0;
         for(int idx = 0; idx < size; idx++) {
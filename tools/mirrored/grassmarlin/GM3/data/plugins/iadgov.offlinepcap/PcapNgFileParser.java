@@ -1,55 +1,90 @@
 package iadgov.offlinepcap;
 
-import core.exec.IEEE802154Data;
-import core.fingerprint.PMetaData;
-import core.fingerprint.PacketData;
 import core.importmodule.ImportItem;
 import core.logging.Logger;
 import core.logging.Severity;
-import core.protocol.IEEE_802_15_4;
-import core.protocol.Zep;
-import org.jnetpcap.nio.JBuffer;
-import util.Cidr;
 
 import java.io.IOException;
-import java.lang.InterruptedException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.SeekableByteChannel;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Parser for PcapNg files.
+ *
+ * The file is first pre-scanned: only the block headers are read, which is enough to find the sections, the timestamp
+ * resolution of every interface, and the frame number of every packet.  The packet blocks are then divided into
+ * chunks of roughly CHUNK_SIZE bytes which are parsed in parallel, each by its own PacketHandler, with every chunk
+ * numbering its frames from the index found by the pre-scan.
+ */
 public class PcapNgFileParser {
+    /**
+     * Chunks are closed at the first packet block at or after this many bytes from the start of the chunk.
+     */
+    protected static final long CHUNK_SIZE = 32L * 1024L * 1024L;
+
+    protected static final int BLOCK_SECTION_HEADER = 0x0A0D0D0A;
+    protected static final int BOM = 0x1A2B3C4D;
+
+    /**
+     * The properties of a Section Header Block and the Interface Description Blocks that belong to it.
+     */
+    protected static class Section {
+        private final ByteOrder order;
+        // Timestamp divisor (units per second) for each interface, indexed by the interface id within the section.
+        private final List<Long> timestampResolutions;
+
+        public Section(ByteOrder order) {
+            this.order = order;
+            this.timestampResolutions = new ArrayList<>();
+        }
+
+        public long resolutionFor(int idInterface) {
+            if(idInterface >= 0 && idInterface < timestampResolutions.size()) {
+                return timestampResolutions.get(idInterface);
+            } else {
+                return 1000000L;
+            }
+        }
+    }
+
+    /**
+     * A contiguous run of blocks, starting with a packet block, which can be parsed independently of the rest of the file.
+     */
+    protected static class Chunk {
+        private final Section section;
+        private final long offsetStart;
+        private final int idxFirstFrame;
+        private long offsetEnd;
+
+        public Chunk(Section section, long offsetStart, int idxFirstFrame) {
+            this.section = section;
+            this.offsetStart = offsetStart;
+            this.idxFirstFrame = idxFirstFrame;
+            this.offsetEnd = offsetStart;
+        }
+    }
+
     // Parser components
     private final ImportItem source;
     protected final Path inPath;
     private boolean done;
-    private int idxFrame;
+    private final int cntThreads;
     private BlockingQueue<Object> packetQueue;
-    private final PacketHandler handler;
-
-    // Properties of the data stream
-    protected boolean isLittleEndian = false;
-    protected Map<Integer, Long> timestampResolutions = new HashMap<>();
-    protected int idNextBlock = 0;
-
-    //Buffers
-    private final ByteBuffer bufEnhancedHeader = ByteBuffer.allocateDirect(20);
 
     protected PcapNgFileParser(ImportItem source, Path inPath) {
         this.source = source;
         this.inPath = inPath;
         done = false;
-        idxFrame = 1;
-        this.packetQueue = new ArrayBlockingQueue<>(100);
-        handler = new PacketHandler(source, packetQueue);
+        this.cntThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.packetQueue = new ArrayBlockingQueue<>(100 * cntThreads);
     }
 
     public static Iterator<Object> getPcapFileIterator(ImportItem source, Path inPath) throws IllegalStateException{
@@ -63,12 +98,15 @@ public class PcapNgFileParser {
     protected static long divisorFromTsresol(byte resolution) throws IOException {
         if((resolution & 0x80) == 0x80) {
             // MSB is 1 -> power of 2
-            if((resolution & 0x7F) > 63) {
+            if((resolution & 0x7F) > 62) {
                 throw new IOException("Unsupported timestamp resolution (" + resolution + ")");
             }
-            return 1 << (resolution & 0x7F);
+            return 1L << (resolution & 0x7F);
         } else {
             // MSB is 0 -> power of 10
+            if(resolution > 18) {
+                throw new IOException("Unsupported timestamp resolution (" + resolution + ")");
+            }
             long result = 1;
             while(resolution-- > 0) {
                 result *= 10;
@@ -77,168 +115,178 @@ public class PcapNgFileParser {
         }
     }
 
-    protected Map<Integer, ByteBuffer> parseOptions(ByteBuffer bufOptions) {
-        HashMap<Integer, ByteBuffer> mapOptions = new HashMap<>();
-        if(!bufOptions.hasRemaining()) {
-            //If no options are present return now.
-            return mapOptions;
-        }
-
-        int codeOption;
-        int lengthOption;
-        final byte[] arrData = bufOptions.array();
-        do {
-            codeOption = bufOptions.getShort();
-            lengthOption = bufOptions.getShort();
-            ByteBuffer bufOption = ByteBuffer.wrap(arrData, bufOptions.position(), lengthOption);
-            bufOption.order(bufOptions.order());
-
-            mapOptions.put(codeOption, bufOption);
-            while(lengthOption > 0) {
-                lengthOption -= 4;
-                bufOptions.getInt();
-            }
-        } while(codeOption != 0 && bufOptions.hasRemaining());
-
-        return mapOptions;
+    /**
+     * Converts a timestamp in units of 1/resolution seconds to milliseconds without overflowing.
+     */
+    protected static long millisFromTimestamp(long ts, long resolution) {
+        return (ts / resolution) * 1000L + (ts % resolution) * 1000L / resolution;
     }
 
-    protected void processIdb(SeekableByteChannel channel, int size) throws IOException {
-        final int idBlock = idNextBlock++;
-        final ByteBuffer buf = ByteBuffer.allocate(size);
-        if(isLittleEndian) {
-            buf.order(ByteOrder.LITTLE_ENDIAN);
-        } else {
-            buf.order(ByteOrder.BIG_ENDIAN);
-        }
-
-        channel.read(buf);
-        buf.position(8);
-        Map<Integer, ByteBuffer> options = parseOptions(buf);
-
-        //if_tsresol
-        if(options.containsKey(9)) {
-            timestampResolutions.put(idBlock, divisorFromTsresol(options.get(9).get()));
-        } else {
-            timestampResolutions.put(idBlock, 1000000L);
+    /**
+     * Reads the Interface Description Block at offset and records its timestamp resolution in the section.
+     */
+    protected void processIdb(MappedWindow window, long offset, int sizeBlock, Section section) throws IOException {
+        long resolution = 1000000L;
+
+        // Options follow the 8 byte block header, 2 bytes of link type, 2 reserved bytes and 4 bytes of snap length.
+        // The trailing 4 bytes repeat the block size.
+        final long offsetEnd = offset + sizeBlock - 4;
+        long offsetOption = offset + 16;
+        while(offsetOption + 4 <= offsetEnd) {
+            final int idx = window.map(offsetOption, 4);
+            final int codeOption = window.buffer().getShort(idx) & 0xFFFF;
+            final int lengthOption = window.buffer().getShort(idx + 2) & 0xFFFF;
+            if(codeOption == 0) {
+                //opt_endofopt
+                break;
+            }
+            //if_tsresol
+            if(codeOption == 9 && lengthOption >= 1) {
+                resolution = divisorFromTsresol(window.buffer().get(window.map(offsetOption + 4, 1)));
+            }
+            //TODO: Support for if_tzone (10) (can't be done now since the format isn't in the standard yet)
+            offsetOption += 4 + ((lengthOption + 3) & ~0x3);
         }
 
-        //TODO: Support for if_tzone (10) (can't be done now since the format isn't in the standard yet)
+        section.timestampResolutions.add(resolution);
     }
 
     /**
-     * @param channel
-     * @return The number of bytes to advance the channel
+     * Walks the block headers of the file, building the sections and dividing the packet blocks into chunks.  Progress
+     * is recorded here for blocks which do not belong to a chunk.
      */
-    protected int processBlockHeader(SeekableByteChannel channel) throws IOException {
-        //Read first 8 bytes of header
-        final byte[] header = new byte[8];
-        ByteBuffer buffer = ByteBuffer.allocate(header.length);
-        final int cbRead = channel.read(buffer);
-        //End of stream
-        if(cbRead == -1) {
-            return -1;
-        } else if(cbRead != 8) {
-            throw new IOException("Unable to read start of PcapNg Block Header.");
-        }
-
-        buffer.rewind();
-        buffer.get(header);
+    protected List<Chunk> prescan(MappedWindow window) {
+        final List<Chunk> chunks = new ArrayList<>();
+        Section section = null;
+        Chunk chunk = null;
+        int cntFrames = 0;
+        long offset = 0;
+
+        try {
+            while(offset + 12 <= window.size()) {
+                int idx = window.map(offset, 12);
+                final int typeBlock;
+                final int sizeBlock;
+
+                if(window.buffer().getInt(idx) == BLOCK_SECTION_HEADER) {
+                    //The byte order is only known once the BOM has been read.
+                    final int magicNumber = window.buffer().order(ByteOrder.BIG_ENDIAN).getInt(idx + 8);
+                    if(magicNumber == BOM) {
+                        section = new Section(ByteOrder.BIG_ENDIAN);
+                    } else if(magicNumber == Integer.reverseBytes(BOM)) {
+                        section = new Section(ByteOrder.LITTLE_ENDIAN);
+                    } else {
+                        throw new IOException("BOM Field in Section Header Block is wrong (0x" + Integer.toHexString(magicNumber) + ")");
+                    }
+                    window.setOrder(section.order);
+                    typeBlock = BLOCK_SECTION_HEADER;
+                    sizeBlock = window.buffer().getInt(idx + 4);
+                    //Chunks never span sections.
+                    chunk = null;
+                } else if(section == null) {
+                    throw new IOException("PcapNg does not start with a Section Header Block.");
+                } else {
+                    typeBlock = window.buffer().getInt(idx);
+                    sizeBlock = window.buffer().getInt(idx + 4);
+                }
 
-        final int typeBlock = intFromBytes(header, 0, 4, isLittleEndian);
-        final int sizeBlock = intFromBytes(header, 4, 4, isLittleEndian);
+                if((sizeBlock & 3) != 0 || sizeBlock < 12 || offset + sizeBlock > window.size()) {
+                    throw new IOException("PcapNg contains invalid block size (" + sizeBlock + ")");
+                }
 
-        //If we're reading a SHB, then we don't know the endianness and the size can be wrong, so skip the integrity checks.
-        if(typeBlock != 0x0A0D0D0A) {
-            if ((sizeBlock & 3) != 0) {
-                throw new IOException("PcapNg contains invalid block size (" + sizeBlock + ")");
-            }
+                switch(typeBlock) {
+                    case 1: //Interface Description Block
+                        processIdb(window, offset, sizeBlock, section);
+                        break;
+                    case 2: //Packet Block (Obsolete, but still has to be readable)
+                    case 3: //Simple Packet Block
+                    case 6: //Enhanced Packet Block
+                        if(chunk == null || offset - chunk.offsetStart >= CHUNK_SIZE) {
+                            chunk = new Chunk(section, offset, cntFrames + 1);
+                            chunks.add(chunk);
+                        }
+                        cntFrames++;
+                        break;
+                    case 0x00000BAD:    //Custom block that rewriters can copy into new files.
+                    case 0x40000BAD:    //Custom block that rewriters should not copy into new files.
+                        Logger.log(this, Severity.Warning, "PcapNg Files contains unparsable data (" + sizeBlock + " bytes)");
+                        break;
+                    case BLOCK_SECTION_HEADER:
+                    case 4: //Name Resolution Block
+                    case 5: //Interface Statistics Block
+                    case 7: //IRIG Timestamp Block
+                    case 8: //ARINC 429 in AFDX Encapsulation Block
+                        break;
+                    case 0:
+                    default:
+                        //Block types with the high bit set are local use and can be skipped.
+                        if(typeBlock >= 0) {
+                            throw new IOException("Unknown block type: 0x" + ("0000000" + Integer.toHexString(typeBlock)).replaceAll("^.*(?=.{8}$)", ""));
+                        }
+                        break;
+                }
 
-            if (typeBlock < 0) {
-                return sizeBlock - 8;
+                offset += sizeBlock;
+                if(chunk == null) {
+                    source.recordTaskProgress(sizeBlock);
+                } else {
+                    chunk.offsetEnd = offset;
+                }
             }
+        } catch(IOException ex) {
+            //Parse whatever was readable before the error.
+            Logger.log(this, Severity.Error, "Error reading PcapNg file at offset " + offset + ": " + ex.getMessage());
         }
 
-        final ByteBuffer bufPacket;
-        final int cbProcessed;
-
-        switch(typeBlock) {
-            case 1: //Interface Description Block
-                //Don't process the trailing size; it will throw off bounds checking when processing options.
-                processIdb(channel, sizeBlock - 12);
-                source.recordTaskProgress(sizeBlock);
-                return 4;   // 4 bytes of trailing size
-            // Skip these blocks (Don't need the data)
-            case 5: //Interface Statistics Block
-            case 7: //IRIG Timestamp Block
-            case 8: //ARINC 429 in AFDX Encapsulation Block
-                source.recordTaskProgress(sizeBlock);
-                return sizeBlock - 8;
-            case 3: //Simple Packet Block
-                source.recordTaskProgress(16);
-                //The Block contains the original packet length (4 bytes) then the packet contents (padded to a 32-bit boundary) then the total length is repeated.
-                channel.position(channel.position() + 4);
-                bufPacket = ByteBuffer.allocateDirect(sizeBlock - 16);
-                channel.read(bufPacket);
-                bufPacket.rewind();
-                cbProcessed = handler.handle(bufPacket, Instant.now().toEpochMilli(), idxFrame++);
-                source.recordTaskProgress(sizeBlock - cbProcessed);
-                //Skip the last 4 bytes which is the repeated size
-                return 4;
-            case 2: //Packet Block (Obsolete, but still has to be readable)
-                //The only difference between these two is the interfaceID is 2 bytes (instead of 4) in the Packet Block, with the following 2 bytes for the Drops Count (not present in Enhanced Packet Block).  Since we use neither, parsing is the same.
-            case 6: //Enhanced Packet Block
-                bufEnhancedHeader.rewind();
-                channel.read(bufEnhancedHeader);
-
-                final int idInterface;
-                if(typeBlock == 2) {
-                    idInterface = bufEnhancedHeader.getShort(0);
-                } else {
-                    idInterface = bufEnhancedHeader.getInt(0);
-                }
-                final long ts = ((long)bufEnhancedHeader.getInt(4) << 32) | ((long)bufEnhancedHeader.getInt(8) & 0x00000000FFFFFFFFL);
-
-                final int cbCapture = (bufEnhancedHeader.getInt(12) + 3) & ~0x3;  // Round up to the nearest multiple of 32-bits.
-                bufPacket = ByteBuffer.wrap(new byte[cbCapture]);
-                channel.read(bufPacket);
-                bufPacket.rewind();
-                cbProcessed = handler.handle(bufPacket, ts * 1000L / timestampResolutions.get(idInterface), idxFrame++);
-                //Variable length options will be included.
-                source.recordTaskProgress(sizeBlock - cbProcessed);
-                return sizeBlock - (28 + cbCapture);
-            case 4: //Name Resolution Block
-                //TODO: Parse the name resolution block and use the data to augment nodes
-                source.recordTaskProgress(sizeBlock);
-                return sizeBlock - 8;
-            case 0x0A0D0D0A:    //Section Header Block
-                final ByteBuffer blockSectionHeader = ByteBuffer.wrap(new byte[4]);
-                channel.read(blockSectionHeader);
-
-                final int magicNumber = intFromBytes(blockSectionHeader.array(), 0, 4, false);
-                if(magicNumber == 0x1A2B3C4D) {
-                    isLittleEndian = false;
-                    bufEnhancedHeader.order(ByteOrder.BIG_ENDIAN);
-                } else if(magicNumber == 0x4D3C2B1A) {
-                    isLittleEndian = true;
-                    bufEnhancedHeader.order(ByteOrder.LITTLE_ENDIAN);
-                } else {
-                    throw new IOException("BOM Field in Section Header Block is wrong (0x" + Integer.toHexString(magicNumber) + ")");
+        return chunks;
+    }
+
+    /**
+     * Parses every block in a chunk, handing packets to the given handler.
+     */
+    protected void processChunk(MappedWindow window, Chunk chunk, PacketHandler handler) throws IOException {
+        window.setOrder(chunk.section.order);
+        int idxFrame = chunk.idxFirstFrame;
+        long offset = chunk.offsetStart;
+        while(offset < chunk.offsetEnd) {
+            final int idx = window.map(offset, 8);
+            final int typeBlock = window.buffer().getInt(idx);
+            final int sizeBlock = window.buffer().getInt(idx + 4);
+
+            final int cbProcessed;
+            switch(typeBlock) {
+                case 3: { //Simple Packet Block
+                    //The Block contains the original packet length (4 bytes) then the packet contents (padded to a 32-bit boundary) then the total length is repeated.
+                    final int cbOriginal = window.buffer().getInt(window.map(offset + 8, 4));
+                    final int cbCapture = Math.min(cbOriginal, sizeBlock - 16);
+                    final ByteBuffer bufPacket = window.slice(offset + 12, cbCapture);
+                    cbProcessed = handler.handle(bufPacket, Instant.now().toEpochMilli(), idxFrame++);
+                    break;
                 }
+                case 2: //Packet Block (Obsolete, but still has to be readable)
+                    //The only difference between these two is the interfaceID is 2 bytes (instead of 4) in the Packet Block, with the following 2 bytes for the Drops Count (not present in Enhanced Packet Block).  Since we use neither, parsing is the same.
+                case 6: { //Enhanced Packet Block
+                    final int idxHeader = window.map(offset + 8, 20);
+                    final int idInterface;
+                    if(typeBlock == 2) {
+                        idInterface = window.buffer().getShort(idxHeader) & 0xFFFF;
+                    } else {
+                        idInterface = window.buffer().getInt(idxHeader);
+                    }
+                    final long ts = ((long)window.buffer().getInt(idxHeader + 4) << 32) | ((long)window.buffer().getInt(idxHeader + 8) & 0x00000000FFFFFFFFL);
+                    final int cbCapture = window.buffer().getInt(idxHeader + 12);
 
-                final int sizeShb = intFromBytes(header, 4, 4, isLittleEndian);
-
-                source.recordTaskProgress(sizeShb);
-                return sizeShb - 12;
-            //Error conditions of varying severity:
-            case 0x00000BAD:    //Custom block that rewriters can copy into new files.
-            case 0x40000BAD:    //Custom block that rewriters should not copy into new files.
-                Logger.log(this, Severity.Warning, "PcapNg Files contains unparsable data (" + sizeBlock + " bytes)");
-                source.recordTaskProgress(sizeBlock);
-                return sizeBlock - 8;
-            case 0:
-            default:
-                throw new IOException("Unknown block type: 0x" + ("0000000" + Integer.toHexString(typeBlock)).replaceAll("^.*(?=.{8}$)", ""));
+                    final ByteBuffer bufPacket = window.slice(offset + 28, cbCapture);
+                    cbProcessed = handler.handle(bufPacket, millisFromTimestamp(ts, chunk.section.resolutionFor(idInterface)), idxFrame++);
+                    break;
+                }
+                default:
+                    cbProcessed = 0;
+                    break;
+            }
+            //Variable length options will be included.
+            source.recordTaskProgress(sizeBlock - cbProcessed);
+            offset += sizeBlock;
         }
     }
 
@@ -246,17 +294,41 @@ public class PcapNgFileParser {
         done = false;
 
         Runnable loop = () -> {
-            try(SeekableByteChannel reader = Files.newByteChannel(inPath)) {
-                while (true) {
-                    // Hand off to the parse routine...
-                    long cbRemaining = (long) processBlockHeader(reader);
-                    //Check for end-of-stream
-                    if (cbRemaining == -1) {
-                        break;
+            try(FileChannel channel = FileChannel.open(inPath, StandardOpenOption.READ)) {
+                final List<Chunk> chunks = prescan(new MappedWindow(channel, MappedWindow.DEFAULT_WINDOW_SIZE));
+
+                if(chunks.size() <= 1 || cntThreads == 1) {
+                    final MappedWindow window = new MappedWindow(channel, MappedWindow.DEFAULT_WINDOW_SIZE);
+                    final PacketHandler handler = new PacketHandler(source, packetQueue);
+                    for(Chunk chunk : chunks) {
+                        processChunk(window, chunk, handler);
                     }
-                    //And then advance the pointer by however many bytes are remaining
-                    if (cbRemaining != 0) {
-                        reader.position(reader.position() + cbRemaining);
+                } else {
+                    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(cntThreads, chunks.size()), runnable -> {
+                        final Thread thread = new Thread(runnable, "pcapng chunk");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    try {
+                        final List<Future<?>> results = new ArrayList<>(chunks.size());
+                        for(Chunk chunk : chunks) {
+                            results.add(executor.submit(() -> {
+                                //Fragments that span chunks are not reassembled, since each chunk has its own handler.
+                                processChunk(new MappedWindow(channel, CHUNK_SIZE * 2), chunk, new PacketHandler(source, packetQueue));
+                                return null;
+                            }));
+                        }
+                        for(Future<?> result : results) {
+                            try {
+                                result.get();
+                            } catch(ExecutionException ex) {
+                                ex.getCause().printStackTrace();
+                            }
+                        }
+                    } catch(InterruptedException ex) {
+                        //Program is probably closing.
+                    } finally {
+                        executor.shutdownNow();
                     }
                 }
             } catch(IOException ex) {
@@ -270,32 +342,6 @@ public class PcapNgFileParser {
         loopThread.start();
     }
 
-    protected static int intFromBytes(byte[] buffer, int offset, int size, boolean isSwapped) {
-        int result = 0;
-        for(int idx = 0; idx < size; idx++) {
-            result <<= 8;
-            if(isSwapped) {
-                result |= (buffer[offset + size - idx - 1] & 0xFF);
-            } else {
-                result |= (buffer[offset + idx] & 0xFF);
-            }
-        }
-        return result;
-    }
-
-    protected static long longFromBytes(byte[] buffer, int offset, int size, boolean isSwapped) {
-        long result = 0;
-        for(int idx = 0; idx < size; idx++) {
-            result <<= 8;
-            if(isSwapped) {
-                result |= (buffer[offset + size - idx - 1] & 0xFF);
-            } else {
-                result |= (buffer[offset + idx] & 0xFF);
-            }
-        }
-        return result;
-    }
-
     protected class LogicalIterator implements Iterator<Object> {
 
         @Override
@@ -10,6 +10,7 @@ BR_OPEN expr BR_CLOSE
 |expr PLUS expr
 |expr MINUS expr
 |number
+|VAR
 ;
 
 number: NUMBER;
@@ -21,6 +22,7 @@ DIV:    'div'   |   '/';
 MOD:    'mod'   |   '%';
 
 NUMBER: '-'?[0-9]+;
+VAR: 'x';
 BR_OPEN: '(';
 BR_CLOSE: ')';
 
@@ -79,6 +79,8 @@ public class Configuration {
         DIR_LIVE_CAPTURE("dir.misc.livecaptures", () -> getAppDataDirectory() + File.separator + "livecaptures"),
         DIR_LOGS("dir.logs", () -> getAppDataDirectory() + File.separator + "logs"),
         DIR_USER_FINGERPRINTS("dir.fingerprints.core", () -> getAppDataDirectory() + File.separator + "fingerprints"),
+        //Precompiled GeoIp, manufacturer and reference data; rebuilt from the source files whenever they change.
+        PATH_KNOWLEDGE_BASE("path.knowledgebase", () -> getAppDataDirectory() + File.separator + "knowledgebase.bin"),
 
         //User Data (user-specific settings and files)
         DIR_QUICKLIST("dir.quicklist", () -> Paths.get(getUserDataDirectory(), "quicklist").toString()),
@@ -107,6 +109,8 @@ public class Configuration {
         // == Other Preferences ===============================================
         LOGICAL_CREATE_DYNAMIC_SUBNETS("logical.use_dynamic_subnets", () -> "true"),
         LOGICAL_DYNAMIC_SUBNET_BITS("logical.dynamic_subnet_size", () -> "24"),
+        //Megabytes of frame history held in memory before older frames are moved to the frame archive; -1 for no limit.
+        LOGICAL_FRAME_MEMORY_BUDGET("logical.frames.memory_budget_mb", () -> "512"),
 
         LAST_RUN_VERSION("last_version", () -> ""),
         SUPPRESS_UNCHANGED_VERSION_NOTES("suppress_version_notes", () -> "true"),
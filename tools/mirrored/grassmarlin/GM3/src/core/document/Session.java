@@ -91,6 +91,12 @@ public class Session {
         return graphLogical;
     }
 
+    // Frame history of the logical edges that doesn't fit in memory.
+    private final FrameArchive archiveFrames;
+    public FrameArchive getFrameArchive() {
+        return archiveFrames;
+    }
+
     // == PHYSICAL VIEW =======================================================
     private final PhysicalTopology topology;
     private final PhysicalGraph graphPhysical;
@@ -134,10 +140,11 @@ public class Session {
         currentSessionName = new SimpleStringProperty("New Session");
 
         // -- Processing Core ------------------
-        dispatcher = new TaskDispatcher(Math.max(2, Runtime.getRuntime().availableProcessors() / 2), this);
+        dispatcher = new TaskDispatcher(Runtime.getRuntime().availableProcessors(), this);
 
         // -- LOGICAL VIEW ----------------
         graphLogical = new LogicalGraph();
+        archiveFrames = new FrameArchive();
         graphLogical.OnGraphCleared.addHandler((evt, args) -> AnnounceDocumentModified());
         graphLogical.OnNodeDirtied.addHandler((evt, args) -> AnnounceDocumentModified());
         // -- PHYSICAL --------------------
@@ -189,6 +196,7 @@ public class Session {
         listImports.clear();
 
         graphLogical.clearTopology();
+        archiveFrames.clear();
 
         //Clearing the device list will clear the physical graph.
         //graphPhysical.clear();
@@ -60,10 +60,6 @@ public abstract class AbstractBidirectionalEdge<TNode> implements IEdge<TNode>,
         }
     }
 
-    /**
-     * NOTE: If this method is ever changed, core.importmodule.TaskDispatcher.LogicalEdgeFactory.LogicalEdgePlaceholder must be updated as well.
-     * @return
-     */
     @Override
     public int hashCode() {
         return source.hashCode() ^ destination.hashCode();
@@ -0,0 +1,153 @@
+package core.document.graph;
+
+import java.util.*;
+
+/**
+ * The annotations and fingerprint results recorded for a LogicalNode, grouped by fingerprint (null for annotations that
+ * did not come from a fingerprint) and then by field.
+ *
+ * The same values are reported over and over for a node during an import, so adding a value that is already present is
+ * checked against the stored values directly and allocates nothing.  Properties passed in are stored as given, so the
+ * fixed values compiled into a fingerprint are shared by every node they are added to.  Not thread safe; LogicalNode
+ * synchronizes access.
+ */
+class AnnotationStore {
+    /**
+     * The values for one field.  Most fields hold one or two values, which are found by scanning; fields that collect
+     * many distinct values (such as extracted identifiers) also index them by value.
+     */
+    static class Values extends AbstractSet<ComputedProperty> {
+        private static final int MAX_SCANNED = 8;
+
+        private final AnnotationStore owner;
+        private final ArrayList<ComputedProperty> ordered;
+        // The first property stored for each value; a value seen with more than one confidence is rare and is scanned for.
+        private HashMap<String, ComputedProperty> index;
+
+        public Values(final AnnotationStore owner) {
+            this.owner = owner;
+            this.ordered = new ArrayList<>(2);
+            this.index = null;
+        }
+
+        public boolean contains(final String value, final int confidence) {
+            if(index != null) {
+                final ComputedProperty property = index.get(value);
+                if(property == null) {
+                    return false;
+                } else if(property.getConfidence() == confidence) {
+                    return true;
+                }
+            }
+            for(ComputedProperty property : ordered) {
+                if(property.getConfidence() == confidence && property.getValue().equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return true if the value was not already present.
+         */
+        public boolean add(final String value, final int confidence) {
+            if(contains(value, confidence)) {
+                return false;
+            }
+            append(new ComputedProperty(value, confidence));
+            return true;
+        }
+
+        @Override
+        public boolean add(final ComputedProperty property) {
+            if(contains(property.getValue(), property.getConfidence())) {
+                return false;
+            }
+            append(property);
+            return true;
+        }
+
+        private void append(final ComputedProperty property) {
+            ordered.add(property);
+            owner.version++;
+            if(index != null) {
+                index.putIfAbsent(property.getValue(), property);
+            } else if(ordered.size() > MAX_SCANNED) {
+                index = new HashMap<>();
+                for(ComputedProperty existing : ordered) {
+                    index.putIfAbsent(existing.getValue(), existing);
+                }
+            }
+        }
+
+        @Override
+        public void clear() {
+            ordered.clear();
+            index = null;
+            owner.version++;
+        }
+
+        @Override
+        public Iterator<ComputedProperty> iterator() {
+            return Collections.unmodifiableList(ordered).iterator();
+        }
+
+        @Override
+        public int size() {
+            return ordered.size();
+        }
+    }
+
+    private final HashMap<Object, HashMap<String, Values>> fingerprints;
+    private final HashMap<String, Values> annotations;
+    private int version;
+
+    public AnnotationStore() {
+        this.fingerprints = new HashMap<>();
+        this.annotations = new HashMap<>();
+        this.version = 0;
+    }
+
+    /**
+     * @return A counter that changes whenever a field is created or a value is added or cleared, so that anything
+     * derived from the store can tell whether it is stale.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public Values getContainer(final Object fingerprint, final String field) {
+        HashMap<String, Values> container;
+        if(fingerprint == null) {
+            container = annotations;
+        } else {
+            container = fingerprints.get(fingerprint);
+            if(container == null) {
+                container = new HashMap<>();
+                fingerprints.put(fingerprint, container);
+            }
+        }
+
+        Values values = container.get(field);
+        if(values == null) {
+            values = new Values(this);
+            container.put(field, values);
+            version++;
+        }
+        return values;
+    }
+
+    /**
+     * @return The annotations that did not come from a fingerprint, by field.
+     */
+    public Map<String, Values> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * @return The fingerprint results, by fingerprint and then by field.
+     */
+    public Map<Object, HashMap<String, Values>> getFingerprintResults() {
+        return fingerprints;
+    }
+}
@@ -0,0 +1,70 @@
+package core.document.graph;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records the nodes or edges added to and removed from a ConcurrentOrderedStore since the UI was last updated, so that
+ * a commit only has to apply what changed rather than comparing the store against the ObservableList.
+ *
+ * Any thread may record changes; drain is called only by the thread that updates the ObservableList.
+ */
+class ChangeJournal<T> {
+    private final ConcurrentLinkedQueue<T> changed;
+    // The instances currently in the ObservableList, keyed by themselves so an equal replacement can be recognized.
+    private final HashMap<T, T> committed;
+
+    public ChangeJournal() {
+        this.changed = new ConcurrentLinkedQueue<>();
+        this.committed = new HashMap<>();
+    }
+
+    /**
+     * Records that item was added to or removed from the store.
+     */
+    public void record(final T item) {
+        changed.add(item);
+    }
+
+    /**
+     * Compares everything recorded since the last call against the current contents of store.
+     * @param store The store whose changes were recorded.
+     * @param added Receives, in the order they were recorded, the instances that must be added to the ObservableList.
+     * @param removed Receives the instances that must be removed from the ObservableList.
+     */
+    public void drain(final ConcurrentOrderedStore<T> store, final Collection<T> added, final Collection<T> removed) {
+        //An item may be recorded many times between commits; only its state now matters.
+        final Set<T> pending = new LinkedHashSet<>();
+        for(T item = changed.poll(); item != null; item = changed.poll()) {
+            pending.add(item);
+        }
+
+        for(T item : pending) {
+            final T current = store.get(item);
+            final T previous = committed.get(item);
+            if(previous == current) {
+                continue;
+            }
+            if(previous != null) {
+                committed.remove(previous);
+                removed.add(previous);
+            }
+            if(current != null) {
+                committed.put(current, current);
+                added.add(current);
+            }
+        }
+    }
+
+    /**
+     * @return true if item itself, rather than an equal instance, was in the ObservableList after the last drain.
+     */
+    public boolean isCommitted(final T item) {
+        return committed.get(item) == item;
+    }
+
+    public void clear() {
+        changed.clear();
+        committed.clear();
+    }
+}
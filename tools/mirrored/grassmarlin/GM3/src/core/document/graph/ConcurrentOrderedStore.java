@@ -0,0 +1,115 @@
+package core.document.graph;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe set of canonical instances (nodes or edges) that remembers the order in which they were added.
+ *
+ * Lookups go through a ConcurrentHashMap, which (like HashMap) evaluates argument.equals(key), so lookups may be made
+ * with placeholder objects that are equal to, but not instances of, the stored type.  The insertion order is kept in a
+ * separate log; removed entries are flagged and dropped from the log once they make up a large part of it.
+ */
+public class ConcurrentOrderedStore<T> {
+    private static class Entry<T> {
+        private final T value;
+        private volatile boolean removed;
+
+        public Entry(T value) {
+            this.value = value;
+            this.removed = false;
+        }
+    }
+
+    private final ConcurrentHashMap<Object, Entry<T>> entries;
+    private final ConcurrentLinkedQueue<Entry<T>> log;
+    private final AtomicInteger cntRemoved;
+
+    public ConcurrentOrderedStore() {
+        this.entries = new ConcurrentHashMap<>();
+        this.log = new ConcurrentLinkedQueue<>();
+        this.cntRemoved = new AtomicInteger(0);
+    }
+
+    /**
+     * @return The stored instance equal to key, or null if there is none.
+     */
+    public T get(final Object key) {
+        final Entry<T> entry = entries.get(key);
+        return entry == null ? null : entry.value;
+    }
+
+    public boolean contains(final Object key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Atomically adds value if no equal instance is present.
+     * @return The instance that is stored once this returns; either value or the equal instance that was already present.
+     */
+    public T getOrAdd(final T value) {
+        //Most calls find the instance already present, which a plain get does without locking or allocating.
+        final Entry<T> entryFound = entries.get(value);
+        if(entryFound != null) {
+            return entryFound.value;
+        }
+        final Entry<T> entryNew = new Entry<>(value);
+        final Entry<T> entryExisting = entries.putIfAbsent(value, entryNew);
+        if(entryExisting != null) {
+            return entryExisting.value;
+        }
+        log.add(entryNew);
+        return value;
+    }
+
+    /**
+     * @return true if an instance equal to key was removed.
+     */
+    public boolean remove(final Object key) {
+        final Entry<T> entry = entries.remove(key);
+        if(entry == null) {
+            return false;
+        }
+        entry.removed = true;
+        if(cntRemoved.incrementAndGet() > entries.size()) {
+            compact();
+        }
+        return true;
+    }
+
+    public void clear() {
+        entries.clear();
+        log.clear();
+        cntRemoved.set(0);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return A snapshot of the stored instances, in the order they were added.
+     */
+    public List<T> values() {
+        final List<T> result = new ArrayList<>(entries.size());
+        for(Entry<T> entry : log) {
+            if(!entry.removed) {
+                result.add(entry.value);
+            }
+        }
+        return result;
+    }
+
+    private void compact() {
+        cntRemoved.set(0);
+        for(Iterator<Entry<T>> iterator = log.iterator(); iterator.hasNext(); ) {
+            if(iterator.next().removed) {
+                iterator.remove();
+            }
+        }
+    }
+}
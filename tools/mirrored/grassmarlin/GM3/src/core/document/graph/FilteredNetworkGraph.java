@@ -4,8 +4,7 @@ import com.sun.javafx.collections.ObservableListWrapper;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.*;
 import java.util.stream.Collectors;
 
 public class FilteredNetworkGraph extends LogicalGraph {
@@ -44,11 +43,7 @@ public class FilteredNetworkGraph extends LogicalGraph {
             nodesAdded.addAll(change.getAddedSubList());
         }
 
-        removeNodes(nodesRemoved);
-        addNodes(nodesAdded);
-        updateEdges();
-
-        refresh();
+        updateNodes(nodesRemoved, nodesAdded);
     }
     private void Handle_HiddenListChanged(ListChangeListener.Change<? extends LogicalNode> change) {
         LinkedList<LogicalNode> nodesRemoved = new LinkedList<>();
@@ -59,26 +54,78 @@ public class FilteredNetworkGraph extends LogicalGraph {
             nodesRemoved.addAll(change.getAddedSubList());
         }
 
+        updateNodes(nodesRemoved, nodesAdded);
+    }
+    private void Handle_EdgeListChanged(ListChangeListener.Change<? extends LogicalEdge> change) {
+        //The root commits the changes drained from its journal, so the change holds exactly the edges that moved.  A
+        // replaced edge appears as both the old and the new instance, which are equal, so they are not put in a set.
+        final List<LogicalEdge> edgesChanged = new ArrayList<>();
+        while(change.next()) {
+            edgesChanged.addAll(change.getRemoved());
+            edgesChanged.addAll(change.getAddedSubList());
+        }
+
+        updateEdges(edgesChanged);
+        refresh();
+    }
+
+    private void updateNodes(final List<LogicalNode> nodesRemoved, final List<LogicalNode> nodesAdded) {
+        //Only edges involving a node that was shown or hidden can change; removing a node drops its adjacency, so the
+        // edges have to be collected first.
+        final List<LogicalEdge> edgesChanged = new ArrayList<>();
+        for(LogicalNode node : nodesRemoved) {
+            edgesChanged.addAll(getEdgesInvolving(node));
+        }
+        for(LogicalNode node : nodesAdded) {
+            edgesChanged.addAll(root.getEdgesInvolving(node));
+        }
+
         removeNodes(nodesRemoved);
         addNodes(nodesAdded);
-        updateEdges();
+        updateEdges(edgesChanged);
 
         refresh();
     }
-    private void Handle_EdgeListChanged(ListChangeListener.Change<? extends LogicalEdge> change) {
-        updateEdges();
-        refresh();
+
+    /**
+     * Shows or hides each of the given edges, based on whether the root has committed it and both endpoints are shown.
+     */
+    private void updateEdges(final Collection<LogicalEdge> edgesChanged) {
+        //Removals are applied first, so that an instance the root replaced with an equal one makes way for it.
+        final List<LogicalEdge> edgesRemoved = new ArrayList<>();
+        for(LogicalEdge edge : edgesChanged) {
+            if(!isVisible(edge) && edges.get(edge) == edge) {
+                edgesRemoved.add(edge);
+            }
+        }
+        removeEdges(edgesRemoved);
+
+        final List<LogicalEdge> edgesAdded = new ArrayList<>();
+        for(LogicalEdge edge : edgesChanged) {
+            if(isVisible(edge) && !edges.contains(edge)) {
+                edgesAdded.add(edge);
+            }
+        }
+        addEdges(edgesAdded);
+    }
+
+    //Only use edges committed in the root, but check against uncommitted nodes.
+    private boolean isVisible(final LogicalEdge edge) {
+        return root.journalEdges.isCommitted(edge) && nodes.contains(edge.getSource()) && nodes.contains(edge.getDestination());
     }
 
+    /**
+     * Compares every edge committed in the root against the nodes shown; used when the filter is first populated.
+     */
     protected void updateEdges() {
         //Only use edges committed in the root, but check against uncommitted nodes.
-        List<LogicalEdge> edgesAll = new LinkedList<>(root.edgesObservable);
-        List<LogicalEdge> edgesFiltered = edgesAll.stream().filter(edge -> nodes.containsKey(edge.getSource()) && nodes.containsKey(edge.getDestination())).collect(Collectors.toList());
+        //Membership is tested against hashed sets; comparing the lists directly is quadratic in the number of edges.
+        final Set<LogicalEdge> edgesFiltered = root.edgesObservable.stream()
+                .filter(edge -> nodes.contains(edge.getSource()) && nodes.contains(edge.getDestination()))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
 
-        List<LogicalEdge> edgesRemoved = new LinkedList<>(edges.keySet());
-        edgesRemoved.removeAll(edgesFiltered);
-        List<LogicalEdge> edgesAdded = new LinkedList<>(edgesFiltered);
-        edgesAdded.removeAll(edges.keySet());
+        final List<LogicalEdge> edgesRemoved = edges.values().stream().filter(edge -> !edgesFiltered.contains(edge)).collect(Collectors.toList());
+        final List<LogicalEdge> edgesAdded = edgesFiltered.stream().filter(edge -> !edges.contains(edge)).collect(Collectors.toList());
 
         addEdges(edgesAdded);
         removeEdges(edgesRemoved);
@@ -0,0 +1,147 @@
+package core.document.graph;
+
+import core.Configuration;
+import core.logging.Logger;
+import core.logging.Severity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory-mapped file holding the frame history that no longer fits in the memory budget.
+ *
+ * FrameTables register every chunk of frames they allocate, and the capacity of every chunk held in memory counts
+ * against the LOGICAL_FRAME_MEMORY_BUDGET.  Once that is exceeded, the oldest chunks are sealed, copied into the archive
+ * and their arrays released; from then on the chunk reads from its region of the archive, which the OS pages in as
+ * needed.  A partial chunk that is still being written is passed over once before it is sealed.
+ *
+ * Each Session owns one archive.  Clearing the session moves the archive on to a new file; chunks from before the clear
+ * may still be mapped, so the old file is left to be deleted when the JVM exits.
+ */
+public class FrameArchive {
+    private static final long SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    private final ConcurrentLinkedQueue<FrameTable.Chunk> chunksResident;
+    private final AtomicInteger cntResident;
+    private final AtomicLong cbResident;
+
+    private Path path;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long offsetNextSegment;
+    // Set if the archive can't be created; frames are then kept in memory regardless of the budget.
+    private volatile boolean isDisabled;
+
+    public FrameArchive() {
+        this.chunksResident = new ConcurrentLinkedQueue<>();
+        this.cntResident = new AtomicInteger(0);
+        this.cbResident = new AtomicLong(0);
+        this.path = null;
+        this.channel = null;
+        this.segment = null;
+        this.offsetNextSegment = 0;
+        this.isDisabled = false;
+    }
+
+    /**
+     * Called when a chunk is allocated; the memory it holds counts against the budget until it is archived.
+     */
+    void retain(final FrameTable.Chunk chunk, final long cb) {
+        chunksResident.add(chunk);
+        cntResident.incrementAndGet();
+        reserve(cb);
+    }
+
+    /**
+     * Called when a resident chunk grows; archives the oldest resident chunks if the budget has been exceeded.
+     */
+    void reserve(final long cb) {
+        final long cbBudget = Configuration.getPreferenceLong(Configuration.Fields.LOGICAL_FRAME_MEMORY_BUDGET) * 1024L * 1024L;
+        if(cbResident.addAndGet(cb) <= cbBudget || cbBudget < 0 || isDisabled) {
+            return;
+        }
+
+        //Every chunk gets at most one second chance, so this ends even if every table is still being written.
+        int cntRemaining = 2 * cntResident.get();
+        while(cbResident.get() > cbBudget && cntRemaining-- > 0) {
+            final FrameTable.Chunk chunkOldest = chunksResident.poll();
+            if(chunkOldest == null) {
+                return;
+            }
+            if(chunkOldest.checkRecentlyUsed()) {
+                chunksResident.add(chunkOldest);
+                continue;
+            }
+            final long cbReleased = chunkOldest.archive(this);
+            if(cbReleased < 0) {
+                //The archive is unavailable, so the chunk has to stay in memory.
+                chunksResident.add(chunkOldest);
+                return;
+            }
+            cntResident.decrementAndGet();
+            cbResident.addAndGet(-cbReleased);
+        }
+    }
+
+    /**
+     * Reserves space at the end of the archive.
+     * @return A buffer covering exactly the reserved region, or null if the archive is unavailable.
+     */
+    synchronized ByteBuffer allocate(final int cb) {
+        if(isDisabled) {
+            return null;
+        }
+        try {
+            if(channel == null) {
+                path = Files.createTempFile("grassmarlin", ".frames");
+                path.toFile().deleteOnExit();
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                offsetNextSegment = 0;
+            }
+            if(segment == null || segment.remaining() < cb) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, offsetNextSegment, SEGMENT_SIZE);
+                offsetNextSegment += SEGMENT_SIZE;
+            }
+        } catch(IOException ex) {
+            Logger.log(this, Severity.Warning, "Unable to create the frame archive; frame history will be kept in memory: " + ex.getMessage());
+            isDisabled = true;
+            return null;
+        }
+
+        final ByteBuffer result = segment.slice();
+        result.limit(cb);
+        segment.position(segment.position() + cb);
+        return result;
+    }
+
+    /**
+     * Forgets every chunk and starts a new file with the next allocation.  Chunks that were already archived keep their
+     * mapping, so anything still holding them continues to work until it is released.
+     */
+    public synchronized void clear() {
+        chunksResident.clear();
+        cntResident.set(0);
+        cbResident.set(0);
+        segment = null;
+        offsetNextSegment = 0;
+        isDisabled = false;
+        if(channel != null) {
+            try {
+                //Closing the channel does not unmap the file; it can't be deleted until the mappings are collected.
+                channel.close();
+            } catch(IOException ex) {
+                Logger.log(this, Severity.Warning, "Unable to close the frame archive: " + ex.getMessage());
+            }
+            channel = null;
+            path = null;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package core.document.graph;
+
+import core.document.serialization.xml.XmlElement;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Column-oriented storage for the frames of one direction of a LogicalEdge from a single ImportItem.
+ *
+ * Rows are stored in chunks of primitive arrays rather than as one object per frame.  Each chunk starts small and grows
+ * until it reaches CHUNK_SIZE, since most edges only ever see a handful of frames; once a chunk is full, or has been
+ * sealed by the FrameArchive, the next row starts a new chunk and the old one is never modified again.  Every chunk is
+ * registered with the FrameArchive of the session, which may seal it and move it out of memory.
+ *
+ * A single thread may add rows while any number of threads read them; readers see every row up to the size they read.
+ */
+public class FrameTable {
+    public interface FrameVisitor {
+        void visit(long frame, long time, int bytes, int protocol, int portSource, int portDestination);
+    }
+
+    public static final int CHUNK_SIZE = 4096;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Protocol and both ports are packed into a single long, each offset by one so that -1 can be represented.
+    private static final int SHIFT_PORT_SOURCE = 16;
+    private static final int SHIFT_PORT_DESTINATION = 33;
+
+    /**
+     * The rows from start onwards, held either in arrays or, once archived, in a region of the FrameArchive laid out as
+     * the same four columns one after another.
+     *
+     * The writer and the FrameArchive synchronize on the chunk, so a row is either added before the chunk is sealed
+     * and archived with it, or goes to the next chunk.  Readers never lock.
+     */
+    static class Chunk {
+        static final int ROW_BYTES = 8 + 8 + 4 + 8;
+
+        private final int start;
+        private int count;
+        private boolean isSealed;
+        // Set by every add and cleared by the FrameArchive, so that chunks still being written stay in memory longer.
+        private volatile boolean isRecentlyUsed;
+
+        // The arrays are cleared only after archived is set, so a reader that finds an array missing will find archived.
+        private volatile long[] times;
+        private volatile long[] frames;
+        private volatile int[] bytes;
+        private volatile long[] flows;
+        private ByteBuffer archived;
+        private int offsetFrames;
+        private int offsetBytes;
+        private int offsetFlows;
+
+        private Chunk(int start, int capacity) {
+            this.start = start;
+            this.count = 0;
+            this.isSealed = false;
+            this.isRecentlyUsed = true;
+            this.times = new long[capacity];
+            this.frames = new long[capacity];
+            this.bytes = new int[capacity];
+            this.flows = new long[capacity];
+            this.archived = null;
+        }
+
+        /**
+         * @return The number of bytes of memory the chunk holds.
+         */
+        private long getBytesHeld() {
+            final long[] values = times;
+            return values == null ? 0 : (long)values.length * ROW_BYTES;
+        }
+
+        /**
+         * Appends a row unless the chunk is full or sealed.
+         * @return The number of bytes of memory added to the chunk, 0 if the row didn't need more room, or -1 if the
+         * row belongs in a new chunk.
+         */
+        private synchronized long add(long time, long frame, int cntBytes, long flow) {
+            if(isSealed || count == CHUNK_SIZE) {
+                return -1;
+            }
+            long cbAdded = 0;
+            if(count == times.length) {
+                final int capacity = Math.min(CHUNK_SIZE, count * 2);
+                cbAdded = (long)(capacity - count) * ROW_BYTES;
+                times = Arrays.copyOf(times, capacity);
+                frames = Arrays.copyOf(frames, capacity);
+                bytes = Arrays.copyOf(bytes, capacity);
+                flows = Arrays.copyOf(flows, capacity);
+            }
+            times[count] = time;
+            frames[count] = frame;
+            bytes[count] = cntBytes;
+            flows[count] = flow;
+            count++;
+            if(!isRecentlyUsed) {
+                isRecentlyUsed = true;
+            }
+            return cbAdded;
+        }
+
+        long getTime(int idxRow) {
+            final long[] values = times;
+            return values != null ? values[idxRow] : archived.getLong(idxRow * 8);
+        }
+        long getFrame(int idxRow) {
+            final long[] values = frames;
+            return values != null ? values[idxRow] : archived.getLong(offsetFrames + idxRow * 8);
+        }
+        int getBytes(int idxRow) {
+            final int[] values = bytes;
+            return values != null ? values[idxRow] : archived.getInt(offsetBytes + idxRow * 4);
+        }
+        long getFlow(int idxRow) {
+            final long[] values = flows;
+            return values != null ? values[idxRow] : archived.getLong(offsetFlows + idxRow * 8);
+        }
+
+        /**
+         * Clears the recently used flag.
+         * @return true if a partial chunk has been written since the last call; full chunks never change, so never count
+         * as recently used.
+         */
+        boolean checkRecentlyUsed() {
+            if(!isRecentlyUsed) {
+                return false;
+            }
+            isRecentlyUsed = false;
+            synchronized(this) {
+                return count < CHUNK_SIZE && !isSealed;
+            }
+        }
+
+        /**
+         * Seals the chunk, copies its rows into space reserved from archive and releases the arrays.
+         * @return The number of bytes of memory released, or -1 if the archive is unavailable.
+         */
+        synchronized long archive(FrameArchive archive) {
+            if(isSealed) {
+                return 0;
+            }
+            final ByteBuffer region = archive.allocate(count * ROW_BYTES);
+            if(region == null) {
+                return -1;
+            }
+            final long cbReleased = getBytesHeld();
+            offsetFrames = count * 8;
+            offsetBytes = count * 16;
+            offsetFlows = count * 20;
+            for(int idx = 0; idx < count; idx++) {
+                region.putLong(idx * 8, times[idx]);
+                region.putLong(offsetFrames + idx * 8, frames[idx]);
+                region.putInt(offsetBytes + idx * 4, bytes[idx]);
+                region.putLong(offsetFlows + idx * 8, flows[idx]);
+            }
+            isSealed = true;
+            archived = region;
+            times = null;
+            frames = null;
+            bytes = null;
+            flows = null;
+            return cbReleased;
+        }
+    }
+
+    private static final Chunk[] NO_CHUNKS = new Chunk[0];
+
+    private final FrameArchive archive;
+    private Chunk[] chunks;
+    private volatile int size;
+
+    public FrameTable(FrameArchive archive) {
+        this.archive = archive;
+        this.chunks = NO_CHUNKS;
+        this.size = 0;
+    }
+
+    public void add(int portSource, int portDestination, int protocol, long frame, long time, int cntBytes) {
+        final int idx = size;
+        final long flow = ((long)(protocol + 1) & 0xFFFFL)
+                | (((long)(portSource + 1) & 0x1FFFFL) << SHIFT_PORT_SOURCE)
+                | (((long)(portDestination + 1) & 0x1FFFFL) << SHIFT_PORT_DESTINATION);
+
+        final long cbAdded = chunks.length == 0 ? -1 : chunks[chunks.length - 1].add(time, frame, cntBytes, flow);
+        Chunk chunkNew = null;
+        if(cbAdded == -1) {
+            //A chunk that filled stays full-sized, since the table is busy; one that was sealed starts small again.
+            final boolean isBusy = chunks.length != 0 && idx - chunks[chunks.length - 1].start == CHUNK_SIZE;
+            chunkNew = new Chunk(idx, isBusy ? CHUNK_SIZE : INITIAL_CAPACITY);
+            chunkNew.add(time, frame, cntBytes, flow);
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = chunkNew;
+        }
+        //Publishing the new size makes the row visible to readers.
+        size = idx + 1;
+
+        //The chunk lock is not held here, so the archive is free to lock other chunks.
+        if(chunkNew != null) {
+            archive.retain(chunkNew, chunkNew.getBytesHeld());
+        } else if(cbAdded > 0) {
+            archive.reserve(cbAdded);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the chunk holding a row that has been published by size.
+     */
+    private Chunk chunkFor(int idx) {
+        final Chunk[] chunks = this.chunks;
+        int lo = 0;
+        int hi = chunks.length - 1;
+        while(lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if(chunks[mid].start <= idx) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return chunks[lo];
+    }
+
+    public long getFrame(int idx) {
+        final Chunk chunk = chunkFor(idx);
+        return chunk.getFrame(idx - chunk.start);
+    }
+    public long getTime(int idx) {
+        final Chunk chunk = chunkFor(idx);
+        return chunk.getTime(idx - chunk.start);
+    }
+    public int getBytes(int idx) {
+        final Chunk chunk = chunkFor(idx);
+        return chunk.getBytes(idx - chunk.start);
+    }
+    public int getProtocol(int idx) {
+        final Chunk chunk = chunkFor(idx);
+        return (int)(chunk.getFlow(idx - chunk.start) & 0xFFFFL) - 1;
+    }
+    public int getSourcePort(int idx) {
+        final Chunk chunk = chunkFor(idx);
+        return (int)((chunk.getFlow(idx - chunk.start) >>> SHIFT_PORT_SOURCE) & 0x1FFFFL) - 1;
+    }
+    public int getDestinationPort(int idx) {
+        final Chunk chunk = chunkFor(idx);
+        return (int)((chunk.getFlow(idx - chunk.start) >>> SHIFT_PORT_DESTINATION) & 0x1FFFFL) - 1;
+    }
+
+    /**
+     * Visits every row present when the call is made, in the order they were added.
+     */
+    public void forEach(FrameVisitor visitor) {
+        final int cntRows = size;
+        final Chunk[] chunks = this.chunks;
+        for(int idxChunk = 0; idxChunk < chunks.length; idxChunk++) {
+            final Chunk chunk = chunks[idxChunk];
+            if(chunk.start >= cntRows) {
+                break;
+            }
+            final int end = idxChunk + 1 < chunks.length ? Math.min(cntRows, chunks[idxChunk + 1].start) : cntRows;
+            for(int idx = chunk.start; idx < end; idx++) {
+                final int idxRow = idx - chunk.start;
+                final long flow = chunk.getFlow(idxRow);
+                visitor.visit(
+                        chunk.getFrame(idxRow),
+                        chunk.getTime(idxRow),
+                        chunk.getBytes(idxRow),
+                        (int)(flow & 0xFFFFL) - 1,
+                        (int)((flow >>> SHIFT_PORT_SOURCE) & 0x1FFFFL) - 1,
+                        (int)((flow >>> SHIFT_PORT_DESTINATION) & 0x1FFFFL) - 1);
+            }
+        }
+    }
+
+    public XmlElement toXml(int idx) {
+        XmlElement xmlResult = new XmlElement("frame");
+        xmlResult.addAttribute("time").setValue(Long.toString(getTime(idx)));
+        xmlResult.addAttribute("bytes").setValue(Integer.toString(getBytes(idx)));
+        xmlResult.addAttribute("frame").setValue(Long.toString(getFrame(idx)));
+        xmlResult.addAttribute("protocol").setValue(Integer.toString(getProtocol(idx)));
+        xmlResult.addAttribute("srcPort").setValue(Integer.toString(getSourcePort(idx)));
+        xmlResult.addAttribute("dstPort").setValue(Integer.toString(getDestinationPort(idx)));
+
+        return xmlResult;
+    }
+}
@@ -19,75 +19,31 @@ import java.util.zip.ZipOutputStream;
 
 public class LogicalEdge extends AbstractBidirectionalEdge<LogicalNode> {
     public static class ConnectionDetails {
-        public static class FrameRecord {
-            private final long frame;
-            private final long time;
-            private final int bytes;
-            private final int protocol;
-            private final int portSource;
-            private final int portDestination;
-
-            public FrameRecord(int portSource, int portDestination, int protocol, long frame, long time, int cntBytes) {
-                this.portSource = portSource;
-                this.portDestination = portDestination;
-                this.protocol = protocol;
-                this.frame = frame;
-                this.time = time;
-                this.bytes = cntBytes;
-            }
-
-            public long getFrame() {
-                return frame;
-            }
-            public long getTime() {
-                return time;
-            }
-            public int getBytes() {
-                return bytes;
-            }
-            public int getProtocol() {
-                return protocol;
-            }
-            public int getSourcePort() {
-                return portSource;
-            }
-            public int getDestinationPort() {
-                return portDestination;
-            }
-
-            public XmlElement toXml() {
-                XmlElement xmlResult = new XmlElement("frame");
-                xmlResult.addAttribute("time").setValue(Long.toString(time));
-                xmlResult.addAttribute("bytes").setValue(Integer.toString(bytes));
-                xmlResult.addAttribute("frame").setValue(Long.toString(frame));
-                xmlResult.addAttribute("protocol").setValue(Integer.toString(protocol));
-                xmlResult.addAttribute("srcPort").setValue(Integer.toString(portSource));
-                xmlResult.addAttribute("dstPort").setValue(Integer.toString(portDestination));
-
-                return xmlResult;
-            }
-        }
         private final SimpleLongProperty cntBytes;
-        private final Map<ImportItem, List<FrameRecord>> Frames;
+        private final Map<ImportItem, FrameTable> Frames;
         private final FxObservableSet<Integer> Protocols;
+        private final TrafficRollup rollup;
+        private final FrameArchive archive;
 
-        public ConnectionDetails() {
+        public ConnectionDetails(FrameArchive archive) {
             cntBytes = new FxLongProperty(0);
             Frames = new HashMap<>();
             Protocols = new FxObservableSet<>();
+            rollup = new TrafficRollup();
+            this.archive = archive;
         }
 
         public synchronized void AddPacket(ImportItem source, int portSource, int portDestination, long cntBytes, long idxFrame, int proto, long time) {
             this.cntBytes.set(this.cntBytes.get() + cntBytes);
             //The frames are partitioned by the ImportItem that was the source of the frame information.
-            List<FrameRecord> frames = Frames.get(source);
+            FrameTable frames = Frames.get(source);
             if(frames == null) {
-                //Initial buffer for 1024 frames; completely arbitrary number, there is no science behind why it was chosen.
-                frames = new ArrayList<>(1024);
+                frames = new FrameTable(archive);
                 Frames.put(source, frames);
             }
-            frames.add(new FrameRecord(portSource, portDestination, proto, idxFrame, time, (int) cntBytes)); //A single frame should not come anywhere near the size of an int, let alone a long.
+            frames.add(portSource, portDestination, proto, idxFrame, time, (int) cntBytes); //A single frame should not come anywhere near the size of an int, let alone a long.
             Protocols.add(proto);
+            rollup.add(time, proto, cntBytes);
         }
 
         public long getBytes() {
@@ -98,7 +54,7 @@ public class LogicalEdge extends AbstractBidirectionalEdge<LogicalNode> {
         }
         public int getFrameCount() {
             int cntFrames = 0;
-            for(List<?> frames : Frames.values()) {
+            for(FrameTable frames : Frames.values()) {
                 cntFrames += frames.size();
             }
             return cntFrames;
@@ -106,16 +62,19 @@ public class LogicalEdge extends AbstractBidirectionalEdge<LogicalNode> {
         public Collection<ImportItem> getFrameGroups() {
             return Frames.keySet();
         }
-        public List<FrameRecord> getFrames(ImportItem set) {
+        public FrameTable getFrames(ImportItem set) {
             return Frames.get(set);
         }
+        public TrafficRollup getRollup() {
+            return rollup;
+        }
     }
 
-    public LogicalEdge(LogicalNode source, LogicalNode destination) {
+    public LogicalEdge(LogicalNode source, LogicalNode destination, FrameArchive archive) {
         super(source, destination);
 
-        detailsDestinationToSource = new ConnectionDetails();
-        detailsSourceToDestination = new ConnectionDetails();
+        detailsDestinationToSource = new ConnectionDetails(archive);
+        detailsSourceToDestination = new ConnectionDetails(archive);
 
         detailsEdge = new FxStringProperty();
         if(source == null || destination == null) {
@@ -176,8 +135,9 @@ public class LogicalEdge extends AbstractBidirectionalEdge<LogicalNode> {
 
             zos.write(xmlSource.openTag().getBytes(StandardCharsets.UTF_8));
 
-            for(LogicalEdge.ConnectionDetails.FrameRecord frame : getDetailsToDestination().getFrames(item)) {
-                zos.write(frame.toXml().toString().getBytes(StandardCharsets.UTF_8));
+            final FrameTable frames = getDetailsToDestination().getFrames(item);
+            for(int idx = 0; idx < frames.size(); idx++) {
+                zos.write(frames.toXml(idx).toString().getBytes(StandardCharsets.UTF_8));
                 zos.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
             }
 
@@ -202,8 +162,9 @@ public class LogicalEdge extends AbstractBidirectionalEdge<LogicalNode> {
 
             zos.write(xmlSource.openTag().getBytes(StandardCharsets.UTF_8));
 
-            for(LogicalEdge.ConnectionDetails.FrameRecord frame : getDetailsToDestination().getFrames(item)) {
-                zos.write(frame.toXml().toString().getBytes(StandardCharsets.UTF_8));
+            final FrameTable frames = getDetailsToSource().getFrames(item);
+            for(int idx = 0; idx < frames.size(); idx++) {
+                zos.write(frames.toXml(idx).toString().getBytes(StandardCharsets.UTF_8));
                 zos.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
             }
 
@@ -9,6 +9,7 @@ import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import ui.dialog.ManageLogicalNetworksDialogFx;
 import util.Cidr;
+import util.LongObjectMap;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -19,11 +20,17 @@ import java.util.Set;
 import java.util.zip.ZipOutputStream;
 
 public class LogicalGraph extends NetworkGraph<LogicalNode, LogicalEdge> {
-
     private final ObservableList<Cidr> cidrsLogical;
+    // The nodes, and the edges between two single addresses, keyed by their packed addresses (see keyForNode and
+    // keyForEdge) so that they can be found without constructing anything to search with.  Each map is guarded by its
+    // own monitor.
+    private final LongObjectMap<LogicalNode> nodesByAddress;
+    private final LongObjectMap<LogicalEdge> edgesByAddress;
 
     protected LogicalGraph(ObservableList<Cidr> cidrs) {
         this.cidrsLogical = cidrs;
+        this.nodesByAddress = new LongObjectMap<>();
+        this.edgesByAddress = new LongObjectMap<>();
         cidrsLogical.addListener(this::Handle_NetworksChanged);
         ManageLogicalNetworksDialogFx.getInstance().itemsProperty().setValue(this.cidrsLogical);
     }
@@ -68,18 +75,10 @@ public class LogicalGraph extends NetworkGraph<LogicalNode, LogicalEdge> {
     }
 
     @Override
-    protected void Process_commitUI() {
-        synchronized(lock) {
-            //Find all new nodes and identify which, if any, networks need to be created.
-            if (Configuration.getPreferenceBoolean(Configuration.Fields.LOGICAL_CREATE_DYNAMIC_SUBNETS)) {
-                final List<LogicalNode> nodesNew = new LinkedList<>(nodes.keySet());
-                nodesNew.removeAll(nodesObservable);
-
-                createSubnets(nodesNew);
-            }
-
-            //Commit the nodes/edges now.  We will look at the committed entities to determine what networks need to be built
-            super.Process_commitUI();
+    protected void beforeCommit(final List<LogicalNode> nodesNew) {
+        //Identify which, if any, networks need to be created for the nodes being committed.
+        if (Configuration.getPreferenceBoolean(Configuration.Fields.LOGICAL_CREATE_DYNAMIC_SUBNETS)) {
+            createSubnets(nodesNew);
         }
     }
 
@@ -100,17 +99,88 @@ public class LogicalGraph extends NetworkGraph<LogicalNode, LogicalEdge> {
         cidrsLogical.addAll(cidrsToAdd);
     }
 
+    /**
+     * The first and last address identify a Cidr exactly, and each fits in 32 bits.
+     */
+    private static long keyForNode(Cidr ip) {
+        return (ip.getFirstIp() << 32) | ip.getLastIp();
+    }
+
+    /**
+     * Packs the two IPv4 addresses into a long, lower address first, so both directions produce the same key.
+     */
+    public static long keyForEdge(long ipSource, long ipDestination) {
+        return ipSource < ipDestination ? (ipSource << 32) | ipDestination : (ipDestination << 32) | ipSource;
+    }
+
+    private static boolean isSingleAddress(LogicalNode node) {
+        return node.getIp().getFirstIp() == node.getIp().getLastIp();
+    }
+
+    @Override
+    protected void afterNodeAdded(final LogicalNode node) {
+        synchronized(nodesByAddress) {
+            nodesByAddress.put(keyForNode(node.getIp()), node);
+        }
+    }
+    @Override
+    protected void afterNodeRemoved(final LogicalNode node) {
+        final long key = keyForNode(node.getIp());
+        synchronized(nodesByAddress) {
+            //An equal node may already have been added in its place.
+            if(nodesByAddress.get(key) == node) {
+                nodesByAddress.remove(key);
+            }
+        }
+    }
+    @Override
+    protected void afterEdgeAdded(final LogicalEdge edge) {
+        if(isSingleAddress(edge.getSource()) && isSingleAddress(edge.getDestination())) {
+            synchronized(edgesByAddress) {
+                edgesByAddress.put(keyForEdge(edge.getSource().getIp().getFirstIp(), edge.getDestination().getIp().getFirstIp()), edge);
+            }
+        }
+    }
     @Override
-    public LogicalEdge addEdge(LogicalEdge edgeNew) {
-        addNode(edgeNew.getSource());
-        addNode(edgeNew.getDestination());
+    protected void afterEdgeRemoved(final LogicalEdge edge) {
+        if(isSingleAddress(edge.getSource()) && isSingleAddress(edge.getDestination())) {
+            final long key = keyForEdge(edge.getSource().getIp().getFirstIp(), edge.getDestination().getIp().getFirstIp());
+            synchronized(edgesByAddress) {
+                if(edgesByAddress.get(key) == edge) {
+                    edgesByAddress.remove(key);
+                }
+            }
+        }
+    }
 
-        return super.addEdge(edgeNew);
+    /**
+     * @return The node with the given address, or null if there isn't one.
+     */
+    public LogicalNode findNode(Cidr ip) {
+        synchronized(nodesByAddress) {
+            return nodesByAddress.get(keyForNode(ip));
+        }
+    }
+
+    /**
+     * @return The edge between the nodes for the two single IPv4 addresses, in either direction, or null if there isn't
+     * one.
+     */
+    public LogicalEdge findEdge(long ipSource, long ipDestination) {
+        synchronized(edgesByAddress) {
+            return edgesByAddress.get(keyForEdge(ipSource, ipDestination));
+        }
     }
 
     @Override
     public void clearTopology() {
         super.clearTopology();
+        synchronized(nodesByAddress) {
+            nodesByAddress.clear();
+        }
+        synchronized(edgesByAddress) {
+            edgesByAddress.clear();
+        }
 
         cidrsLogical.clear();
     }
@@ -31,8 +31,13 @@ public class LogicalNode implements INode<LogicalNode>, ObservableValue<LogicalN
 
     private final LazyProperty<String> country;
 
-    private final HashMap<Object, HashMap<String, Set<ComputedProperty>>> fingerprintPayloadResults;
-    private final HashMap<String, Set<ComputedProperty>> annotations;
+    private final AnnotationStore annotations;
+    // getGroups is called for every node whenever the graph is grouped, drawn or reported on, so the result is kept
+    // until the annotations, network or country change.
+    private Map<String, String> groupsCached;
+    private int groupsVersion;
+    private Cidr groupsNetwork;
+    private String groupsCountry;
 
     private final SimpleStringProperty title;
     private final SimpleStringProperty subtitle;
@@ -42,13 +47,13 @@ public class LogicalNode implements INode<LogicalNode>, ObservableValue<LogicalN
     private final LazyProperty<Cidr> network;
 
     public LogicalNode(final Cidr ip, final byte[] mac, final ObservableList<Cidr> networks) {
-        //NOTE: 2 LogicalNode objects are constructed for every incoming packet.  the execution time of this constructor method is very relevant to the performance of the import process.
+        //NOTE: LogicalNode objects are only constructed when an address is first seen during an import, but loading a session constructs one for every node.
 
         this.cidr = ip;
         this.mac = mac;
 
-        this.fingerprintPayloadResults = new HashMap<>();
-        this.annotations = new HashMap<>();
+        this.annotations = new AnnotationStore();
+        this.groupsCached = null;
         this.country = new LazyProperty<>(() -> GeoIp.getCountryName(LogicalNode.this.cidr) );
         this.network = new LazyProperty<>(() -> {
             final ArrayList<Cidr> nets = new ArrayList<>(networks);
@@ -93,29 +98,37 @@ public class LogicalNode implements INode<LogicalNode>, ObservableValue<LogicalN
 
     @Override
     public synchronized Map<String, String> getGroups() {
+        final Cidr net = network.get();
+        final String countryCurrent = country.get();
+        final int versionCurrent = this.annotations.getVersion();
+        if(groupsCached != null && groupsVersion == versionCurrent && groupsNetwork == net && Objects.equals(groupsCountry, countryCurrent)) {
+            return groupsCached;
+        }
+
         HashMap<String, String> mapNew = new LinkedHashMap<>();
 
-        Cidr net = network.get();
         if(net != null) {
             mapNew.put(GROUP_SUBNET, net.toString());
         }
-        mapNew.put(GROUP_COUNTRY, country.get());
+        mapNew.put(GROUP_COUNTRY, countryCurrent);
 
-        for(Map.Entry<String, Set<ComputedProperty>> entry: annotations.entrySet()) {
+        final Map<String, AnnotationStore.Values> annotations = this.annotations.getAnnotations();
+        final Map<Object, HashMap<String, AnnotationStore.Values>> fingerprintPayloadResults = this.annotations.getFingerprintResults();
+        for(Map.Entry<String, AnnotationStore.Values> entry: annotations.entrySet()) {
             mapNew.put(entry.getKey(), entry.getValue().stream().map(property -> property.getValue() + " (" + property.getConfidence() + ")").collect(Collectors.joining("\n")));
         }
         if(annotations.containsKey("MAC")) {
             mapNew.put("Manufacturer", annotations.get("MAC").stream()
-                    .map(property -> Manufacturer.forMac(new Mac(property.getValue())))
+                    .map(property -> Manufacturer.forMac(Mac.toLong(property.getValue())))
                     .filter(manufacturer -> manufacturer != null)
                     .distinct()
                     .collect(Collectors.joining("\n")));
         }
 
         HashSet<String> keys = new HashSet<>();
-        for(Map.Entry<Object, HashMap<String, Set<ComputedProperty>>> entry : fingerprintPayloadResults.entrySet()) {
+        for(Map.Entry<Object, HashMap<String, AnnotationStore.Values>> entry : fingerprintPayloadResults.entrySet()) {
             keys.addAll(entry.getValue().keySet());
-            for(Map.Entry<String, Set<ComputedProperty>> entryInner : entry.getValue().entrySet()) {
+            for(Map.Entry<String, AnnotationStore.Values> entryInner : entry.getValue().entrySet()) {
                 mapNew.put(entry.getKey().toString() + "." + entryInner.getKey(), entryInner.getValue().stream().map(property -> property.getValue() + " (" + property.getConfidence() + ")").collect(Collectors.joining("\n")));
             }
         }
@@ -135,43 +148,38 @@ public class LogicalNode implements INode<LogicalNode>, ObservableValue<LogicalN
             }
         }
 
-        return mapNew;
+        groupsCached = Collections.unmodifiableMap(mapNew);
+        groupsVersion = versionCurrent;
+        groupsNetwork = net;
+        groupsCountry = countryCurrent;
+        return groupsCached;
     }
 
     public synchronized void addAnnotation(final Object fingerprint, final String field, final ComputedProperty value) {
-        Set<ComputedProperty> container = getContainerForPath(fingerprint, field);
-        container.add(value);
-        ExpressionHelper.fireValueChangedEvent(helper);
+        if(annotations.getContainer(fingerprint, field).add(value)) {
+            ExpressionHelper.fireValueChangedEvent(helper);
+        }
+    }
+    public synchronized void addAnnotation(final Object fingerprint, final String field, final String value, final int confidence) {
+        if(annotations.getContainer(fingerprint, field).add(value, confidence)) {
+            ExpressionHelper.fireValueChangedEvent(helper);
+        }
     }
     public synchronized void addAnnotations(final Object fingerprint, final Map<String, ComputedProperty> annotations) {
-        annotations.forEach((key, value) -> getContainerForPath(fingerprint, key).add(value));
-        ExpressionHelper.fireValueChangedEvent(helper);
+        boolean changed = false;
+        for(Map.Entry<String, ComputedProperty> entry : annotations.entrySet()) {
+            changed |= this.annotations.getContainer(fingerprint, entry.getKey()).add(entry.getValue());
+        }
+        //Most packets only repeat what is already known, so listeners are only notified when something was added.
+        if(changed) {
+            ExpressionHelper.fireValueChangedEvent(helper);
+        }
     }
     public synchronized void setAnnotation(Object fingerprint, String field, ComputedProperty value) {
-        Set<ComputedProperty> container = getContainerForPath(fingerprint, field);
+        Set<ComputedProperty> container = annotations.getContainer(fingerprint, field);
         container.clear();
         container.add(value);
     }
-    private Set<ComputedProperty> getContainerForPath(Object fingerprint, String field) {
-        HashMap<String, Set<ComputedProperty>> container;
-        if(fingerprint == null) {
-            container = annotations;
-        } else {
-            container = fingerprintPayloadResults.get(fingerprint);
-            if(container == null) {
-                container = new HashMap<>();
-                fingerprintPayloadResults.put(fingerprint, container);
-            }
-        }
-
-        Set<ComputedProperty> set = container.get(field);
-        if(set == null) {
-            set = new HashSet<>();
-            container.put(field, set);
-        }
-
-        return set;
-    }
 
     @Override
     public int hashCode() {
@@ -228,9 +236,9 @@ public class LogicalNode implements INode<LogicalNode>, ObservableValue<LogicalN
         //Replace the default groups with higher-accuracy versions, based on the fingerprinting data.
         xmlNode.getChildren().clear();
 
-        for(Map.Entry<Object, HashMap<String, Set<ComputedProperty>>> entryOuter : fingerprintPayloadResults.entrySet()) {
+        for(Map.Entry<Object, HashMap<String, AnnotationStore.Values>> entryOuter : annotations.getFingerprintResults().entrySet()) {
             String fingerprint = entryOuter.getKey().toString();
-            for(Map.Entry<String, Set<ComputedProperty>> entry : entryOuter.getValue().entrySet()) {
+            for(Map.Entry<String, AnnotationStore.Values> entry : entryOuter.getValue().entrySet()) {
                 if(entry.getValue().isEmpty()) {
                     //If the value is null, don't write the key, either.
                     continue;
@@ -245,7 +253,7 @@ public class LogicalNode implements INode<LogicalNode>, ObservableValue<LogicalN
                 }
             }
         }
-        for(Map.Entry<String, Set<ComputedProperty>> entry : annotations.entrySet()) {
+        for(Map.Entry<String, AnnotationStore.Values> entry : annotations.getAnnotations().entrySet()) {
             if(entry.getValue().isEmpty()) {
                 //If the value is null, don't write the key, either.
                 continue;
@@ -15,6 +15,7 @@ import util.RateLimitedTask;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 import java.util.zip.ZipEntry;
@@ -32,9 +33,14 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
     public Event<UpdateGraphArgs> OnNodeDirtied = new Event<>();
     public Event<UpdateGraphArgs> OnGroupingInvalidated = new Event<>();
 
-    // The ConcurrentSkipLists are the authoritative data store for nodes and edges.
-    protected final HashMap<TEdge, TEdge> edges;
-    protected final HashMap<TNode, TNode> nodes;
+    // The ConcurrentOrderedStores are the authoritative data store for nodes and edges.
+    protected final ConcurrentOrderedStore<TEdge> edges;
+    protected final ConcurrentOrderedStore<TNode> nodes;
+    // The edges involving each node, maintained alongside edges so that neighbourhood queries don't scan every edge.
+    protected final ConcurrentHashMap<TNode, Set<TEdge>> adjacency;
+    // Everything added or removed since the last commitUi, so that the commit only applies the difference.
+    protected final ChangeJournal<TEdge> journalEdges;
+    protected final ChangeJournal<TNode> journalNodes;
     // The ObservableLists are used to integrate with the JavaFX UI components.
     //Processing threads should update nodes, edges, etc., and then call commitUi() to migrate the data to the UI objects.
     protected final ObservableList<TEdge> edgesObservable;
@@ -44,13 +50,17 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
     RateLimitedTask taskRefreshUi;
 
     /**
-     * Lock to handle synchronization when accessing node and edge collections together.
+     * Lock to handle synchronization when accessing node and edge collections together.  Adding and finding individual
+     * nodes and edges does not require the lock.
      */
     protected final Object lock = new Object();
 
     public NetworkGraph() {
-        edges = new LinkedHashMap<>();
-        nodes = new LinkedHashMap<>();
+        edges = new ConcurrentOrderedStore<>();
+        nodes = new ConcurrentOrderedStore<>();
+        adjacency = new ConcurrentHashMap<>();
+        journalEdges = new ChangeJournal<>();
+        journalNodes = new ChangeJournal<>();
 
         edgesObservable = new ObservableListWrapper<>(new CopyOnWriteArrayList<>());
         nodesObservable = new ObservableListWrapper<>(new CopyOnWriteArrayList<>());
@@ -62,11 +72,11 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
     }
 
     public List<TNode> getRawNodeList() {
-        return new ArrayList<>(nodes.keySet());
+        return nodes.values();
     }
 
     public List<TEdge> getRawEdgeList() {
-        return new ArrayList<>(edges.keySet());
+        return edges.values();
     }
 
     public ObservableList<TNode> getNodes() {
@@ -104,32 +114,27 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
      * @param nodes The nodes to add to the graph.
      */
     public void addNodes(Collection<TNode> nodes) {
-        synchronized(lock) {
-            nodes.removeAll(this.nodes.keySet());
-            for(TNode node : nodes) {
-                this.nodes.put(node, node);
-            }
+        for(TNode node : nodes) {
+            addNode(node);
         }
     }
     public TNode addNode(final TNode nodeNew) {
-        final TNode nodeEffective;
-        synchronized(lock) {
-            if(nodes.containsKey(nodeNew)) {
-                nodeEffective = nodes.get(nodeNew);
-            } else {
-                nodes.put(nodeNew, nodeNew);
-                nodeEffective = nodeNew;
-            }
+        final TNode nodeResult = nodes.getOrAdd(nodeNew);
+        if(nodeResult == nodeNew) {
+            journalNodes.record(nodeNew);
+            afterNodeAdded(nodeNew);
         }
-        return nodeEffective;
+        return nodeResult;
     }
     public int removeNodes(Collection<TNode> nodesToRemove) {
         int cnt = 0;
-        synchronized(lock) {
-            for(TNode node : nodesToRemove) {
-                if(nodes.remove(node) != null) {
-                    cnt++;
-                }
+        for(TNode node : nodesToRemove) {
+            final TNode nodeRemoved = nodes.get(node);
+            if(nodeRemoved != null && nodes.remove(nodeRemoved)) {
+                adjacency.remove(nodeRemoved);
+                journalNodes.record(nodeRemoved);
+                afterNodeRemoved(nodeRemoved);
+                cnt++;
             }
         }
 
@@ -145,18 +150,20 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
         Set<TNode> nodesToAdd = new HashSet<>();
         nodesToAdd.addAll(edges.stream().map(edge -> edge.getSource()).collect(Collectors.toList()));
         nodesToAdd.addAll(edges.stream().map(edge -> edge.getDestination()).collect(Collectors.toList()));
-        synchronized(lock) {
-            addNodes(nodesToAdd);
-            edges.removeAll(this.edges.keySet());
-            for(TEdge edge : edges) {
-                this.edges.put(edge, edge);
+        addNodes(nodesToAdd);
+        for(TEdge edge : edges) {
+            if(this.edges.getOrAdd(edge) == edge) {
+                indexEdge(edge);
             }
         }
     }
     public void removeEdges(Collection<TEdge> edgesToRemove) {
-        synchronized(lock) {
-            for(TEdge edge : edgesToRemove) {
-                edges.remove(edge);
+        for(TEdge edge : edgesToRemove) {
+            final TEdge edgeRemoved = edges.get(edge);
+            if(edgeRemoved != null && edges.remove(edgeRemoved)) {
+                unindexEdge(edgeRemoved);
+                journalEdges.record(edgeRemoved);
+                afterEdgeRemoved(edgeRemoved);
             }
         }
     }
@@ -164,50 +171,108 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
      * Adds an edge to the graph, if it doesn't already exist.
      * @param edgeNew The edge to add.
      * @return If the edge was added to the graph, edgeNew is returned.  Otherwise, the edge which already exists is
-     * returned.  If the edge is deleted between the time the edge is found to have existed but before returning, null
-     * is returned.
+     * returned.  Concurrent calls with equal edges all return the same instance.
      */
     public TEdge addEdge(TEdge edgeNew) {
-        TNode nodeSource;
-        TNode nodeDestination;
-        TEdge edgeResult;
-        synchronized(lock) {
-            nodeSource = nodes.get(edgeNew.getSource());
-            if(nodeSource == null) {
-                nodeSource = edgeNew.getSource();
-                nodes.put(nodeSource, nodeSource);
-            }
+        final TNode nodeSource = addNode(edgeNew.getSource());
+        final TNode nodeDestination = addNode(edgeNew.getDestination());
 
-            nodeDestination = nodes.get(edgeNew.getDestination());
-            if(nodeDestination == null) {
-                nodeDestination = edgeNew.getDestination();
-                nodes.put(nodeDestination, nodeDestination);
-            }
-
-            edgeResult = edges.get(edgeNew);
-            if(edgeResult == null) {
-                edgeResult = edgeNew;
-                edges.put(edgeNew, edgeNew);
-            }
-        }
-
-        //Call events outside lock.
+        //The endpoints must be the canonical nodes before the edge can be seen by other threads.
         if(edgeNew.getSource() != nodeSource) {
             edgeNew.setSource(nodeSource);
         }
         if(edgeNew.getDestination() != nodeDestination) {
             edgeNew.setDestination(nodeDestination);
         }
+        final TEdge edgeResult = edges.getOrAdd(edgeNew);
+        if(edgeResult == edgeNew) {
+            indexEdge(edgeNew);
+        }
         return edgeResult;
     }
 
+    private void indexEdge(final TEdge edge) {
+        journalEdges.record(edge);
+        addAdjacent(edge.getSource(), edge);
+        addAdjacent(edge.getDestination(), edge);
+        afterEdgeAdded(edge);
+    }
+    private void unindexEdge(final TEdge edge) {
+        removeAdjacent(edge.getSource(), edge);
+        removeAdjacent(edge.getDestination(), edge);
+    }
+    //Sets are changed inside compute so that a set emptied by one thread is never handed to another to add to.
+    private void addAdjacent(final TNode node, final TEdge edge) {
+        adjacency.compute(node, (key, edgesNode) -> {
+            final Set<TEdge> result = edgesNode == null ? ConcurrentHashMap.newKeySet() : edgesNode;
+            result.add(edge);
+            return result;
+        });
+    }
+    private void removeAdjacent(final TNode node, final TEdge edge) {
+        adjacency.computeIfPresent(node, (key, edgesNode) -> {
+            edgesNode.remove(edge);
+            return edgesNode.isEmpty() ? null : edgesNode;
+        });
+    }
+
     /**
      * Returns a list of edges connected to/from node.
      * @param node A node that will be the source or destination of all returned edges.
      * @return All edges in this graph that contain node as a source or destination.
      */
     public List<TEdge> getEdgesInvolving(TNode node) {
-        return this.edges.keySet().stream().filter(edge -> edge.getSource().equals(node) || edge.getDestination().equals(node)).collect(Collectors.toList());
+        final Set<TEdge> result = adjacency.get(node);
+        return result == null ? new ArrayList<>() : new ArrayList<>(result);
+    }
+
+    /**
+     * @return The nodes that share an edge with node, not including node itself.
+     */
+    public Set<TNode> getNeighbors(TNode node) {
+        final Set<TNode> result = new LinkedHashSet<>();
+        final Set<TEdge> edgesNode = adjacency.get(node);
+        if(edgesNode != null) {
+            for(TEdge edge : edgesNode) {
+                result.add(edge.getSource().equals(node) ? edge.getDestination() : edge.getSource());
+            }
+        }
+        result.remove(node);
+        return result;
+    }
+
+    /**
+     * Returns the edges found by a breadth-first walk from root: every edge involving a node that is fewer than
+     * degrees steps from root.
+     * @param root The node from which to start.
+     * @param degrees The number of steps to take from root; must be at least 1 for any edges to be returned.
+     * @return The edges in the order they were reached, each listed once.
+     */
+    public List<TEdge> getEdgesWithin(TNode root, int degrees) {
+        final Set<TEdge> result = new LinkedHashSet<>();
+        final Set<TNode> nodesVisited = new HashSet<>();
+        List<TNode> nodesCurrent = Collections.singletonList(root);
+
+        for(int idxIteration = degrees; idxIteration > 0 && !nodesCurrent.isEmpty(); idxIteration--) {
+            final List<TNode> nodesNext = new ArrayList<>();
+            for(TNode node : nodesCurrent) {
+                if(!nodesVisited.add(node)) {
+                    continue;
+                }
+                final Set<TEdge> edgesNode = adjacency.get(node);
+                if(edgesNode == null) {
+                    continue;
+                }
+                for(TEdge edge : edgesNode) {
+                    if(result.add(edge)) {
+                        nodesNext.add(edge.getSource().equals(node) ? edge.getDestination() : edge.getSource());
+                    }
+                }
+            }
+            nodesCurrent = nodesNext;
+        }
+
+        return new ArrayList<>(result);
     }
 
     public TNode findNode(TNode node) {
@@ -224,23 +289,41 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
         }
     }
 
+    /**
+     * Called on the thread that added or removed a node or edge, after the store has changed, so that derived classes
+     * can keep their own indexes.  Only the instance that was actually added or removed is reported.
+     */
+    protected void afterNodeAdded(final TNode node) {
+        //No action by default.
+    }
+    protected void afterNodeRemoved(final TNode node) {
+        //No action by default.
+    }
+    protected void afterEdgeAdded(final TEdge edge) {
+        //No action by default.
+    }
+    protected void afterEdgeRemoved(final TEdge edge) {
+        //No action by default.
+    }
+
+    /**
+     * Called by Process_commitUI, while holding the lock, with the nodes about to be added to the UI.
+     */
+    protected void beforeCommit(final List<TNode> nodesNew) {
+        //No action by default.
+    }
+
     protected void Process_commitUI() {
-        final List<TNode> nodesNew;
-        final List<TEdge> edgesNew;
-        final List<TNode> nodesRemoved;
-        final List<TEdge> edgesRemoved;
+        final List<TNode> nodesNew = new ArrayList<>();
+        final List<TEdge> edgesNew = new ArrayList<>();
+        final Set<TNode> nodesRemoved = new HashSet<>();
+        final Set<TEdge> edgesRemoved = new HashSet<>();
 
         synchronized(lock) {
-            edgesNew = new LinkedList<>(edges.keySet());
-            nodesNew = new LinkedList<>(nodes.keySet());
+            journalNodes.drain(nodes, nodesNew, nodesRemoved);
+            journalEdges.drain(edges, edgesNew, edgesRemoved);
+            beforeCommit(nodesNew);
         }
-        nodesRemoved = new LinkedList<>(nodesObservable);
-        nodesRemoved.removeAll(nodesNew);
-        edgesRemoved = new LinkedList<>(edgesObservable);
-        edgesRemoved.removeAll(edgesNew);
-        edgesNew.removeAll(edgesObservable);
-        nodesNew.removeAll(nodesObservable);
-
 
         //As they are just being added to the graph, the nodes are dirty.
         nodesNew.stream().forEach(node -> {
@@ -253,10 +336,19 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
             });
         });
 
-        edgesObservable.removeAll(edgesRemoved);
-        nodesObservable.removeAll(nodesRemoved);
-        nodesObservable.addAll(nodesNew);
-        edgesObservable.addAll(edgesNew);
+        //The removed items are passed as sets so that each removal is a single pass over the list.
+        if(!edgesRemoved.isEmpty()) {
+            edgesObservable.removeAll(edgesRemoved);
+        }
+        if(!nodesRemoved.isEmpty()) {
+            nodesObservable.removeAll(nodesRemoved);
+        }
+        if(!nodesNew.isEmpty()) {
+            nodesObservable.addAll(nodesNew);
+        }
+        if(!edgesNew.isEmpty()) {
+            edgesObservable.addAll(edgesNew);
+        }
     }
 
     public final void refresh() {
@@ -285,6 +377,9 @@ public class NetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<TNode>
         synchronized(lock) {
             edges.clear();
             nodes.clear();
+            adjacency.clear();
+            journalEdges.clear();
+            journalNodes.clear();
         }
 
         OnGraphCleared.call(new UpdateGraphArgs(this));
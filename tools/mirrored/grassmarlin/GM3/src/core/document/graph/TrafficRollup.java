@@ -0,0 +1,159 @@
+package core.document.graph;
+
+import java.util.Arrays;
+
+/**
+ * Packet and byte counts for one direction of a LogicalEdge, aggregated into per-second, per-minute and per-hour
+ * buckets for each protocol.  The buckets are updated as frames are added, so charts and reports over long time spans
+ * can be drawn from a few thousand buckets instead of every frame.
+ */
+public class TrafficRollup {
+    public enum Resolution {
+        SECOND(1000L),
+        MINUTE(60000L),
+        HOUR(3600000L);
+
+        private final long msBucket;
+
+        Resolution(long msBucket) {
+            this.msBucket = msBucket;
+        }
+
+        public long getBucketMillis() {
+            return msBucket;
+        }
+
+        /**
+         * @return The finest resolution which covers msSpan in no more than cntBuckets buckets, or HOUR if none do.
+         */
+        public static Resolution forSpan(long msSpan, int cntBuckets) {
+            for(Resolution resolution : values()) {
+                if(msSpan / resolution.msBucket <= cntBuckets) {
+                    return resolution;
+                }
+            }
+            return HOUR;
+        }
+    }
+
+    public interface BucketVisitor {
+        void visit(long tsStart, int protocol, long cntPackets, long cntBytes);
+    }
+
+    /**
+     * Buckets for a single resolution, sorted by start time and then protocol.  Frames almost always arrive in time
+     * order, so new buckets are usually appended.
+     */
+    private static class Buckets {
+        private long[] starts;
+        private int[] protocols;
+        private long[] packets;
+        private long[] bytes;
+        private int size;
+
+        public Buckets() {
+            this.starts = new long[4];
+            this.protocols = new int[4];
+            this.packets = new long[4];
+            this.bytes = new long[4];
+            this.size = 0;
+        }
+
+        public void add(long tsStart, int protocol, long cntBytes) {
+            int idx;
+            if(size == 0 || tsStart > starts[size - 1]) {
+                idx = size;
+            } else {
+                idx = lowerBound(tsStart);
+                for(; idx < size && starts[idx] == tsStart; idx++) {
+                    if(protocols[idx] == protocol) {
+                        packets[idx]++;
+                        bytes[idx] += cntBytes;
+                        return;
+                    }
+                }
+            }
+
+            if(size == starts.length) {
+                final int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                protocols = Arrays.copyOf(protocols, capacity);
+                packets = Arrays.copyOf(packets, capacity);
+                bytes = Arrays.copyOf(bytes, capacity);
+            }
+            if(idx < size) {
+                System.arraycopy(starts, idx, starts, idx + 1, size - idx);
+                System.arraycopy(protocols, idx, protocols, idx + 1, size - idx);
+                System.arraycopy(packets, idx, packets, idx + 1, size - idx);
+                System.arraycopy(bytes, idx, bytes, idx + 1, size - idx);
+            }
+            starts[idx] = tsStart;
+            protocols[idx] = protocol;
+            packets[idx] = 1;
+            bytes[idx] = cntBytes;
+            size++;
+        }
+
+        /**
+         * @return The index of the first bucket starting at or after tsStart.
+         */
+        public int lowerBound(long tsStart) {
+            int lo = 0;
+            int hi = size;
+            while(lo < hi) {
+                final int mid = (lo + hi) >>> 1;
+                if(starts[mid] < tsStart) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private final Buckets[] buckets;
+    private long tsFirst;
+    private long tsLast;
+
+    public TrafficRollup() {
+        this.buckets = new Buckets[Resolution.values().length];
+        for(int idx = 0; idx < buckets.length; idx++) {
+            buckets[idx] = new Buckets();
+        }
+        this.tsFirst = Long.MAX_VALUE;
+        this.tsLast = Long.MIN_VALUE;
+    }
+
+    public synchronized void add(long time, int protocol, long cntBytes) {
+        tsFirst = Math.min(tsFirst, time);
+        tsLast = Math.max(tsLast, time);
+        for(Resolution resolution : Resolution.values()) {
+            buckets[resolution.ordinal()].add(Math.floorDiv(time, resolution.msBucket) * resolution.msBucket, protocol, cntBytes);
+        }
+    }
+
+    /**
+     * @return The time of the earliest frame, or Long.MAX_VALUE if there are none.
+     */
+    public synchronized long getFirstTime() {
+        return tsFirst;
+    }
+    /**
+     * @return The time of the latest frame, or Long.MIN_VALUE if there are none.
+     */
+    public synchronized long getLastTime() {
+        return tsLast;
+    }
+
+    /**
+     * Visits, in order, every bucket at the given resolution that starts within [tsFrom, tsTo].  Buckets with the same
+     * start time (one per protocol) are visited consecutively.
+     */
+    public synchronized void forEach(Resolution resolution, long tsFrom, long tsTo, BucketVisitor visitor) {
+        final Buckets target = buckets[resolution.ordinal()];
+        for(int idx = target.lowerBound(tsFrom); idx < target.size && target.starts[idx] <= tsTo; idx++) {
+            visitor.visit(target.starts[idx], target.protocols[idx], target.packets[idx], target.bytes[idx]);
+        }
+    }
+}
@@ -5,9 +5,6 @@ import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.value.ObservableValue;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * Network Graph that filters the contents of another NetworkGraph; used for watch functionality.
  */
@@ -54,36 +51,14 @@ public class WatchNetworkGraph<TNode extends INode<TNode>, TEdge extends IEdge<T
     }
 
     public void reparseTree() {
-        List<TNode> nodesVisited = new LinkedList<>();
-        List<TNode> nodesCurrent = new LinkedList<>();
-
         //Degree 0
-        nodesCurrent.add(root);
         addNode(root);
 
-        for(int idxIteration = degrees.get(); idxIteration > 0; idxIteration--) {
-            List<TNode> nextNodes = new LinkedList<>();
-            for(TNode node : nodesCurrent) {
-                if(nodesVisited.contains(node)) {
-                    continue;
-                }
-                nodesVisited.add(node);
-
-                //Add connected nodes; we'll handle duplicates next iteration.
-                for(TEdge edge : graphParent.getEdgesInvolving(node)) {
-                    TNode other;
-                    if(edge.getSource().equals(node)) {
-                        other = edge.getDestination();
-                    } else {
-                        other = edge.getSource();
-                    }
-                    nextNodes.add(other);
-                    //Always add the node before the edge.
-                    addNode(other);
-                    addEdge(edge);
-                }
-            }
-            nodesCurrent = nextNodes;
+        for(TEdge edge : graphParent.getEdgesWithin(root, degrees.get())) {
+            //Always add the nodes before the edge.
+            addNode(edge.getSource());
+            addNode(edge.getDestination());
+            addEdge(edge);
         }
 
         this.refresh();
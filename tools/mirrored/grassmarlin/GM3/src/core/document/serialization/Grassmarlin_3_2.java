@@ -467,7 +467,7 @@ public class Grassmarlin_3_2 {
                 case "edge":
                     inEdge = true;
                     edgeAttributes = new AttributesImpl(attributes);
-                    currentEdge = buildLogicalEdge(edgeAttributes, session.getLogicalGraph());
+                    currentEdge = buildLogicalEdge(edgeAttributes, session.getLogicalGraph(), session.getFrameArchive());
                     break;
                 case "details":
                     inDetails = true;
@@ -593,13 +593,13 @@ public class Grassmarlin_3_2 {
         node.addAnnotation(fingerprint, key, new ComputedProperty(valueText, confidence));
     }
 
-    protected LogicalEdge buildLogicalEdge(Attributes edgeAttributes, LogicalGraph graph) {
+    protected LogicalEdge buildLogicalEdge(Attributes edgeAttributes, LogicalGraph graph, FrameArchive archive) {
         List<LogicalNode> logicalNodes = graph.getRawNodeList();
 
         LogicalNode source = logicalNodes.get(Integer.parseInt(edgeAttributes.getValue("from")));
         LogicalNode dest = logicalNodes.get(Integer.parseInt(edgeAttributes.getValue("to")));
 
-        return new LogicalEdge(source, dest);
+        return new LogicalEdge(source, dest, archive);
     }
 
     protected void addFrame(LogicalEdge edge, Attributes details, Attributes source, Attributes frame, ImportList importItems) {
@@ -0,0 +1,149 @@
+package core.fingerprint;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import util.parser.CalcLexer;
+import util.parser.CalcParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ByteJump Calc expression compiled to a tree that can be evaluated repeatedly without re-parsing.
+ *
+ * Compiled expressions are immutable and are shared through a bounded, least-recently-used cache keyed by the
+ * expression text.
+ */
+public abstract class CalcExpression {
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<String, CalcExpression> cache = new LinkedHashMap<String, CalcExpression>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CalcExpression> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static final AtomicLong cacheHits = new AtomicLong(0);
+    private static final AtomicLong cacheMisses = new AtomicLong(0);
+
+    /**
+     * Evaluates the expression.
+     * @param x The value bound to the variable x; for a ByteJump this is the value read from the payload.
+     */
+    public abstract int evaluate(int x);
+
+    /**
+     * Returns the compiled form of an expression, compiling it only if it is not already cached.
+     * @throws IllegalArgumentException If the expression cannot be parsed.
+     */
+    public static CalcExpression compile(String expression) {
+        synchronized(cache) {
+            final CalcExpression cached = cache.get(expression);
+            if(cached != null) {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+        cacheMisses.incrementAndGet();
+
+        final CalcExpression result;
+        try {
+            final CalcLexer lexer = new CalcLexer(new ANTLRInputStream(expression));
+            lexer.removeErrorListeners();
+            final CalcParser parser = new CalcParser(new CommonTokenStream(lexer));
+            parser.removeErrorListeners();
+            parser.setErrorHandler(new BailErrorStrategy());
+            result = build(parser.calc().expr());
+        } catch(RuntimeException ex) {
+            throw new IllegalArgumentException("Unable to parse Calc expression: " + expression, ex);
+        }
+
+        synchronized(cache) {
+            cache.put(expression, result);
+        }
+        return result;
+    }
+
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    private static CalcExpression build(CalcParser.ExprContext context) {
+        if(context.number() != null) {
+            return new Constant(Integer.parseInt(context.number().getText()));
+        } else if(context.VAR() != null) {
+            return new Variable();
+        } else if(context.BR_CLOSE() != null) {
+            return build(context.expr(0));
+        } else if(context.MOD() != null) {
+            return new BinaryOperation('%', build(context.expr(0)), build(context.expr(1)));
+        } else if(context.TIMES() != null) {
+            return new BinaryOperation('*', build(context.expr(0)), build(context.expr(1)));
+        } else if(context.DIV() != null) {
+            return new BinaryOperation('/', build(context.expr(0)), build(context.expr(1)));
+        } else if(context.PLUS() != null) {
+            return new BinaryOperation('+', build(context.expr(0)), build(context.expr(1)));
+        } else if(context.MINUS() != null) {
+            return new BinaryOperation('-', build(context.expr(0)), build(context.expr(1)));
+        } else {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static class Constant extends CalcExpression {
+        private final int value;
+
+        public Constant(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int evaluate(int x) {
+            return value;
+        }
+    }
+
+    private static class Variable extends CalcExpression {
+        @Override
+        public int evaluate(int x) {
+            return x;
+        }
+    }
+
+    private static class BinaryOperation extends CalcExpression {
+        private final char operator;
+        private final CalcExpression left;
+        private final CalcExpression right;
+
+        public BinaryOperation(char operator, CalcExpression left, CalcExpression right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public int evaluate(int x) {
+            final int lhs = left.evaluate(x);
+            final int rhs = right.evaluate(x);
+            switch(operator) {
+                case '%':
+                    return lhs % rhs;
+                case '*':
+                    return lhs * rhs;
+                case '/':
+                    return lhs / rhs;
+                case '+':
+                    return lhs + rhs;
+                case '-':
+                    return lhs - rhs;
+                default:
+                    throw new IllegalStateException();
+            }
+        }
+    }
+}
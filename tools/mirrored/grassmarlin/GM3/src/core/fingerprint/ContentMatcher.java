@@ -0,0 +1,232 @@
+package core.fingerprint;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Aho-Corasick automaton built from the literal Content of every Match in the running fingerprints.
+ *
+ * A payload is scanned once, the first time any Match needs it, and every occurrence of every content is recorded.
+ * The individual Match operations then only check their offset and depth constraints against the recorded
+ * occurrences.  The automaton is immutable; all per-packet state lives in a {@link Scan}, of which each processing
+ * thread owns its own.
+ */
+public class ContentMatcher {
+    public static class Builder {
+        private final Map<ByteBuffer, Integer> ids = new HashMap<>();
+        private final List<byte[]> contents = new ArrayList<>();
+
+        /**
+         * Registers a content value with the automaton.
+         * @return The id used to look up occurrences of the content, or -1 if the content can never match.
+         */
+        public int add(byte[] content) {
+            if(content == null || content.length == 0) {
+                return -1;
+            }
+            final ByteBuffer key = ByteBuffer.wrap(content.clone());
+            Integer id = ids.get(key);
+            if(id == null) {
+                id = contents.size();
+                contents.add(key.array());
+                ids.put(key, id);
+            }
+            return id;
+        }
+
+        public ContentMatcher build() {
+            return new ContentMatcher(contents);
+        }
+    }
+
+    /**
+     * Per-thread record of the occurrences found in the current packet.
+     */
+    public static class Scan {
+        private final ContentMatcher matcher;
+        private boolean isScanned;
+        private int generation;
+        // Indexed by content id.
+        private final int[] generationByContent;
+        private final int[] firstHit;
+        private final int[] lastHit;
+        // Indexed by hit; hits for a single content are chained in ascending order of position.
+        private int[] hitStart;
+        private int[] hitNext;
+        private int cntHits;
+
+        private Scan(ContentMatcher matcher) {
+            this.matcher = matcher;
+            this.isScanned = false;
+            this.generation = 0;
+            this.generationByContent = new int[matcher.lengths.length];
+            this.firstHit = new int[matcher.lengths.length];
+            this.lastHit = new int[matcher.lengths.length];
+            this.hitStart = new int[64];
+            this.hitNext = new int[64];
+        }
+
+        /**
+         * Discards the results for the previous packet; the next call to find will scan the packet it is given.
+         */
+        public void reset() {
+            isScanned = false;
+        }
+
+        /**
+         * Locates the first occurrence of a content which starts at or after from and ends at or before to.
+         * @param data The packet being processed; it must be the same packet until reset is called.
+         * @param id The id returned by {@link Builder#add(byte[])}.
+         * @return The offset of the occurrence, or -1 if there is none.
+         */
+        public int find(PacketData data, int id, int from, int to) {
+            if(id < 0) {
+                return -1;
+            }
+            if(!isScanned) {
+                scan(data);
+            }
+            if(generationByContent[id] != generation) {
+                return -1;
+            }
+            final int length = matcher.lengths[id];
+            for(int idxHit = firstHit[id]; idxHit != -1; idxHit = hitNext[idxHit]) {
+                final int start = hitStart[idxHit];
+                if(start >= from) {
+                    //Later occurrences start (and end) later, so if this one does not fit, nothing will.
+                    return start + length <= to ? start : -1;
+                }
+            }
+            return -1;
+        }
+
+        private void scan(PacketData data) {
+            isScanned = true;
+            generation++;
+            cntHits = 0;
+
+            final int[] transitions = matcher.transitions;
+            final int[] outputOffsets = matcher.outputOffsets;
+            final int[] outputs = matcher.outputs;
+            final int size = data.size();
+            int state = 0;
+            for(int idx = 0; idx < size; idx++) {
+                state = transitions[(state << 8) | (data.getByte(idx) & 0xFF)];
+                for(int idxOutput = outputOffsets[state]; idxOutput < outputOffsets[state + 1]; idxOutput++) {
+                    final int id = outputs[idxOutput];
+                    record(id, idx - matcher.lengths[id] + 1);
+                }
+            }
+        }
+
+        private void record(int id, int start) {
+            if(cntHits == hitStart.length) {
+                hitStart = Arrays.copyOf(hitStart, cntHits * 2);
+                hitNext = Arrays.copyOf(hitNext, cntHits * 2);
+            }
+            final int idxHit = cntHits++;
+            hitStart[idxHit] = start;
+            hitNext[idxHit] = -1;
+            if(generationByContent[id] != generation) {
+                generationByContent[id] = generation;
+                firstHit[id] = idxHit;
+            } else {
+                hitNext[lastHit[id]] = idxHit;
+            }
+            lastHit[id] = idxHit;
+        }
+    }
+
+    // Dense transition table; the transition from state s on byte b is at (s << 8) | b.
+    private final int[] transitions;
+    // The ids of the contents which end in state s are outputs[outputOffsets[s]] through outputs[outputOffsets[s + 1] - 1].
+    private final int[] outputOffsets;
+    private final int[] outputs;
+    private final int[] lengths;
+
+    private ContentMatcher(List<byte[]> contents) {
+        this.lengths = new int[contents.size()];
+
+        //Build the trie.
+        final List<int[]> gotos = new ArrayList<>();
+        final List<List<Integer>> matches = new ArrayList<>();
+        gotos.add(newState());
+        matches.add(new ArrayList<>());
+        for(int id = 0; id < contents.size(); id++) {
+            final byte[] content = contents.get(id);
+            lengths[id] = content.length;
+            int state = 0;
+            for(byte b : content) {
+                final int symbol = b & 0xFF;
+                if(gotos.get(state)[symbol] == -1) {
+                    gotos.get(state)[symbol] = gotos.size();
+                    gotos.add(newState());
+                    matches.add(new ArrayList<>());
+                }
+                state = gotos.get(state)[symbol];
+            }
+            matches.get(state).add(id);
+        }
+
+        //Breadth-first pass to compute failure links, completing the transition table and merging outputs as we go.
+        final int[] failure = new int[gotos.size()];
+        final Deque<Integer> pending = new ArrayDeque<>();
+        final int[] root = gotos.get(0);
+        for(int symbol = 0; symbol < 256; symbol++) {
+            if(root[symbol] == -1) {
+                root[symbol] = 0;
+            } else {
+                failure[root[symbol]] = 0;
+                pending.add(root[symbol]);
+            }
+        }
+        while(!pending.isEmpty()) {
+            final int state = pending.poll();
+            final int[] row = gotos.get(state);
+            matches.get(state).addAll(matches.get(failure[state]));
+            for(int symbol = 0; symbol < 256; symbol++) {
+                final int next = row[symbol];
+                if(next == -1) {
+                    row[symbol] = gotos.get(failure[state])[symbol];
+                } else {
+                    failure[next] = gotos.get(failure[state])[symbol];
+                    pending.add(next);
+                }
+            }
+        }
+
+        this.transitions = new int[gotos.size() << 8];
+        this.outputOffsets = new int[gotos.size() + 1];
+        int cntOutputs = 0;
+        for(int state = 0; state < gotos.size(); state++) {
+            System.arraycopy(gotos.get(state), 0, transitions, state << 8, 256);
+            outputOffsets[state] = cntOutputs;
+            cntOutputs += matches.get(state).size();
+        }
+        outputOffsets[gotos.size()] = cntOutputs;
+        this.outputs = new int[cntOutputs];
+        for(int state = 0; state < gotos.size(); state++) {
+            int idx = outputOffsets[state];
+            for(Integer id : matches.get(state)) {
+                outputs[idx++] = id;
+            }
+        }
+    }
+
+    private static int[] newState() {
+        final int[] result = new int[256];
+        Arrays.fill(result, -1);
+        return result;
+    }
+
+    /**
+     * @return The number of distinct contents in the automaton.
+     */
+    public int size() {
+        return lengths.length;
+    }
+
+    public Scan newScan() {
+        return new Scan(this);
+    }
+}
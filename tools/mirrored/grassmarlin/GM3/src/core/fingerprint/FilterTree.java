@@ -0,0 +1,378 @@
+package core.fingerprint;
+
+import core.fingerprint3.Fingerprint;
+import org.jnetpcap.protocol.tcpip.Tcp;
+import ui.fingerprint.filters.Filter;
+
+import javax.xml.bind.JAXBElement;
+import java.util.*;
+
+/**
+ * Dispatch structure compiled from the Filter groups of every running Fingerprint.
+ *
+ * Filter groups are indexed by transport protocol and then by destination port, source port or Ethertype, so a packet
+ * is only tested against the groups in the buckets it selects plus the (few) groups that could not be indexed.  Every
+ * filter value is unpacked into a primitive range when the tree is built; selecting payloads for a packet neither
+ * unboxes nor allocates.
+ *
+ * A FilterTree is immutable once built.  The scratch space needed by {@link #select(PacketData, Target[], boolean[])}
+ * is supplied by the caller so that a single tree could be shared between processing threads.
+ */
+public class FilterTree {
+    /**
+     * A Payload that can be selected by the tree.  The ordinal reflects the order in which the fingerprints and their
+     * payloads were declared; selected targets are reported in that order.
+     */
+    public static class Target {
+        private final int ordinal;
+        private final Fingerprint fingerprint;
+        private final Fingerprint.Payload payload;
+        private final String fingerprintName;
+
+        private Target(int ordinal, Fingerprint fingerprint, Fingerprint.Payload payload) {
+            this.ordinal = ordinal;
+            this.fingerprint = fingerprint;
+            this.payload = payload;
+            this.fingerprintName = fingerprint.getHeader().getName();
+        }
+
+        public int getOrdinal() {
+            return ordinal;
+        }
+        public Fingerprint getFingerprint() {
+            return fingerprint;
+        }
+        public Fingerprint.Payload getPayload() {
+            return payload;
+        }
+        public String getFingerprintName() {
+            return fingerprintName;
+        }
+    }
+
+    /**
+     * A single Filter group.  Every filter other than Flags is expressed as an inclusive range over one packet field;
+     * equality filters use the same value for both bounds.
+     */
+    private static class Group {
+        private final Target target;
+        private final Filter.FilterType[] fields;
+        private final long[] min;
+        private final long[] max;
+        private final Tcp.Flag[] flags;
+        private final boolean hasUnknownFlags;
+
+        private Group(Target target, List<Filter.FilterType> fields, List<long[]> ranges, List<Tcp.Flag> flags, boolean hasUnknownFlags) {
+            this.target = target;
+            this.fields = fields.toArray(new Filter.FilterType[fields.size()]);
+            this.min = new long[ranges.size()];
+            this.max = new long[ranges.size()];
+            for(int idx = 0; idx < ranges.size(); idx++) {
+                this.min[idx] = ranges.get(idx)[0];
+                this.max[idx] = ranges.get(idx)[1];
+            }
+            this.flags = flags == null ? null : flags.toArray(new Tcp.Flag[flags.size()]);
+            this.hasUnknownFlags = hasUnknownFlags;
+        }
+
+        private boolean accepts(PacketData data) {
+            for(int idx = 0; idx < fields.length; idx++) {
+                final long value = valueOf(fields[idx], data);
+                if(value < min[idx] || value > max[idx]) {
+                    return false;
+                }
+            }
+            //Flags are only tested for packets that report them.
+            if(flags != null && data.getFlags() != null) {
+                if(hasUnknownFlags) {
+                    return false;
+                }
+                for(Tcp.Flag flag : flags) {
+                    if(!data.getFlags().contains(flag)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return The value of the first equality test against the given field, or null if there is none.
+         */
+        private Long keyFor(Filter.FilterType field) {
+            for(int idx = 0; idx < fields.length; idx++) {
+                if(fields[idx] == field && min[idx] == max[idx]) {
+                    return min[idx];
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Sorted, primitive-keyed lookup of filter groups.
+     */
+    private static class Bucket {
+        private static final Group[] EMPTY = new Group[0];
+
+        private final int[] keys;
+        private final Group[][] groups;
+
+        private Bucket(SortedMap<Integer, List<Group>> source) {
+            keys = new int[source.size()];
+            groups = new Group[source.size()][];
+            int idx = 0;
+            for(Map.Entry<Integer, List<Group>> entry : source.entrySet()) {
+                keys[idx] = entry.getKey();
+                groups[idx] = entry.getValue().toArray(new Group[entry.getValue().size()]);
+                idx++;
+            }
+        }
+
+        private Group[] get(int key) {
+            final int idx = Arrays.binarySearch(keys, key);
+            return idx < 0 ? EMPTY : groups[idx];
+        }
+    }
+
+    /**
+     * The groups which share a transport protocol (or which do not test the transport protocol at all).
+     */
+    private static class Node {
+        private final SortedMap<Integer, List<Group>> pendingDestination = new TreeMap<>();
+        private final SortedMap<Integer, List<Group>> pendingSource = new TreeMap<>();
+        private final SortedMap<Integer, List<Group>> pendingEthertype = new TreeMap<>();
+        private final List<Group> pendingUnindexed = new ArrayList<>();
+
+        private Bucket byDestinationPort;
+        private Bucket bySourcePort;
+        private Bucket byEthertype;
+        private Group[] unindexed;
+
+        private void add(Group group) {
+            Long key;
+            if((key = group.keyFor(Filter.FilterType.DSTPORT)) != null) {
+                pendingDestination.computeIfAbsent(key.intValue(), k -> new ArrayList<>()).add(group);
+            } else if((key = group.keyFor(Filter.FilterType.SRCPORT)) != null) {
+                pendingSource.computeIfAbsent(key.intValue(), k -> new ArrayList<>()).add(group);
+            } else if((key = group.keyFor(Filter.FilterType.ETHERTYPE)) != null) {
+                pendingEthertype.computeIfAbsent(key.intValue(), k -> new ArrayList<>()).add(group);
+            } else {
+                pendingUnindexed.add(group);
+            }
+        }
+
+        private Node freeze() {
+            byDestinationPort = new Bucket(pendingDestination);
+            bySourcePort = new Bucket(pendingSource);
+            byEthertype = new Bucket(pendingEthertype);
+            unindexed = pendingUnindexed.toArray(new Group[pendingUnindexed.size()]);
+            return this;
+        }
+
+        private int select(PacketData data, Target[] selected, boolean[] marks, int cnt) {
+            cnt = select(byDestinationPort.get(data.getDestPort()), data, selected, marks, cnt);
+            cnt = select(bySourcePort.get(data.getSourcePort()), data, selected, marks, cnt);
+            cnt = select(byEthertype.get(data.getEthertype()), data, selected, marks, cnt);
+            cnt = select(unindexed, data, selected, marks, cnt);
+            return cnt;
+        }
+
+        private static int select(Group[] groups, PacketData data, Target[] selected, boolean[] marks, int cnt) {
+            for(Group group : groups) {
+                final Target target = group.target;
+                //A payload runs at most once per packet, no matter how many of its groups pass.
+                if(!marks[target.ordinal] && group.accepts(data)) {
+                    marks[target.ordinal] = true;
+                    //Insertion sort; the number of selected payloads per packet is small.
+                    int idx = cnt++;
+                    while(idx > 0 && selected[idx - 1].ordinal > target.ordinal) {
+                        selected[idx] = selected[idx - 1];
+                        idx--;
+                    }
+                    selected[idx] = target;
+                }
+            }
+            return cnt;
+        }
+    }
+
+    private final Target[] targets;
+    private final Node[] byTransportProtocol;
+    private final Node anyTransportProtocol;
+
+    public FilterTree(List<Fingerprint> fingerprints) {
+        final List<Target> targets = new ArrayList<>();
+        final Node[] nodes = new Node[256];
+        final Node nodeAny = new Node();
+
+        for(Fingerprint fp : fingerprints) {
+            //Every payload with the name a filter group is for runs when that group passes.
+            final Map<String, List<Target>> targetsByName = new HashMap<>();
+            for(Fingerprint.Payload payload : fp.getPayload()) {
+                final Target target = new Target(targets.size(), fp, payload);
+                targets.add(target);
+                targetsByName.computeIfAbsent(payload.getFor(), key -> new ArrayList<>()).add(target);
+            }
+
+            for(Fingerprint.Filter filter : fp.getFilter()) {
+                //A filter group without a payload has nothing to run.
+                for(Target target : targetsByName.getOrDefault(filter.getFor(), Collections.emptyList())) {
+                    final Group group = compile(target, filter);
+                    final Long protocol = group.keyFor(Filter.FilterType.TRANSPORTPROTOCOL);
+                    if(protocol != null && protocol >= 0 && protocol < nodes.length) {
+                        final int idx = protocol.intValue();
+                        if(nodes[idx] == null) {
+                            nodes[idx] = new Node();
+                        }
+                        nodes[idx].add(group);
+                    } else {
+                        nodeAny.add(group);
+                    }
+                }
+            }
+        }
+
+        this.targets = targets.toArray(new Target[targets.size()]);
+        for(Node node : nodes) {
+            if(node != null) {
+                node.freeze();
+            }
+        }
+        this.byTransportProtocol = nodes;
+        this.anyTransportProtocol = nodeAny.freeze();
+    }
+
+    /**
+     * @return Every payload known to this tree, in declaration order.
+     */
+    public List<Target> getTargets() {
+        return Collections.unmodifiableList(Arrays.asList(targets));
+    }
+
+    /**
+     * @return The number of payloads known to this tree; scratch arrays passed to select must be at least this long.
+     */
+    public int size() {
+        return targets.length;
+    }
+
+    /**
+     * Selects every payload which has at least one filter group that accepts the packet.
+     * @param data The packet to test.
+     * @param selected Receives the selected payloads, in declaration order.
+     * @param marks Scratch space; must be all false on entry and is cleared again before returning.
+     * @return The number of payloads written to selected.
+     */
+    public int select(PacketData data, Target[] selected, boolean[] marks) {
+        int cnt = 0;
+        final short protocol = data.getTransportProtocol();
+        if(protocol >= 0 && protocol < byTransportProtocol.length && byTransportProtocol[protocol] != null) {
+            cnt = byTransportProtocol[protocol].select(data, selected, marks, cnt);
+        }
+        cnt = anyTransportProtocol.select(data, selected, marks, cnt);
+
+        for(int idx = 0; idx < cnt; idx++) {
+            marks[selected[idx].ordinal] = false;
+        }
+        return cnt;
+    }
+
+    private static long valueOf(Filter.FilterType field, PacketData data) {
+        switch(field) {
+            case ACK:
+                return data.getAck();
+            case DSIZE:
+            case DSIZEWITHIN:
+                return data.getdSize();
+            case DSTPORT:
+                return data.getDestPort();
+            case ETHERTYPE:
+                return data.getEthertype();
+            case MSS:
+                return data.getMss();
+            case SEQ:
+                return data.getSeqNum();
+            case SRCPORT:
+                return data.getSourcePort();
+            case TRANSPORTPROTOCOL:
+                return data.getTransportProtocol();
+            case TTL:
+            case TTLWITHIN:
+                return data.getTtl();
+            case WINDOW:
+                return data.getWindowNum();
+            default:
+                return 0;
+        }
+    }
+
+    private static Group compile(Target target, Fingerprint.Filter filter) {
+        final List<Filter.FilterType> fields = new ArrayList<>();
+        final List<long[]> ranges = new ArrayList<>();
+        List<Tcp.Flag> flags = null;
+        boolean hasUnknownFlags = false;
+
+        for(JAXBElement<?> element : filter.getAckAndMSSAndDsize()) {
+            final Filter.FilterType type;
+            try {
+                type = Filter.FilterType.valueOf(element.getName().getLocalPart().replaceAll(" ", "").toUpperCase());
+            } catch(IllegalArgumentException ex) {
+                continue;
+            }
+            final Object value = element.getValue();
+            switch(type) {
+                case DSIZEWITHIN:
+                    final Fingerprint.Filter.DsizeWithin dsizeWithin = (Fingerprint.Filter.DsizeWithin)value;
+                    fields.add(type);
+                    ranges.add(new long[] {
+                            dsizeWithin.getMin() == null ? Long.MIN_VALUE : dsizeWithin.getMin().longValue(),
+                            dsizeWithin.getMax() == null ? Long.MAX_VALUE : dsizeWithin.getMax().longValue()
+                    });
+                    break;
+                case TTLWITHIN:
+                    final Fingerprint.Filter.TTLWithin ttlWithin = (Fingerprint.Filter.TTLWithin)value;
+                    fields.add(type);
+                    ranges.add(new long[] {
+                            ttlWithin.getMin() == null ? Long.MIN_VALUE : ttlWithin.getMin().longValue(),
+                            ttlWithin.getMax() == null ? Long.MAX_VALUE : ttlWithin.getMax().longValue()
+                    });
+                    break;
+                case FLAGS:
+                    if(flags == null) {
+                        flags = new ArrayList<>();
+                    }
+                    for(String name : ((String)value).split(" ")) {
+                        if(name.isEmpty()) {
+                            continue;
+                        }
+                        final Tcp.Flag flag = flagFor(name);
+                        if(flag == null) {
+                            hasUnknownFlags = true;
+                        } else {
+                            flags.add(flag);
+                        }
+                    }
+                    break;
+                default:
+                    if(value instanceof Number) {
+                        final long number = ((Number)value).longValue();
+                        fields.add(type);
+                        ranges.add(new long[] {number, number});
+                    }
+                    break;
+            }
+        }
+
+        return new Group(target, fields, ranges, flags, hasUnknownFlags);
+    }
+
+    private static Tcp.Flag flagFor(String name) {
+        for(Tcp.Flag flag : Tcp.Flag.values()) {
+            if(flag.name().equalsIgnoreCase(name)) {
+                return flag;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+package core.fingerprint;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of fixed-size direct buffers used to hold packet payloads between the parser and the LogicalProcessor.
+ *
+ * Segments are sliced from large direct slabs which are allocated on demand, up to a fixed limit.  Payloads larger
+ * than a segment (reassembled fragments) and payloads requested while every segment is in use are given an ordinary
+ * heap buffer, which is simply left to the garbage collector when released.
+ */
+public class PacketBufferPool {
+    /**
+     * Size of a single segment; large enough for any unfragmented Ethernet payload.
+     */
+    public static final int SEGMENT_SIZE = 2048;
+    private static final int SEGMENTS_PER_SLAB = 512;
+    private static final int MAX_SLABS = 16;
+
+    private static final PacketBufferPool instance = new PacketBufferPool();
+
+    private final BlockingQueue<ByteBuffer> free;
+    private int cntSlabs;
+
+    private PacketBufferPool() {
+        this.free = new ArrayBlockingQueue<>(SEGMENTS_PER_SLAB * MAX_SLABS);
+        this.cntSlabs = 0;
+    }
+
+    public static PacketBufferPool getInstance() {
+        return instance;
+    }
+
+    /**
+     * Obtains a buffer with position 0 and a limit of length.
+     */
+    public ByteBuffer acquire(int length) {
+        if(length > SEGMENT_SIZE) {
+            return ByteBuffer.allocate(length);
+        }
+        ByteBuffer result = free.poll();
+        if(result == null && allocateSlab()) {
+            result = free.poll();
+        }
+        if(result == null) {
+            return ByteBuffer.allocate(length);
+        }
+        result.clear();
+        result.limit(length);
+        return result;
+    }
+
+    /**
+     * Returns a buffer obtained from acquire to the pool.  Buffers that did not come from a slab are ignored.
+     */
+    public void release(ByteBuffer buffer) {
+        if(buffer != null && buffer.isDirect() && buffer.capacity() == SEGMENT_SIZE) {
+            free.offer(buffer);
+        }
+    }
+
+    private synchronized boolean allocateSlab() {
+        //Another thread may have refilled the pool while we waited for the lock.
+        if(!free.isEmpty()) {
+            return true;
+        }
+        if(cntSlabs == MAX_SLABS) {
+            return false;
+        }
+        cntSlabs++;
+        final ByteBuffer slab = ByteBuffer.allocateDirect(SEGMENT_SIZE * SEGMENTS_PER_SLAB);
+        for(int idx = 0; idx < SEGMENTS_PER_SLAB; idx++) {
+            slab.limit((idx + 1) * SEGMENT_SIZE);
+            slab.position(idx * SEGMENT_SIZE);
+            free.offer(slab.slice());
+        }
+        return true;
+    }
+}
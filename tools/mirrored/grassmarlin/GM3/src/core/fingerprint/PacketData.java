@@ -7,7 +7,7 @@ import org.jnetpcap.nio.JBuffer;
 import org.jnetpcap.protocol.tcpip.Tcp;
 import util.Cidr;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Set;
 
 /**
@@ -22,16 +22,57 @@ public class PacketData {
 
     private final PMetaData meta;
 
-    private final JBuffer payload;
+    private ByteBuffer payload;
+    private final boolean isPooled;
 
+    /**
+     * Creates a PacketData over a copy of a JBuffer.  Parsers should prefer {@link #copyOf(int, PMetaData, ByteBuffer)},
+     * which avoids the intermediate copy.
+     */
     public PacketData(int completionUnits, PMetaData meta, JBuffer payload) {
+        this(completionUnits, meta, payload == null ? null : ByteBuffer.wrap(payload.getByteArray(0, payload.size())), false);
+    }
+
+    public PacketData(int completionUnits, PMetaData meta) {
+        this(completionUnits, meta, (ByteBuffer)null, false);
+    }
+
+    private PacketData(int completionUnits, PMetaData meta, ByteBuffer payload, boolean isPooled) {
         this.completionUnits = completionUnits;
         this.meta = meta;
         this.payload = payload;
+        this.isPooled = isPooled;
     }
 
-    public PacketData(int completionUnits, PMetaData meta) {
-        this(completionUnits, meta, null);
+    /**
+     * Creates a PacketData whose payload is copied into a pooled buffer.  The buffer is returned to the pool by
+     * {@link #release()}.
+     * @param source The payload; the bytes between its position and limit are copied and its position is advanced to
+     *               the limit.
+     */
+    public static PacketData copyOf(int completionUnits, PMetaData meta, ByteBuffer source) {
+        final ByteBuffer buffer = PacketBufferPool.getInstance().acquire(source.remaining());
+        buffer.put(source);
+        buffer.flip();
+        return fromPool(completionUnits, meta, buffer);
+    }
+
+    /**
+     * Creates a PacketData which takes ownership of a buffer obtained from {@link PacketBufferPool#acquire(int)}.
+     * The payload is the bytes between the buffer's position (which must be 0) and its limit.
+     */
+    public static PacketData fromPool(int completionUnits, PMetaData meta, ByteBuffer buffer) {
+        return new PacketData(completionUnits, meta, buffer, true);
+    }
+
+    /**
+     * Returns the payload buffer to the pool.  The payload must not be read after this is called.
+     */
+    public void release() {
+        if(isPooled && payload != null) {
+            PacketBufferPool.getInstance().release(payload);
+        }
+        payload = null;
     }
 
     public int getCompletionUnits() {
@@ -59,7 +100,7 @@ public class PacketData {
 
     public byte getByte(int i) {
         if (payload != null) {
-            return payload.getByte(i);
+            return payload.get(i);
         } else {
             return 0;
         }
@@ -68,7 +109,10 @@ public class PacketData {
     public byte[] getByteArray(int index, byte[] bytes, int offset, int length, boolean bigEndian) {
         byte[] ret = new byte[0];
         if (payload != null) {
-            ret = payload.getByteArray(index, bytes, offset, length);
+            for (int i = 0; i < length; i++) {
+                bytes[offset + i] = payload.get(index + i);
+            }
+            ret = bytes;
 
             if (!bigEndian) {
                 ArrayUtils.reverse(ret);
@@ -85,38 +129,45 @@ public class PacketData {
 
     public byte[] getByteArray(int offset, int length) {
         byte[] ret = new byte[0];
-        if (payload != null && payload.size() > offset + length) {
-            ret = payload.getByteArray(offset, length);
+        if (isReadable(offset, length)) {
+            ret = new byte[length];
+            for (int i = 0; i < length; i++) {
+                ret[i] = payload.get(offset + i);
+            }
         }
 
         return ret;
     }
 
     public int getInt(int offset, boolean bigEndian) {
-        int ret = 0;
-        if (payload != null && payload.size() > offset + Integer.BYTES) {
-            byte[] bytes = this.getByteArray(offset, Integer.BYTES);
-            if (!bigEndian) {
-                ArrayUtils.reverse(bytes);
-            }
-            ret = new BigInteger(1, bytes).intValue();
-        }
-        return ret;
+        return getInt(offset, Integer.BYTES, bigEndian);
     }
 
+    /**
+     * Reads an unsigned value of length bytes.  Values longer than 4 bytes are truncated to their low 32 bits.
+     * @return The value read, or 0 if the bytes are not within the payload.
+     */
     public int getInt(int offset, int length, boolean bigEndian) {
         int ret = 0;
-        if (payload != null && payload.size() > offset + length) {
-            byte[] bytes = this.getByteArray(offset, length);
-            if (!bigEndian) {
-                ArrayUtils.reverse(bytes);
+        if (isReadable(offset, length)) {
+            if (bigEndian) {
+                for (int i = 0; i < length; i++) {
+                    ret = (ret << 8) | (payload.get(offset + i) & 0xFF);
+                }
+            } else {
+                for (int i = Math.min(length, Integer.BYTES) - 1; i >= 0; i--) {
+                    ret = (ret << 8) | (payload.get(offset + i) & 0xFF);
+                }
             }
-            ret = new BigInteger(1, bytes).intValue();
         }
 
         return ret;
     }
 
+    private boolean isReadable(int offset, int length) {
+        return payload != null && offset >= 0 && length >= 0 && offset + length <= payload.limit();
+    }
+
     /**
      * Locates the bytes within given length from the offset in the buffer.
      * @param search Bytes to search for.
@@ -133,13 +184,13 @@ public class PacketData {
         if (payload != null && search.length <= length) {
             int searchLength = search.length;
             if (searchLength > 0) {
-                int limit = Math.min(offset + length, payload.size()) - searchLength - offset;
+                int limit = Math.min(offset + length, payload.limit()) - searchLength;
                 byte byte0 = search[0];
                 for (int start = offset; start <= limit; ++start) {
-                    if (payload.getByte(start) == byte0) {
+                    if (payload.get(start) == byte0) {
                         int i = 0;
                         for (; i < searchLength; ++i) {
-                            if (search[i] != payload.getByte(start + i)) {
+                            if (search[i] != payload.get(start + i)) {
                                 break;
                             }
                         }
@@ -157,16 +208,32 @@ public class PacketData {
     public byte[] extract(int from, int to, int length) {
         byte[] ret = new byte[0];
 
-        if (from >= 0 && from < payload.size() && to >= 0 && to < payload.size()) {
+        if (payload != null && from >= 0 && from < payload.limit() && to >= 0 && to < payload.limit()) {
             int start = Math.min(from, to);
             int end = Math.min(start + length, Math.max(to, from));
 
-            ret = payload.getByteArray(start, end - start);
+            ret = getByteArray(start, end - start);
         }
 
         return ret;
     }
 
+    /**
+     * Reads the bytes that extract(from, to, length) would return as an unsigned value, without copying them.  Values
+     * longer than 4 bytes are truncated to their low 32 bits.
+     * @return The value, or -1 if no bytes would be extracted.
+     */
+    public long extractUnsigned(final int from, final int to, final int length, final boolean bigEndian) {
+        if (payload != null && from >= 0 && from < payload.limit() && to >= 0 && to < payload.limit()) {
+            final int start = Math.min(from, to);
+            final int end = Math.min(start + length, Math.max(to, from));
+            if (end > start) {
+                return (long)getInt(start, end - start, bigEndian) & 0xFFFFFFFFL;
+            }
+        }
+        return -1;
+    }
+
     public byte[] extractLittle(final int from, final int to, final int length) {
         byte[] bytes = extract(from, to, length);
         ArrayUtils.reverse(bytes);
@@ -175,7 +242,7 @@ public class PacketData {
 
     public int size() {
         if (this.payload != null) {
-            return payload.size();
+            return payload.limit();
         } else {
             return 0;
         }
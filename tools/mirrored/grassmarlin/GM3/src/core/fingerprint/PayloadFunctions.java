@@ -4,12 +4,8 @@ import core.fingerprint3.ContentType;
 import core.fingerprint3.Cursor;
 import core.fingerprint3.Position;
 import core.knowledgebase.Reference;
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CommonTokenStream;
 import ui.fingerprint.payload.Endian;
 import ui.fingerprint.payload.Test;
-import util.parser.CalcLexer;
-import util.parser.CalcParser;
 
 import javax.xml.bind.DatatypeConverter;
 import java.io.UnsupportedEncodingException;
@@ -71,6 +67,11 @@ public class PayloadFunctions {
     }
 
     public static void byteJumpFunction(PacketData payload, CursorImpl cursor, int offset, boolean relative, int bytes, Endian endian, int postOffset, String calc) {
+        byteJumpFunction(payload, cursor, offset, relative, bytes, endian, postOffset,
+                null != calc && !calc.isEmpty() ? CalcExpression.compile(calc) : null);
+    }
+
+    public static void byteJumpFunction(PacketData payload, CursorImpl cursor, int offset, boolean relative, int bytes, Endian endian, int postOffset, CalcExpression calc) {
         int location;
         if (payload.size() > offset) {
             if (bytes > 0) {
@@ -79,8 +80,8 @@ public class PayloadFunctions {
                 location = payload.getInt(offset, endian == Endian.getDefault());
             }
 
-            if (null != calc && !calc.isEmpty()) {
-                location = calculate(location, calc);
+            if (null != calc) {
+                location = calc.evaluate(location);
             }
 
             location += postOffset;
@@ -95,35 +96,6 @@ public class PayloadFunctions {
         }
     }
 
-    private static int calculate(int input, String expression) {
-        CalcLexer lexer = new CalcLexer(new ANTLRInputStream(expression));
-        CalcParser parser = new CalcParser(new CommonTokenStream(lexer));
-
-        expression.replace("x", Integer.toString(input));
-
-        return eval(parser.expr());
-    }
-
-    private static int eval(CalcParser.ExprContext context) {
-        if (context.number() != null) {
-            return Integer.parseInt(context.number().getText());
-        } else if (context.BR_CLOSE() != null) {
-            return eval(context.expr(0));
-        } else if (context.MOD() != null) {
-            return eval(context.expr(0)) % eval(context.expr(1));
-        } else if (context.TIMES() != null) {
-            return eval(context.expr(0)) * eval(context.expr(1));
-        } else if (context.DIV() != null) {
-            return eval(context.expr(0)) / eval(context.expr(1));
-        } else if (context.PLUS() != null) {
-            return eval(context.expr(0)) + eval(context.expr(1));
-        } else if (context.MINUS() != null) {
-            return eval(context.expr(0)) - eval(context.expr(1));
-        } else {
-            throw new IllegalStateException();
-        }
-    }
-
     public static boolean byteTestFunction(PacketData payload, CursorImpl cursor, Test operator, int testVal, boolean relative, int offset, int postOffset, int bytes, Endian endian) {
         if (relative) {
             offset = cursor.getMain() + offset;
@@ -169,10 +141,8 @@ public class PayloadFunctions {
         } catch (IllegalArgumentException e) {
             fromPos = null;
         }
-        int from;
-        if (fromPos != null) {
-           from = getIntegerPosition(payload, fromPos, cursor);
-        } else {
+        int from = 0;
+        if (fromPos == null) {
             try {
                 from = Integer.parseInt(fromString);
             } catch (NumberFormatException e) {
@@ -186,10 +156,8 @@ public class PayloadFunctions {
         } catch (IllegalArgumentException e) {
             toPos = null;
         }
-        int to;
-        if (toPos != null) {
-            to = getIntegerPosition(payload, toPos, cursor);
-        } else {
+        int to = 0;
+        if (toPos == null) {
             try {
                 to = Integer.parseInt(toString);
             } catch (NumberFormatException e) {
@@ -197,6 +165,39 @@ public class PayloadFunctions {
             }
         }
 
+        String value = extractValue(payload, cursor, fromPos, from, toPos, to, maxLength, endian, convert, lookupTable(lookup));
+
+        Map.Entry<String, String> entry = null;
+        if (value != null) {
+            entry = new AbstractMap.SimpleEntry<>(name, value);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Performs an extract using pre-resolved arguments.
+     * @param fromPos The position to extract from, or null to use the from offset.
+     * @param toPos The position to extract to, or null to use the to offset.
+     * @param lookup The table the extracted value is looked up in, or null; only used when convert is null.  The
+     *               extracted bytes are read in place as an unsigned id, so a lookup allocates nothing.
+     * @return The extracted value, or null if nothing could be extracted.
+     */
+    public static String extractValue(PacketData payload, CursorImpl cursor, Position fromPos, int from, Position toPos, int to, int maxLength, Endian endian, ContentType convert, Reference.IdTable lookup) {
+        if (fromPos != null) {
+            from = getIntegerPosition(payload, fromPos, cursor);
+        }
+        if (toPos != null) {
+            to = getIntegerPosition(payload, toPos, cursor);
+        }
+
+        if (convert == null) {
+            if (lookup == null) {
+                return null;
+            }
+            return lookup.get(payload.extractUnsigned(from, to, maxLength, endian == Endian.BIG));
+        }
+
         byte[] ext;
         if (endian == Endian.BIG) {
             ext = payload.extract(from, to, maxLength);
@@ -205,49 +206,48 @@ public class PayloadFunctions {
         }
 
         String value = null;
-        if (convert != null) {
-            if (ext.length > 0) {
-                switch (convert) {
-                    case HEX:
-                        value = DatatypeConverter.printHexBinary(ext);
-                        break;
-                    case INTEGER:
-                        value = new BigInteger(1, ext).toString();
-                        break;
-                    case RAW_BYTES:
-                        value = Arrays.toString(ext);
-                        break;
-                    case STRING:
-                        try {
-                            value = new String(ext, "UTF-8");
-                        } catch (UnsupportedEncodingException e) {
-                            value = null;
-                        }
-                        break;
-                }
-            }
-        } else if (lookup != null) {
-            int id = new BigInteger(ext).intValue();
-            Reference ref = Reference.getInstance();
-            switch (lookup) {
-                case BACNET:
-                    value = ref.getBacnetVendor(id);
+        if (ext.length > 0) {
+            switch (convert) {
+                case HEX:
+                    value = DatatypeConverter.printHexBinary(ext);
+                    break;
+                case INTEGER:
+                    value = new BigInteger(1, ext).toString();
                     break;
-                case ENIPDEVICE:
-                    value = ref.getEnipDevice(id);
+                case RAW_BYTES:
+                    value = Arrays.toString(ext);
                     break;
-                case ENIPVENDOR:
-                    value = ref.getEnipVendor(id);
+                case STRING:
+                    try {
+                        value = new String(ext, "UTF-8");
+                    } catch (UnsupportedEncodingException e) {
+                        value = null;
+                    }
                     break;
             }
         }
 
-        Map.Entry<String, String> entry = null;
-        if (value != null) {
-            entry = new AbstractMap.SimpleEntry<>(name, value);
-        }
+        return value;
+    }
 
-        return entry;
+    /**
+     * @return The reference table backing the given Lookup, or null if lookup is null.
+     */
+    public static Reference.IdTable lookupTable(Lookup lookup) {
+        if (lookup == null) {
+            return null;
+        }
+        Reference ref = Reference.getInstance();
+        switch (lookup) {
+            case BACNET:
+                return ref.getBacnetVendors();
+            case ENIPDEVICE:
+                return ref.getEnipDevices();
+            case ENIPVENDOR:
+                return ref.getEnipVendors();
+            default:
+                return null;
+        }
     }
 
     private static int getIntegerPosition(PacketData payload, Position position, CursorImpl cursor) {
@@ -285,12 +285,25 @@ public class PayloadFunctions {
 
     public static boolean matchFunction(PacketData payload, CursorImpl cursor, int depth, int offset, boolean relative,
                                  int within, boolean noCase, String patternString, byte[] content, boolean move, Charset charset) {
+        Pattern pattern = null;
+        if (patternString != null) {
+            pattern = noCase ? Pattern.compile(patternString, Pattern.CASE_INSENSITIVE) : Pattern.compile(patternString);
+        }
+        return matchFunction(payload, cursor, depth, offset, relative, within, pattern, content, move, charset);
+    }
+
+    /**
+     * Performs a match using a pattern that has already been compiled; case sensitivity is a property of the pattern.
+     */
+    public static boolean matchFunction(PacketData payload, CursorImpl cursor, int depth, int offset, boolean relative,
+                                 int within, Pattern pattern, byte[] content, boolean move, Charset charset) {
 
         boolean matched = false;
 
+        final int main = cursor.getMain();
 
         if (relative) {
-            offset += cursor.getMain();
+            offset += main;
         }
 
         int length;
@@ -300,15 +313,13 @@ public class PayloadFunctions {
         } else {
             length = payload.size() - offset;
         }
+        length = limitWithin(length, offset, main, within);
+        if (length < 0) {
+            return false;
+        }
 
-        if (patternString != null) {
+        if (pattern != null) {
             String string = new String(payload.getByteArray(offset, length), charset);
-            Pattern pattern;
-            if (noCase) {
-                pattern = Pattern.compile(patternString, Pattern.CASE_INSENSITIVE);
-            } else {
-                pattern = Pattern.compile(patternString);
-            }
             Matcher matcher;
             if (string != null && !string.isEmpty() && (matcher = pattern.matcher(string)).matches()) {
                 if (move) {
@@ -333,4 +344,60 @@ public class PayloadFunctions {
 
         return matched;
     }
+
+    /**
+     * Performs a content match using the occurrences recorded by a ContentMatcher scan rather than searching the
+     * payload directly.
+     * @param idContent The id the content was registered with.
+     * @param lengthContent The length of the content.
+     */
+    public static boolean matchContentFunction(PacketData payload, CursorImpl cursor, int depth, int offset, boolean relative,
+                                        int within, ContentMatcher.Scan scan, int idContent, int lengthContent, boolean move) {
+        final int main = cursor.getMain();
+
+        if (relative) {
+            offset += main;
+        }
+
+        int length;
+        // find the end point
+        if (depth > 0) {
+            length = Math.min(depth, payload.size() - offset);
+        } else {
+            length = payload.size() - offset;
+        }
+        length = limitWithin(length, offset, main, within);
+        // you can not look at data at negative indexes
+        if (offset < 0) {
+            offset = 0;
+        }
+
+        if (!payload.hasPayload() || lengthContent == 0 || lengthContent > length) {
+            return false;
+        }
+
+        int location = scan.find(payload, idContent, offset, Math.min(offset + length, payload.size()));
+        if (location == -1) {
+            return false;
+        }
+
+        if (move) {
+            cursor.setStart(location);
+            cursor.setEnd(location + lengthContent);
+        }
+        cursor.setMain(location);
+        return true;
+    }
+
+    /**
+     * Within requires the match to end no more than within bytes past the cursor, as left by the previous match; a
+     * within of 0 places no limit on the match.
+     * @return The length of the search window starting at offset, reduced so that it ends within bytes past main.
+     */
+    private static int limitWithin(int length, int offset, int main, int within) {
+        if (within > 0) {
+            return Math.min(length, main + within - offset);
+        }
+        return length;
+    }
 }
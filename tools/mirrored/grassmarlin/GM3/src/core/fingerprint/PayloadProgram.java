@@ -0,0 +1,480 @@
+package core.fingerprint;
+
+import core.document.graph.ComputedProperty;
+import core.document.graph.LogicalNode;
+import core.fingerprint3.*;
+import core.knowledgebase.Reference;
+import core.logging.Logger;
+import core.logging.Severity;
+import ui.fingerprint.payload.Endian;
+import ui.fingerprint.payload.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A Fingerprint Payload lowered into an immutable tree of operations.
+ *
+ * The JAXB object graph is walked once, when the program is compiled; content is decoded to bytes, patterns and Calc
+ * expressions are compiled, enumerations are resolved and lookup tables are bound at that time.  Executing a program
+ * only reads the packet and the cursor.
+ */
+public class PayloadProgram {
+    /**
+     * A single compiled operation.
+     */
+    interface Operation {
+        void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan);
+    }
+
+    private static final Operation[] NO_OPERATIONS = new Operation[0];
+
+    private final Operation[] always;
+    private final Operation[] operations;
+
+    private PayloadProgram(Operation[] always, Operation[] operations) {
+        this.always = always;
+        this.operations = operations;
+    }
+
+    /**
+     * Runs the program against a packet.  The cursor is reset before use, so a single cursor may be reused for every
+     * program run by a thread.
+     * @param scan The content occurrences for this packet, from the ContentMatcher the program was compiled against.
+     */
+    public void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+        cursor.reset();
+        for(Operation op : always) {
+            op.execute(data, cursor, scan);
+        }
+        execute(operations, data, cursor, scan);
+    }
+
+    private static void execute(Operation[] ops, PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+        for(Operation op : ops) {
+            //Everything other than a Return inspects the payload.
+            if(op instanceof ReturnOperation || data.hasPayload()) {
+                op.execute(data, cursor, scan);
+            }
+        }
+    }
+
+    /**
+     * @param contents Receives the literal content of every Match in the payload.
+     */
+    public static PayloadProgram compile(String fpName, Fingerprint.Payload pl, ContentMatcher.Builder contents) {
+        final Operation[] always;
+        if(pl.getAlways() != null) {
+            final List<Operation> returns = new ArrayList<>();
+            for(Return ret : pl.getAlways().getReturn()) {
+                returns.add(new ReturnOperation(fpName, ret));
+            }
+            always = returns.toArray(new Operation[returns.size()]);
+        } else {
+            always = NO_OPERATIONS;
+        }
+        return new PayloadProgram(always, compile(fpName, pl.getOperation(), contents));
+    }
+
+    private static Operation[] compile(String fpName, List<Object> opList, ContentMatcher.Builder contents) {
+        if(opList == null || opList.isEmpty()) {
+            return NO_OPERATIONS;
+        }
+        final List<Operation> result = new ArrayList<>(opList.size());
+        for(Object op : opList) {
+            if(op instanceof Return) {
+                result.add(new ReturnOperation(fpName, (Return)op));
+            } else if(op instanceof MatchFunction) {
+                result.add(new MatchOperation(fpName, (MatchFunction)op, contents));
+            } else if(op instanceof ByteTestFunction) {
+                final ByteTestFunction testFunc = (ByteTestFunction)op;
+                final Test test = getTest(testFunc);
+                //A ByteTest without a test can never pass, so neither it nor its children need to run.
+                if(test != null) {
+                    result.add(new ByteTestOperation(fpName, testFunc, test, contents));
+                }
+            } else if(op instanceof ByteJumpFunction) {
+                result.add(new ByteJumpOperation(fpName, (ByteJumpFunction)op, contents));
+            } else if(op instanceof IsDataAtFunction) {
+                result.add(new IsDataAtOperation(fpName, (IsDataAtFunction)op, contents));
+            } else if(op instanceof Anchor) {
+                result.add(new AnchorOperation((Anchor)op));
+            }
+        }
+        return result.toArray(new Operation[result.size()]);
+    }
+
+    private static class ReturnOperation implements Operation {
+        private final String fpName;
+        private final boolean toSource;
+        private final boolean toDestination;
+        private final int confidence;
+        private final Map<String, ComputedProperty> fixedValues;
+        private final ExtractOperation[] extracts;
+
+        public ReturnOperation(String fpName, Return ret) {
+            this.fpName = fpName;
+            this.toSource = "SOURCE".equals(ret.getDirection());
+            this.toDestination = "DESTINATION".equals(ret.getDirection());
+            this.confidence = ret.getConfidence();
+
+            final Map<String, ComputedProperty> values = new HashMap<>();
+            final DetailGroup details = ret.getDetails();
+            if(details != null) {
+                if(details.getRole() != null && !details.getRole().isEmpty()) {
+                    values.put("Role", new ComputedProperty(details.getRole(), confidence));
+                }
+                if(details.getCategory() != null && !details.getCategory().isEmpty()) {
+                    values.put("Category", new ComputedProperty(details.getCategory(), confidence));
+                }
+                for(DetailGroup.Detail detail : details.getDetail()) {
+                    values.put(detail.getName(), new ComputedProperty(detail.getValue(), confidence));
+                }
+            }
+            this.fixedValues = Collections.unmodifiableMap(values);
+
+            final List<ExtractOperation> extracts = new ArrayList<>();
+            for(Extract extract : ret.getExtract()) {
+                final ExtractOperation op = ExtractOperation.compile(extract);
+                if(op != null) {
+                    extracts.add(op);
+                }
+            }
+            this.extracts = extracts.toArray(new ExtractOperation[extracts.size()]);
+        }
+
+        @Override
+        public void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+            if(!toSource && !toDestination) {
+                return;
+            }
+            final LogicalNode node = toSource ? data.getSourceNode() : data.getDestNode();
+            node.addAnnotations(fpName, fixedValues);
+            if(extracts.length > 0 && data.hasPayload()) {
+                for(ExtractOperation extract : extracts) {
+                    final String value = extract.execute(data, cursor);
+                    if(value != null) {
+                        node.addAnnotation(fpName, extract.name, value, confidence);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class ExtractOperation {
+        private final String name;
+        private final Position fromPosition;
+        private final int from;
+        private final Position toPosition;
+        private final int to;
+        private final int maxLength;
+        private final Endian endian;
+        private final ContentType convert;
+        private final Reference.IdTable lookup;
+
+        private ExtractOperation(String name, Position fromPosition, int from, Position toPosition, int to, int maxLength, Endian endian, ContentType convert, Reference.IdTable lookup) {
+            this.name = name;
+            this.fromPosition = fromPosition;
+            this.from = from;
+            this.toPosition = toPosition;
+            this.to = to;
+            this.maxLength = maxLength;
+            this.endian = endian;
+            this.convert = convert;
+            this.lookup = lookup;
+        }
+
+        /**
+         * @return The compiled Extract, or null if it can never produce a value.
+         */
+        public static ExtractOperation compile(Extract extract) {
+            final Position fromPosition = getPosition(extract.getFrom());
+            final Position toPosition = getPosition(extract.getTo());
+            int from = 0;
+            int to = 0;
+            try {
+                if(fromPosition == null) {
+                    from = Integer.parseInt(extract.getFrom());
+                }
+                if(toPosition == null) {
+                    to = Integer.parseInt(extract.getTo());
+                }
+            } catch(NumberFormatException ex) {
+                return null;
+            }
+
+            ContentType convert = null;
+            Reference.IdTable lookup = null;
+            final Post post = extract.getPost();
+            if(post != null) {
+                convert = post.getConvert();
+                if(post.getLookup() != null) {
+                    try {
+                        lookup = PayloadFunctions.lookupTable(Lookup.valueOf(post.getLookup()));
+                    } catch(IllegalArgumentException ex) {
+                        return null;
+                    }
+                }
+            }
+            if(convert == null && lookup == null) {
+                return null;
+            }
+
+            final Endian endian = extract.getEndian() != null ? Endian.valueOf(extract.getEndian()) : Endian.getDefault();
+            return new ExtractOperation(extract.getName(), fromPosition, from, toPosition, to, extract.getMaxLength(), endian, convert, lookup);
+        }
+
+        public String execute(PacketData data, CursorImpl cursor) {
+            return PayloadFunctions.extractValue(data, cursor, fromPosition, from, toPosition, to, maxLength, endian, convert, lookup);
+        }
+
+        private static Position getPosition(String text) {
+            try {
+                return text != null ? Position.valueOf(text) : null;
+            } catch(IllegalArgumentException ex) {
+                return null;
+            }
+        }
+    }
+
+    private static class MatchOperation implements Operation {
+        private final int depth;
+        private final int offset;
+        private final boolean relative;
+        private final int within;
+        private final boolean isValid;
+        private final Pattern pattern;
+        private final int idContent;
+        private final int lengthContent;
+        private final boolean moveCursors;
+        private final Operation[] andThen;
+
+        public MatchOperation(String fpName, MatchFunction match, ContentMatcher.Builder contents) {
+            this.depth = match.getDepth();
+            this.offset = match.getOffset();
+            this.relative = match.isRelative();
+            this.within = match.getWithin();
+            Pattern pattern = null;
+            boolean isValid = true;
+            if(match.getPattern() != null) {
+                try {
+                    pattern = match.isNoCase() ? Pattern.compile(match.getPattern(), Pattern.CASE_INSENSITIVE) : Pattern.compile(match.getPattern());
+                } catch(PatternSyntaxException ex) {
+                    Logger.log(PayloadProgram.class, Severity.Error, "Invalid Match pattern in fingerprint " + fpName + ": " + ex.getMessage());
+                    isValid = false;
+                }
+            }
+            this.pattern = pattern;
+            this.isValid = isValid;
+            final byte[] content = match.getContent() == null ? null : getContent(match.getContent().getType(), match.getContent().getValue());
+            this.idContent = pattern == null ? contents.add(content) : -1;
+            this.lengthContent = content == null ? 0 : content.length;
+            this.moveCursors = match.isMoveCursors();
+            this.andThen = match.getAndThen() == null ? NO_OPERATIONS : compile(fpName, match.getAndThen().getMatchOrByteTestOrIsDataAt(), contents);
+        }
+
+        @Override
+        public void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+            final boolean matched;
+            if(!isValid) {
+                matched = false;
+            } else if(pattern != null) {
+                matched = PayloadFunctions.matchFunction(data, cursor, depth, offset, relative, within, pattern, null, moveCursors, StandardCharsets.UTF_8);
+            } else {
+                matched = PayloadFunctions.matchContentFunction(data, cursor, depth, offset, relative, within, scan, idContent, lengthContent, moveCursors);
+            }
+            if(matched) {
+                PayloadProgram.execute(andThen, data, cursor, scan);
+            }
+        }
+    }
+
+    private static class ByteTestOperation implements Operation {
+        private final Test test;
+        private final int value;
+        private final boolean relative;
+        private final int offset;
+        private final int postOffset;
+        private final int bytes;
+        private final Endian endian;
+        private final Operation[] andThen;
+
+        public ByteTestOperation(String fpName, ByteTestFunction testFunc, Test test, ContentMatcher.Builder contents) {
+            this.test = test;
+            this.value = getTestValue(testFunc, test).intValue();
+            this.relative = testFunc.isRelative();
+            this.offset = testFunc.getOffset();
+            this.postOffset = testFunc.getPostOffset();
+            this.bytes = testFunc.getBytes();
+            this.endian = Endian.valueOf(testFunc.getEndian());
+            this.andThen = testFunc.getAndThen() == null ? NO_OPERATIONS : compile(fpName, testFunc.getAndThen().getMatchOrByteTestOrIsDataAt(), contents);
+        }
+
+        @Override
+        public void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+            if(PayloadFunctions.byteTestFunction(data, cursor, test, value, relative, offset, postOffset, bytes, endian)) {
+                PayloadProgram.execute(andThen, data, cursor, scan);
+            }
+        }
+    }
+
+    private static class ByteJumpOperation implements Operation {
+        private final int offset;
+        private final boolean relative;
+        private final int bytes;
+        private final Endian endian;
+        private final int postOffset;
+        private final boolean isValid;
+        private final CalcExpression calc;
+        private final Operation[] andThen;
+
+        public ByteJumpOperation(String fpName, ByteJumpFunction jump, ContentMatcher.Builder contents) {
+            this.offset = jump.getOffset() != null ? jump.getOffset() : 0;
+            this.relative = jump.isRelative();
+            this.bytes = jump.getBytes();
+            this.endian = jump.getEndian() != null ? Endian.valueOf(jump.getEndian()) : Endian.getDefault();
+            this.postOffset = jump.getPostOffset() != null ? jump.getPostOffset() : 0;
+            CalcExpression calc = null;
+            boolean isValid = true;
+            if(jump.getCalc() != null && !jump.getCalc().isEmpty()) {
+                try {
+                    calc = CalcExpression.compile(jump.getCalc());
+                } catch(IllegalArgumentException ex) {
+                    Logger.log(PayloadProgram.class, Severity.Error, "Invalid ByteJump Calc in fingerprint " + fpName + ": " + jump.getCalc());
+                    isValid = false;
+                }
+            }
+            this.calc = calc;
+            this.isValid = isValid;
+            this.andThen = jump.getAndThen() == null ? NO_OPERATIONS : compile(fpName, jump.getAndThen().getMatchOrByteTestOrIsDataAt(), contents);
+        }
+
+        @Override
+        public void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+            if(!isValid) {
+                return;
+            }
+            PayloadFunctions.byteJumpFunction(data, cursor, offset, relative, bytes, endian, postOffset, calc);
+            PayloadProgram.execute(andThen, data, cursor, scan);
+        }
+    }
+
+    private static class IsDataAtOperation implements Operation {
+        private final int offset;
+        private final boolean relative;
+        private final Operation[] andThen;
+
+        public IsDataAtOperation(String fpName, IsDataAtFunction at, ContentMatcher.Builder contents) {
+            this.offset = at.getOffset();
+            this.relative = at.isRelative();
+            this.andThen = at.getAndThen() == null ? NO_OPERATIONS : compile(fpName, at.getAndThen().getMatchOrByteTestOrIsDataAt(), contents);
+        }
+
+        @Override
+        public void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+            if(PayloadFunctions.isDataAtFunction(data, cursor, offset, relative)) {
+                PayloadProgram.execute(andThen, data, cursor, scan);
+            }
+        }
+    }
+
+    private static class AnchorOperation implements Operation {
+        private final Cursor cursorType;
+        private final Position position;
+        private final boolean relative;
+        private final int offset;
+
+        public AnchorOperation(Anchor anchor) {
+            this.cursorType = anchor.getCursor();
+            this.position = anchor.getPosition();
+            this.relative = anchor.isRelative();
+            this.offset = anchor.getOffset() != null ? anchor.getOffset() : 0;
+        }
+
+        @Override
+        public void execute(PacketData data, CursorImpl cursor, ContentMatcher.Scan scan) {
+            PayloadFunctions.anchorFunction(data, cursor, cursorType, position, relative, offset);
+        }
+    }
+
+    private static Test getTest(ByteTestFunction func) {
+        if (func.getAND() != null) {
+            return Test.AND;
+        } else if (func.getOR() != null) {
+            return Test.OR;
+        } else if (func.getGT() != null) {
+            return Test.GT;
+        } else if (func.getGTE() != null) {
+            return Test.GTE;
+        } else if (func.getLT() != null) {
+            return Test.LT;
+        } else if (func.getLTE() != null) {
+            return Test.LTE;
+        } else if (func.getEQ() != null) {
+            return Test.EQ;
+        } else {
+            return null;
+        }
+    }
+
+    private static BigInteger getTestValue(ByteTestFunction func, Test test) {
+        BigInteger ret = null;
+        switch (test) {
+            case GT:
+                ret = func.getGT();
+                break;
+            case GTE:
+                ret = func.getGTE();
+                break;
+            case LT:
+                ret = func.getLT();
+                break;
+            case LTE:
+                ret = func.getLTE();
+                break;
+            case AND:
+                ret = func.getAND();
+                break;
+            case OR:
+                ret = func.getOR();
+                break;
+            case EQ:
+                ret = func.getEQ();
+                break;
+        }
+
+        return ret;
+    }
+
+    private static byte[] getContent(ContentType type, String value) {
+        byte[] ret = new byte[0];
+
+        try {
+            switch (type) {
+                case HEX:
+                    ret = new BigInteger(value, 16).toByteArray();
+                    break;
+                case STRING:
+                    ret = value.getBytes(StandardCharsets.UTF_8);
+                    break;
+                case RAW_BYTES:
+                    value = value.replaceAll("\\s+", "");
+                    ret = new byte[value.length() / 2];
+                    for (int i = 0; i < value.length(); i += 2) {
+                        int parsed = Integer.parseInt(value.substring(i, i + 2), 16);
+                        ret[i / 2] = (byte) parsed;
+                    }
+                    break;
+                case INTEGER:
+                    ret = new BigInteger(value).toByteArray();
+            }
+        } catch (NumberFormatException e) {
+            // returning empty array
+        }
+
+        return ret;
+    }
+}
@@ -2,7 +2,12 @@ package core.importmodule;
 
 import core.fingerprint3.Fingerprint;
 import core.importmodule.inputIterators.Bro2.BroFileIterator;
+import core.logging.Logger;
+import core.logging.Severity;
+import util.FileUnits;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
@@ -12,23 +17,29 @@ import java.util.List;
  */
 public class Bro2Import extends ImportItem {
 
-    long lines;
+    private long sizeFile;
 
     public Bro2Import(Path inPath, List<Fingerprint> fingerprints) {
         super(inPath, fingerprints);
 
+        try {
+            this.sizeFile = Files.size(inPath);
+        } catch (IOException e) {
+            Logger.log(this, Severity.Warning, "Unable to find the size of file " + inPath.getFileName());
+            this.sizeFile = 0;
+        }
     }
 
     @Override
     protected long getTotalUnits() {
-        return this.lines;
+        return this.sizeFile;
     }
 
     @Override
     protected Iterator<?> getLogicalIterator() {
         Iterator<?> iterator = BroFileIterator.getBro2LogIterator(this, this.path);
 
-        this.lines = ((BroFileIterator) iterator).getSize();
+        this.sizeFile = ((BroFileIterator) iterator).getSize();
 
         return iterator;
     }
@@ -40,6 +51,6 @@ public class Bro2Import extends ImportItem {
 
     @Override
     public String getDisplaySize() {
-        return lines + " Connections";
+        return FileUnits.formatSize(this.sizeFile);
     }
 }
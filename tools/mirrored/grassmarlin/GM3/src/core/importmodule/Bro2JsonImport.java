@@ -3,6 +3,7 @@ package core.importmodule;
 import core.fingerprint.PacketData;
 import core.fingerprint3.Fingerprint;
 import core.importmodule.inputIterators.Bro2.Bro2JsonIterator;
+import util.FileUnits;
 
 import java.nio.file.Path;
 import java.util.Iterator;
@@ -13,28 +14,28 @@ import java.util.List;
  */
 public class Bro2JsonImport extends ImportItem{
 
-    long lines;
+    private long sizeFile;
 
     public Bro2JsonImport(Path inPath, List<Fingerprint> fingerprints) {
         super(inPath, fingerprints);
 
         Iterator<PacketData> iterator = Bro2JsonIterator.getBro2JsonIterator(this, inPath);
 
-        this.lines = ((Bro2JsonIterator)iterator).getSize();
+        this.sizeFile = ((Bro2JsonIterator)iterator).getSize();
 
         this.iteratorMap.put(Pipeline.LOGICAL, iterator);
     }
 
     @Override
     protected long getTotalUnits() {
-        return this.lines;
+        return this.sizeFile;
     }
 
     @Override
     protected Iterator<?> getLogicalIterator() {
         Iterator<?> iterator = Bro2JsonIterator.getBro2JsonIterator(this, this.path);
 
-        this.lines = ((Bro2JsonIterator) iterator).getSize();
+        this.sizeFile = ((Bro2JsonIterator) iterator).getSize();
 
         return iterator;
     }
@@ -46,6 +47,6 @@ public class Bro2JsonImport extends ImportItem{
 
     @Override
     public String getDisplaySize() {
-        return lines + " Connections";
+        return FileUnits.formatSize(this.sizeFile);
     }
 }
@@ -6,6 +6,7 @@ package core.importmodule;
 
 import core.document.Event;
 import core.document.serialization.xml.XmlElement;
+import core.fingerprint.CalcExpression;
 import core.fingerprint3.Fingerprint;
 import core.logging.Logger;
 import core.logging.Severity;
@@ -157,6 +158,8 @@ public abstract class ImportItem {
         AnnounceStatus();
         progress.setForceUpdate(1.0);
 
+        Logger.log(this, Severity.Information, String.format("Calc expression cache: %d hits, %d misses (since launch).", CalcExpression.getCacheHits(), CalcExpression.getCacheMisses()));
+
         /*
         System.out.println("Edge Time = " + edgeTime.get());
         System.out.println("FP Time = " + fpTime.get());
@@ -66,9 +66,12 @@ public class LogicalProcessor {
 
     //Process an endpoint
     public void process(Host host) {
-        LogicalNode nodeNew = new LogicalNode(host.getCidr(), null, session.getLogicalGraph().getCidrList());
-        // This will return the node in the graph if there is a conflict.
-        nodeNew = session.getLogicalGraph().addNode(nodeNew);
+        //Hosts are usually reported for every packet, so only construct a node the first time the address is seen.
+        LogicalNode nodeNew = session.getLogicalGraph().findNode(host.getCidr());
+        if(nodeNew == null) {
+            // This will return the node in the graph if there is a conflict.
+            nodeNew = session.getLogicalGraph().addNode(new LogicalNode(host.getCidr(), null, session.getLogicalGraph().getCidrList()));
+        }
         //Set the annotations after adding to the graph to ensure they are set on the correct node.
         for(Map.Entry<String, String> entry : host.getProperties().entrySet()) {
             nodeNew.addAnnotation(host.getSource() == null ? null : host.getSource().toString(), entry.getKey(), new ComputedProperty(entry.getValue(), 5));
@@ -76,6 +79,16 @@ public class LogicalProcessor {
     }
 
     public void run() {
+        try {
+            runPipeline();
+        } finally {
+            //The payload is no longer needed once every stage has seen the packet.
+            this.data.release();
+            this.data = null;
+        }
+    }
+
+    private void runPipeline() {
         long start = System.currentTimeMillis();
         IEdge<LogicalNode> edge = graph.apply(this.data);
         LogicalNode edgeSource = edge.getSource();
@@ -3,43 +3,89 @@ package core.importmodule;
 import core.document.PhysicalDevice;
 import core.document.Session;
 import core.document.graph.*;
-import core.document.serialization.xml.XmlElement;
 import core.exec.IEEE802154Data;
 import core.fingerprint.PacketData;
-import core.fingerprint3.Fingerprint;
 import ui.GrassMarlinFx;
-import util.Cidr;
+import util.LongObjectMap;
 
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
-import java.util.function.Supplier;
-import java.util.zip.ZipOutputStream;
 
 /**
  * We use this as an opportunity to add the session to a task.
  *
  * The session should be the access to the end point storage and the
  * fingerprinting framework.
+ *
+ * Logical processing is a staged pipeline: the parsers fill the iterators, a single dispatcher thread drains the
+ * iterators into batches, and a fixed set of workers, each owning its own LogicalProcessor and MeshProcessor, process
+ * the batches.  Each worker has a bounded queue; when a worker falls behind the dispatcher blocks on its queue, which
+ * in turn stalls the parsers, rather than rejecting and retrying work.
+ *
+ * Packets are assigned to workers by their (unordered) pair of addresses, so every packet for a given edge is handled
+ * by the same worker.  Each worker keeps the edges it owns in its own map and only touches the (locked) LogicalGraph
+ * the first time it sees an edge.
  */
 public class TaskDispatcher {
+    /**
+     * Number of items handed to a worker at once.
+     */
+    private static final int BATCH_SIZE = 64;
+    /**
+     * Number of batches that may be waiting for each worker.
+     */
+    private static final int WORKER_QUEUE_DEPTH = 16;
+    /**
+     * Bounds on how long the dispatcher waits before polling the iterators again after finding no data.  The upper bound
+     * matches the 1ms sleep this replaced, so a live capture never waits longer for its packets to be picked up.
+     */
+    private static final long IDLE_PARK_MIN_NANOS = 50000L;
+    private static final long IDLE_PARK_MAX_NANOS = 1000000L;
+
+    /**
+     * A group of items handed from the dispatcher to a single worker.  Batches are recycled once processed.
+     */
+    private static class Batch {
+        private final Object[] items = new Object[BATCH_SIZE];
+        private int size = 0;
+    }
+
+    /**
+     * Queued to every worker once an import has been fully dispatched; the last worker to reach it records the
+     * completion of the import.
+     */
+    private static class CompletionMarker {
+        private final ImportItem item;
+        private final AtomicInteger cntRemaining;
+
+        public CompletionMarker(ImportItem item, int cntWorkers) {
+            this.item = item;
+            this.cntRemaining = new AtomicInteger(cntWorkers);
+        }
+    }
+
     private final ExecutorService wexec;
-    private final ExecutorService lexec;
-    private final BlockingQueue<Runnable> logicalQueue;
     private final Session session;
     private final CopyOnWriteArrayList<Iterator<?>> logicalIterators;
     private final CopyOnWriteArrayList<Iterator<PhysicalDevice>> physicalIterators;
-    private final CopyOnWriteArrayList<Iterator<?>> meshIterators;
-    private final LogicalEdgeFactory factoryLogicalEdges;
     private final MeshEdgeFactory factoryMeshEdges;
     private final Map<Iterator<?>, ImportItem> sourceFromIter;
-    private final ThreadLocal<LogicalProcessor> proc;
-    private final ThreadLocal<MeshProcessor> meshProc;
 
-    private boolean shutdown;
-    private boolean running;
+    private final Worker[] workers;
+    private final BlockingQueue<Batch> batchesFree;
+    private final AtomicInteger pendingLogicalTasks;
+    // Incremented whenever an import is accepted so that workers pick up the fingerprints in use at that time.
+    private final AtomicInteger generation;
+    // Incremented whenever the LogicalGraph is cleared, invalidating the edges cached by the workers.
+    private final AtomicInteger generationGraph;
+
+    private volatile Thread threadLogical;
+    private volatile Thread threadPhysical;
+    private volatile boolean shutdown;
+    private volatile boolean running;
 
     /**
      * @param session Reference to the session provided to all Task object
@@ -47,22 +93,25 @@ public class TaskDispatcher {
      */
     public TaskDispatcher(final int cntThreads, final Session session) {
         wexec = Executors.newCachedThreadPool();
-        logicalQueue = new ArrayBlockingQueue<>(1000);
-        lexec = new ThreadPoolExecutor(1, cntThreads, 30, TimeUnit.SECONDS, logicalQueue, new ThreadPoolExecutor.AbortPolicy());
         this.session = session;
-        this.factoryLogicalEdges = new LogicalEdgeFactory(session);
         this.factoryMeshEdges = new MeshEdgeFactory();
 
-        this.sourceFromIter = new HashMap<>();
+        this.sourceFromIter = new ConcurrentHashMap<>();
 
         this.logicalIterators = new CopyOnWriteArrayList<>();
         this.physicalIterators = new CopyOnWriteArrayList<>();
-        this.meshIterators = new CopyOnWriteArrayList<>();
+
+        this.workers = new Worker[Math.max(1, cntThreads)];
+        this.batchesFree = new ArrayBlockingQueue<>(workers.length * (WORKER_QUEUE_DEPTH + 2));
+        this.pendingLogicalTasks = new AtomicInteger(0);
+        this.generation = new AtomicInteger(0);
+        this.generationGraph = new AtomicInteger(0);
+        for(int idx = 0; idx < workers.length; idx++) {
+            workers[idx] = new Worker();
+        }
+
         shutdown = false;
         running = false;
-
-        proc = new ThreadLocalLogicalProcessor(session, GrassMarlinFx::getRunningFingerprints, factoryLogicalEdges);
-        meshProc = new ThreadLocalMeshProcessor(session, factoryMeshEdges);
     }
 
     public boolean isRunning() {
@@ -75,18 +124,26 @@ public class TaskDispatcher {
 
     @SuppressWarnings("unchecked")
     public void accept(final ImportItem item) {
+        generation.incrementAndGet();
         Iterator<?> iterLogical = item.getIterator(Pipeline.LOGICAL);
         if(iterLogical != null) {
-            logicalIterators.add(iterLogical);
             sourceFromIter.put(iterLogical, item);
+            logicalIterators.add(iterLogical);
         }
         Iterator<?> iterPhysical = item.getIterator(Pipeline.PHYSICAL);
         if(iterPhysical != null) {
             physicalIterators.add((Iterator<PhysicalDevice>)iterPhysical);
         }
+        wake(threadLogical);
+        wake(threadPhysical);
     }
 
     public void run() {
+        //The session is still being constructed when the dispatcher is created, so the graph can't be hooked until now.
+        session.getLogicalGraph().OnGraphCleared.addHandler((source, args) -> generationGraph.incrementAndGet());
+        for(Worker worker : workers) {
+            wexec.execute(worker);
+        }
         wexec.execute(this::startLogical);
         wexec.execute(this::startPhysical);
         running = true;
@@ -94,126 +151,76 @@ public class TaskDispatcher {
 
     public void shutdown() {
         this.shutdown = true;
+        wake(threadLogical);
+        wake(threadPhysical);
+        for(Worker worker : workers) {
+            worker.queue.offer(worker);
+        }
+    }
+
+    private static void wake(Thread thread) {
+        if(thread != null) {
+            LockSupport.unpark(thread);
+        }
     }
 
     //<editor-fold defaultstate="collapsed" desc="Logical Graph">
     private void startLogical() {
-        final List<Iterator> doneList = new LinkedList<>();
+        threadLogical = Thread.currentThread();
 
-        final AtomicInteger pendingLogicalTasks = new AtomicInteger(0);
+        final List<Iterator<?>> doneList = new LinkedList<>();
+        final Batch[] batchesPending = new Batch[workers.length];
+        int idxWorkerNext = 0;
+        long nanosIdle = IDLE_PARK_MIN_NANOS;
         boolean needsRefresh = false;
 
-        boolean run;
-        PacketData packetData;
-        IEEE802154Data meshData;
-        boolean allNulls;
         while(!shutdown) {
-            allNulls = true;
-            if (logicalIterators.isEmpty() && meshIterators.isEmpty()) {
-                if(needsRefresh && pendingLogicalTasks.get() == 0) {
-                    this.session.getLogicalGraph().refresh();
-                    this.session.getMeshGraph().refresh();
-                    needsRefresh = false;
-                }
-
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
-                    // don't care
-                }
-            }
+            boolean isIdle = true;
             for(Iterator<?> iterator : logicalIterators) {
-                if (iterator.hasNext()) {
-                    Object next = iterator.next();
-                    if (next instanceof PacketData) {
-                        packetData = (PacketData)next;
-
-                        if (packetData != null) {
-                            run = false;
-                            allNulls = false;
-                            final ProcThread proc = new ProcThread(packetData, pendingLogicalTasks);
-                            needsRefresh = true;
-                            while (!run) {
-                                try {
-                                    lexec.execute(proc);
-                                    run = true;
-                                } catch (RejectedExecutionException e) {
-                                    run = false;
-                                    try {
-                                        Thread.sleep(1);
-                                    } catch (InterruptedException ie) {
-                                        // don't care
-                                    }
-                                }
-                            }
+                //Take at most a batch from each iterator per pass so that one import cannot starve the others.
+                for(int cntItems = 0; cntItems < BATCH_SIZE; cntItems++) {
+                    if(!iterator.hasNext()) {
+                        //Everything already taken from the iterator has to reach the workers ahead of the marker.
+                        flush(batchesPending);
+                        final CompletionMarker marker = new CompletionMarker(sourceFromIter.remove(iterator), workers.length);
+                        for(Worker worker : workers) {
+                            handOff(worker, marker);
                         }
-                    } else if (next instanceof IEEE802154Data) {
-                        meshData = (IEEE802154Data)next;
-
-                        if (meshData != null) {
-                            run = false;
-                            allNulls = false;
-                            final MeshProcThread proc = new MeshProcThread(meshData, pendingLogicalTasks);
-                            needsRefresh = true;
-                            while (!run) {
-                                try {
-                                    lexec.execute(proc);
-                                    run = true;
-                                } catch (RejectedExecutionException e) {
-                                    run = false;
-                                    try {
-                                        Thread.sleep(1);
-                                    } catch (InterruptedException ie) {
-                                        // don't care
-                                    }
-                                }
-                            }
+                        doneList.add(iterator);
+                        break;
+                    }
+
+                    final Object next = iterator.next();
+                    if(next == null) {
+                        break;
+                    }
+                    if(next instanceof PacketData || next instanceof IEEE802154Data || next instanceof LogicalProcessor.Host) {
+                        isIdle = false;
+                        needsRefresh = true;
+                        pendingLogicalTasks.incrementAndGet();
+
+                        final int idxWorker;
+                        if(next instanceof PacketData) {
+                            final PacketData packet = (PacketData)next;
+                            idxWorker = shardOf(packet.getSourceIp().hashCode() ^ packet.getDestIp().hashCode());
+                        } else if(next instanceof LogicalProcessor.Host) {
+                            idxWorker = shardOf(((LogicalProcessor.Host)next).getCidr().hashCode());
+                        } else {
+                            idxWorker = idxWorkerNext;
+                            idxWorkerNext = (idxWorkerNext + 1) % workers.length;
                         }
-                    } else if (next instanceof LogicalProcessor.Host) {
-                        //The Host code is a bit of a hack.  It was never expected that we would build the LogicalGraph
-                        // from anything other than packet data/metadata, but to provide the example CSV plugin
-                        // implementation, we felt that it was better to offer a simple data format rather than one as
-                        // complex as the PacketData class.
-                        //Also, it was easier to add this than to add proper PacketData support to the CSV parser, and
-                        // as this was added in the week before the 3.2 release, I didn't feel like taking the more
-                        // ambitious approach.
-                        LogicalProcessor.Host host = (LogicalProcessor.Host)next;
-                        if(host != null) {
-                            run = false;
-                            allNulls = false;
-                            final HostThread proc = new HostThread(host);
-                            needsRefresh = true;
-                            while(!run) {
-                                try {
-                                    lexec.execute(proc);
-                                    run = true;
-                                } catch(RejectedExecutionException e) {
-                                    run = false;
-                                    try {
-                                        Thread.sleep(1);
-                                    } catch(InterruptedException ie) {
-                                        // Ignore
-                                    }
-                                }
+                        Batch batch = batchesPending[idxWorker];
+                        if(batch == null) {
+                            batch = batchesFree.poll();
+                            if(batch == null) {
+                                batch = new Batch();
                             }
+                            batchesPending[idxWorker] = batch;
                         }
-                    }
-                } else {
-                    run = false;
-                    while(!run) {
-                        try {
-                            lexec.execute(() -> {
-                                sourceFromIter.get(iterator).recordTaskCompletion();
-                            });
-                            doneList.add(iterator);
-                            run = true;
-                        } catch (RejectedExecutionException re) {
-                            run = false;
-                            try {
-                                Thread.sleep(1);
-                            } catch (InterruptedException ie) {
-                                // don't care
-                            }
+                        batch.items[batch.size++] = next;
+                        if(batch.size == BATCH_SIZE) {
+                            batchesPending[idxWorker] = null;
+                            handOff(workers[idxWorker], batch);
                         }
                     }
                 }
@@ -222,113 +229,174 @@ public class TaskDispatcher {
             this.logicalIterators.removeAll(doneList);
             doneList.clear();
 
+            if(isIdle) {
+                //Nothing more is arriving right now, so don't hold back partially filled batches.
+                flush(batchesPending);
 
-            if (allNulls) {
-                try {
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
+                if(logicalIterators.isEmpty()) {
+                    if(needsRefresh && pendingLogicalTasks.get() == 0) {
+                        this.session.getLogicalGraph().refresh();
+                        this.session.getMeshGraph().refresh();
+                        needsRefresh = false;
+                    }
+                    if(!needsRefresh) {
+                        //Nothing to do until the next import is accepted.
+                        LockSupport.park(this);
+                        nanosIdle = IDLE_PARK_MIN_NANOS;
+                        continue;
+                    }
                 }
+                LockSupport.parkNanos(this, nanosIdle);
+                nanosIdle = Math.min(nanosIdle * 2, IDLE_PARK_MAX_NANOS);
+            } else {
+                nanosIdle = IDLE_PARK_MIN_NANOS;
             }
         }
-    }
-
-    private class ProcThread implements Runnable {
-        private final PacketData data;
-        private final AtomicInteger counter;
-
-        public ProcThread(final PacketData data, final AtomicInteger counter) {
-            this.data = data;
-            this.counter = counter;
-            counter.incrementAndGet();
-        }
 
-        @Override
-        public void run() {
-            try {
-                proc.get().process(data);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-            } finally {
-                counter.decrementAndGet();
-            }
+        for(Batch batch : batchesPending) {
+            discard(batch);
         }
     }
 
-    private class HostThread implements Runnable {
-        private final LogicalProcessor.Host data;
+    /**
+     * Maps a hash to a worker index.  Packet hashes are XORed from both addresses, so both directions of a connection
+     * land on the same worker.
+     */
+    private int shardOf(int hash) {
+        return ((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % workers.length;
+    }
 
-        public HostThread(final LogicalProcessor.Host host) {
-            this.data = host;
+    private void flush(final Batch[] batchesPending) {
+        for(int idx = 0; idx < batchesPending.length; idx++) {
+            if(batchesPending[idx] != null) {
+                handOff(workers[idx], batchesPending[idx]);
+                batchesPending[idx] = null;
+            }
         }
+    }
 
-        @Override
-        public void run() {
+    /**
+     * Queues work for a worker, blocking while the worker's queue is full.  Work that cannot be queued because we are
+     * shutting down is discarded.
+     */
+    private void handOff(final Worker worker, final Object work) {
+        while(!shutdown) {
             try {
-                proc.get().process(data);
-            } catch(Exception ex) {
-                ex.printStackTrace();
+                worker.queue.put(work);
+                return;
+            } catch(InterruptedException ex) {
+                //Retry unless we are shutting down.
             }
         }
+        if(work instanceof Batch) {
+            discard((Batch)work);
+        }
     }
 
-    private class MeshProcThread implements Runnable {
-
-        private final IEEE802154Data data;
-        private final AtomicInteger counter;
-
-        public MeshProcThread(final IEEE802154Data data, final AtomicInteger counter) {
-            this.data = data;
-            this.counter = counter;
-            counter.incrementAndGet();
+    /**
+     * Releases the pooled payloads of a batch that will never be processed.
+     */
+    private static void discard(final Batch batch) {
+        if(batch == null) {
+            return;
         }
-
-        @Override
-        public void run() {
-            try {
-                meshProc.get().process(data);
-            } catch(Exception ex) {
-                ex.printStackTrace();
-            } finally {
-                counter.decrementAndGet();
+        for(int idx = 0; idx < batch.size; idx++) {
+            if(batch.items[idx] instanceof PacketData) {
+                ((PacketData)batch.items[idx]).release();
             }
+            batch.items[idx] = null;
         }
+        batch.size = 0;
     }
 
-    private static class ThreadLocalLogicalProcessor extends ThreadLocal<LogicalProcessor>{
-        private final Session session;
-        private final Supplier<List<Fingerprint>> fingerprints;
-        private final Function<PacketData, IEdge<LogicalNode>> graphFunction;
-        private final Consumer<PacketData>[] plugins;
-
-        public ThreadLocalLogicalProcessor(Session session, Supplier<List<Fingerprint>> fingerprints,
-                                           Function<PacketData, IEdge<LogicalNode>> graphFunction, Consumer<PacketData>... plugins) {
-            super();
-
-            this.session = session;
-            this.fingerprints = fingerprints;
-            this.graphFunction = graphFunction;
-            this.plugins = plugins;
+    private class Worker implements Runnable {
+        private final BlockingQueue<Object> queue;
+        private final MeshProcessor processorMesh;
+        private final LogicalEdgeFactory factoryLogicalEdges;
+        private LogicalProcessor processorLogical;
+        private int generationProcessor;
+
+        public Worker() {
+            this.queue = new ArrayBlockingQueue<>(WORKER_QUEUE_DEPTH);
+            this.processorMesh = new MeshProcessor(session, factoryMeshEdges);
+            this.factoryLogicalEdges = new LogicalEdgeFactory(session, generationGraph);
+            this.processorLogical = null;
+            this.generationProcessor = -1;
         }
 
         @Override
-        protected LogicalProcessor initialValue() {
-            return new LogicalProcessor(session, fingerprints, graphFunction, plugins);
-        }
-    }
-
-    private static class ThreadLocalMeshProcessor extends ThreadLocal<MeshProcessor> {
+        public void run() {
+            while(!shutdown) {
+                final Object work;
+                try {
+                    work = queue.take();
+                } catch(InterruptedException ex) {
+                    continue;
+                }
 
-        private final Session session;
-        private final Function<IEEE802154Data, IEdge<MeshNode>> graphFunction;
+                if(work instanceof Batch) {
+                    final Batch batch = (Batch)work;
+                    process(batch);
+                    Arrays.fill(batch.items, 0, batch.size, null);
+                    batch.size = 0;
+                    batchesFree.offer(batch);
+                } else if(work instanceof CompletionMarker) {
+                    final CompletionMarker marker = (CompletionMarker)work;
+                    if(marker.cntRemaining.decrementAndGet() == 0 && marker.item != null) {
+                        marker.item.recordTaskCompletion();
+                    }
+                }
+            }
 
-        public ThreadLocalMeshProcessor(Session session, Function<IEEE802154Data, IEdge<MeshNode>> graphFunction) {
-            this.session = session;
-            this.graphFunction = graphFunction;
+            for(Object work = queue.poll(); work != null; work = queue.poll()) {
+                if(work instanceof Batch) {
+                    discard((Batch)work);
+                }
+            }
         }
 
-        @Override
-        protected MeshProcessor initialValue() {
-            return new MeshProcessor(session, graphFunction);
+        private void process(final Batch batch) {
+            //The fingerprints are read when the processor is built, so rebuild it when a new import has been accepted.
+            if(generationProcessor != generation.get()) {
+                try {
+                    processorLogical = new LogicalProcessor(session, GrassMarlinFx::getRunningFingerprints, factoryLogicalEdges);
+                    generationProcessor = generation.get();
+                } catch(RuntimeException ex) {
+                    ex.printStackTrace();
+                    pendingLogicalTasks.addAndGet(-batch.size);
+                    discard(batch);
+                    return;
+                }
+            }
+
+            for(int idx = 0; idx < batch.size; idx++) {
+                final Object item = batch.items[idx];
+                try {
+                    if(item instanceof PacketData) {
+                        processorLogical.process((PacketData)item);
+                    } else if(item instanceof IEEE802154Data) {
+                        processorMesh.process((IEEE802154Data)item);
+                    } else if(item instanceof LogicalProcessor.Host) {
+                        //The Host code is a bit of a hack.  It was never expected that we would build the LogicalGraph
+                        // from anything other than packet data/metadata, but to provide the example CSV plugin
+                        // implementation, we felt that it was better to offer a simple data format rather than one as
+                        // complex as the PacketData class.
+                        //Also, it was easier to add this than to add proper PacketData support to the CSV parser, and
+                        // as this was added in the week before the 3.2 release, I didn't feel like taking the more
+                        // ambitious approach.
+                        processorLogical.process((LogicalProcessor.Host)item);
+                    }
+                } catch(Exception ex) {
+                    ex.printStackTrace();
+                } finally {
+                    //LogicalProcessor releases the payload itself; this covers packets it never reached.  Releasing
+                    //is idempotent.
+                    if(item instanceof PacketData) {
+                        ((PacketData)item).release();
+                    }
+                    pendingLogicalTasks.decrementAndGet();
+                }
+            }
         }
     }
 
@@ -348,119 +416,88 @@ public class TaskDispatcher {
 
     private static class LogicalEdgeFactory implements Function<PacketData, IEdge<LogicalNode>> {
 
+        private final Session session;
+        private final AtomicInteger generationGraph;
+        // Edges owned by this worker, keyed by the pair of addresses (see LogicalGraph.keyForEdge); since packets are
+        // sharded by address pair, no other worker will add packets to them.
+        private final LongObjectMap<LogicalEdge> edgesOwned;
+        private int generationCache;
+
         /**
-         * This is a horrible hack of a class aimed at reducing the memory churn associated with detecting edges.
-         * We only need to find the edge entry in the HashMap with this, so we just need to track the IPs (for .equals) and the hash code.
-         * From the perspective of a HashMap, it must be indistinguishable from a LogicalEdge (effectively AbstractBidirectionalEdge).
-         * This class relies on the fact that a HashMap lookup will take an object (o) and evaluate o.equals(k) against every key value (k) in the HashMap, rather than evaluating k.equals(o).
+         * Each worker needs its own factory; the factory is not thread safe.
          */
-        private static class LogicalEdgePlaceholder implements IEdge<LogicalNode>{
-            private Cidr source;
-            private Cidr target;
-
-            public LogicalEdgePlaceholder() {
-                this.source = null;
-                this.target = null;
-            }
-
-            public void setEndpoints(Cidr source, Cidr target) {
-                this.source = source;
-                this.target = target;
-            }
-
-            // == IEdge -- To meet the requirements for findEdge, not actually necessary
+        public LogicalEdgeFactory(final Session session, final AtomicInteger generationGraph) {
+            this.session = session;
+            this.generationGraph = generationGraph;
+            this.edgesOwned = new LongObjectMap<>();
+            this.generationCache = generationGraph.get();
+        }
 
-            public LogicalNode getSource() {
-                return null;
-            }
-            public LogicalNode getDestination() {
-                return null;
+        public IEdge<LogicalNode> apply(PacketData packet) {
+            if(generationCache != generationGraph.get()) {
+                generationCache = generationGraph.get();
+                edgesOwned.clear();
             }
-            public void setSource(LogicalNode source) { }
-            public void setDestination(LogicalNode destination) { }
 
-            @Override
-            public XmlElement toXml(List<LogicalNode> nodes, List<ImportItem> items,  ZipOutputStream zos) {
-                return null;
+            final long ipSource = packet.getSourceIp().getFirstIp();
+            final long ipDestination = packet.getDestIp().getFirstIp();
+            final long key = LogicalGraph.keyForEdge(ipSource, ipDestination);
+            LogicalEdge edgeExisting = edgesOwned.get(key);
+            if(edgeExisting == null) {
+                edgeExisting = findOrCreateEdge(packet, ipSource, ipDestination);
+                edgesOwned.put(key, edgeExisting);
             }
+            //Since the edge might not be the same ordering as the packet (edges are bidirectional), the direction needs to be checked for the first parameter.
+            edgeExisting.AddPacket(edgeExisting.getSource().getIp().getFirstIp() == ipSource, packet.getSourcePort(), packet.getDestPort(), packet.getTransportProtocol(), packet.getTime(), packet.getSource(), packet.getdSize(), packet.getFrame());
+            return edgeExisting;
+        }
 
-            // == Object
-
-            @Override
-            public int hashCode() {
-                return source.hashCode() ^ target.hashCode();
+        private LogicalEdge findOrCreateEdge(PacketData packet, long ipSource, long ipDestination) {
+            final LogicalGraph graph = session.getLogicalGraph();
+            final LogicalEdge edgeExisting = graph.findEdge(ipSource, ipDestination);
+            if(edgeExisting != null) {
+                return edgeExisting;
             }
 
-            @Override
-            public boolean equals(Object other) {
-                if(other instanceof LogicalEdge) {
-                    LogicalEdge edge = (LogicalEdge)other;
-                    return edge.getSource().getIp().equals(source) && edge.getDestination().getIp().equals(target);
-                } else if(other instanceof LogicalEdgePlaceholder) {
-                    return source.equals(((LogicalEdgePlaceholder)other).source) && target.equals(((LogicalEdgePlaceholder)other).target);
-                }
-                return false;
+            //Only construct nodes for endpoints the graph has never seen.
+            LogicalNode nodeSource = graph.findNode(packet.getSourceIp());
+            if(nodeSource == null) {
+                nodeSource = new LogicalNode(packet.getSourceIp(), packet.getSourceMac(), graph.getCidrList());
             }
-        }
-
-        private final Session session;
-        private final ThreadLocal<LogicalEdgePlaceholder> edgePlaceholder;
-
-        public LogicalEdgeFactory(final Session session) {
-            this.session = session;
-            this.edgePlaceholder = new ThreadLocal<LogicalEdgePlaceholder>() {
-                @Override
-                protected LogicalEdgePlaceholder initialValue() {
-                    return new LogicalEdgePlaceholder();
-                }
-            };
-        }
-
-        public IEdge<LogicalNode> apply(PacketData packet) {
-            final LogicalEdgePlaceholder edge = edgePlaceholder.get();
-            edge.setEndpoints(packet.getSourceIp(), packet.getDestIp());
-            LogicalEdge edgeExisting = session.getLogicalGraph().findMatchingEdge(edge);
-
-            if (edgeExisting != null) {
-                edgeExisting.AddPacket(edgeExisting.getSource().getIp().equals(packet.getSourceIp()), packet.getSourcePort(), packet.getDestPort(), packet.getTransportProtocol(), packet.getTime(), packet.getSource(), packet.getdSize(), packet.getFrame());
-            } else {
-                final LogicalNode nodeSource = new LogicalNode(packet.getSourceIp(), packet.getSourceMac(), session.getLogicalGraph().getCidrList());
-                final LogicalNode nodeDestination = new LogicalNode(packet.getDestIp(), packet.getDestMac(), session.getLogicalGraph().getCidrList());
-                edgeExisting = new LogicalEdge(nodeSource, nodeDestination);
-                //addEdge will return either the edge passed to it or the edge representing the same connection, if one already exists.
-                //Since it might not be the same ordering (edges are bidirectional), the direction needs to be checked for the first parameter.
-                edgeExisting = session.getLogicalGraph().addEdge(edgeExisting);
-                edgeExisting.AddPacket(edgeExisting.getSource().equals(nodeSource), packet.getSourcePort(), packet.getDestPort(), packet.getTransportProtocol(), packet.getTime(), packet.getSource(), packet.getdSize(), packet.getFrame());
+            LogicalNode nodeDestination = graph.findNode(packet.getDestIp());
+            if(nodeDestination == null) {
+                nodeDestination = new LogicalNode(packet.getDestIp(), packet.getDestMac(), graph.getCidrList());
             }
-            return edgeExisting;
+            //addEdge will return either the edge passed to it or the edge representing the same connection, if one already exists.
+            return graph.addEdge(new LogicalEdge(nodeSource, nodeDestination, session.getFrameArchive()));
         }
     }
     //</editor-fold>
     //<editor-fold defaultstate="collapsed" desc="Physical Graph">
     private void startPhysical() {
+        threadPhysical = Thread.currentThread();
+
         final List<Iterator<PhysicalDevice>> doneList = new LinkedList<>();
         final List<PhysicalDevice> devicesPending = new LinkedList<>();
+        long nanosIdle = IDLE_PARK_MIN_NANOS;
         while(!shutdown) {
-            //We can sleep every iteration since the number of devices is relatively low; the overhead is minimal.
-            try {
-                Thread.sleep(1);
-            } catch(InterruptedException ex) {
-                //Ignore interruption; this is just to keep the thread from hogging CPU time.
-            }
-
             if(physicalIterators.isEmpty()) {
                 if(!devicesPending.isEmpty()) {
                     session.getPhysicalTopologyMapper().getDevices().addAll(devicesPending);
                     devicesPending.clear();
                 }
+                //Nothing to do until the next import is accepted.
+                LockSupport.park(this);
                 continue;
             }
 
+            boolean isIdle = true;
             for(Iterator<PhysicalDevice> iterator : physicalIterators) {
                 if(iterator.hasNext()) {
                     PhysicalDevice dev = iterator.next();
                     if(dev != null) {
                         devicesPending.add(dev);
+                        isIdle = false;
                     }
                 } else {
                     doneList.add(iterator);
@@ -469,6 +506,13 @@ public class TaskDispatcher {
 
             this.physicalIterators.removeAll(doneList);
             doneList.clear();
+
+            if(isIdle) {
+                LockSupport.parkNanos(this, nanosIdle);
+                nanosIdle = Math.min(nanosIdle * 2, IDLE_PARK_MAX_NANOS);
+            } else {
+                nanosIdle = IDLE_PARK_MIN_NANOS;
+            }
         }
     }
     //</editor-fold>
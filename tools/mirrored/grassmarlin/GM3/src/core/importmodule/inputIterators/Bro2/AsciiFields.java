@@ -0,0 +1,109 @@
+package core.importmodule.inputIterators.Bro2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses values directly from ASCII text held in a ByteBuffer, without building Strings.  Each value occupies the bytes
+ * from start (inclusive) to end (exclusive).
+ */
+final class AsciiFields {
+    private AsciiFields() {
+    }
+
+    public static boolean equals(ByteBuffer buffer, int start, int end, byte[] value) {
+        if(value == null || end - start != value.length) {
+            return false;
+        }
+        for(int idx = 0; idx < value.length; idx++) {
+            if(buffer.get(start + idx) != value[idx]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param value The lower case value to compare against.
+     */
+    public static boolean equalsIgnoreCase(ByteBuffer buffer, int start, int end, byte[] value) {
+        if(value == null || end - start != value.length) {
+            return false;
+        }
+        for(int idx = 0; idx < value.length; idx++) {
+            final byte b = buffer.get(start + idx);
+            if(b != value[idx] && !(b >= 'A' && b <= 'Z' && b + ('a' - 'A') == value[idx])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a non-negative decimal integer.
+     * @throws NumberFormatException If the value is empty or contains anything other than digits.
+     */
+    public static long parseLong(ByteBuffer buffer, int start, int end) throws NumberFormatException {
+        if(start >= end || end - start > 18) {
+            throw new NumberFormatException("Invalid integer at " + start);
+        }
+        long result = 0;
+        for(int idx = start; idx < end; idx++) {
+            result = result * 10 + digit(buffer.get(idx));
+        }
+        return result;
+    }
+
+    /**
+     * Parses a timestamp in (possibly fractional) seconds, such as 1331901000.123456, into milliseconds.  Digits beyond
+     * the millisecond are discarded.
+     * @throws NumberFormatException If the value is not a valid timestamp.
+     */
+    public static long parseMillis(ByteBuffer buffer, int start, int end) throws NumberFormatException {
+        int idxPoint = start;
+        while(idxPoint < end && buffer.get(idxPoint) != '.') {
+            idxPoint++;
+        }
+        long result = parseLong(buffer, start, idxPoint) * 1000L;
+        long scale = 100;
+        for(int idx = idxPoint + 1; idx < end; idx++) {
+            final int digit = digit(buffer.get(idx));
+            result += digit * scale;
+            scale /= 10;
+        }
+        return result;
+    }
+
+    /**
+     * Parses a dotted-quad IPv4 address into the form used by {@link util.Cidr}.
+     * @throws IllegalArgumentException If the value is not an IPv4 address.
+     */
+    public static long parseIp(ByteBuffer buffer, int start, int end) throws IllegalArgumentException {
+        long result = 0;
+        int octets = 0;
+        int idxOctet = start;
+        for(int idx = start; idx <= end; idx++) {
+            if(idx == end || buffer.get(idx) == '.') {
+                if(idx == idxOctet || idx - idxOctet > 3) {
+                    throw new IllegalArgumentException("Invalid IPv4 address at " + start);
+                }
+                final long octet = parseLong(buffer, idxOctet, idx);
+                if(octet > 255 || ++octets > 4) {
+                    throw new IllegalArgumentException("Invalid IPv4 address at " + start);
+                }
+                result = (result << 8) | octet;
+                idxOctet = idx + 1;
+            }
+        }
+        if(octets != 4) {
+            throw new IllegalArgumentException("Invalid IPv4 address at " + start);
+        }
+        return result;
+    }
+
+    private static int digit(byte value) throws NumberFormatException {
+        if(value < '0' || value > '9') {
+            throw new NumberFormatException("Invalid digit '" + (char)value + "'");
+        }
+        return value - '0';
+    }
+}
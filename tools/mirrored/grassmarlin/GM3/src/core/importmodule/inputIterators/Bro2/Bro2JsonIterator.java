@@ -6,44 +6,77 @@ import core.importmodule.ImportItem;
 import core.logging.Logger;
 import core.logging.Severity;
 import util.Cidr;
-import util.JsonParser;
-import util.StringParser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.concurrent.*;
 
+/**
+ * Iterates over the connections in a Bro2 conn log written as JSON, one object per line.
+ *
+ * Each line is scanned in place from the memory-mapped file and only the keys that are needed are parsed, directly into
+ * primitives; every other value is skipped without being decoded.  Files are split into chunks of roughly CHUNK_SIZE
+ * bytes which are parsed in parallel, so connections are not necessarily produced in file order.  Progress is measured
+ * in bytes of the file.
+ */
 public class Bro2JsonIterator implements Iterator<PacketData> {
+    private static final long CHUNK_SIZE = 32L * 1024L * 1024L;
+
+    private enum Field {
+        TIME("ts", true),
+        SRC_IP("id.orig_h", true),
+        SRC_PRT("id.orig_p", true),
+        DST_IP("id.resp_h", true),
+        DST_PRT("id.resp_p", true),
+        PROTO("proto", true),
+        SRC_BTS("orig_bytes", false);
+
+        final byte[] key;
+        final boolean isRequired;
+
+        Field(String key, boolean isRequired) {
+            this.key = key.getBytes(StandardCharsets.US_ASCII);
+            this.isRequired = isRequired;
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+    private static final byte[] PROTO_TCP = "tcp".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PROTO_UDP = "udp".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VALUE_NULL = "null".getBytes(StandardCharsets.US_ASCII);
 
     private final ImportItem source;
 
     private final Path inPath;
 
-    private boolean done;
+    private volatile boolean done;
 
     private BlockingQueue<PacketData> packetQueue;
 
     private long size;
 
-    long idxLine;
+    private final int cntThreads;
 
     private Bro2JsonIterator(ImportItem source, Path inPath) {
         this.source = source;
         this.inPath = inPath;
         done = false;
-        this.packetQueue = new ArrayBlockingQueue<>(100);
-
-        idxLine = 0;
+        this.cntThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        this.packetQueue = new ArrayBlockingQueue<>(100 * cntThreads);
     }
 
+    /**
+     * @return The size of the file, in bytes.
+     */
     public long getSize() {
         return this.size;
     }
@@ -61,87 +94,279 @@ public class Bro2JsonIterator implements Iterator<PacketData> {
     public static Iterator<PacketData> getBro2JsonIterator(ImportItem source, Path inPath) throws IllegalStateException{
         Bro2JsonIterator iterator = new Bro2JsonIterator(source, inPath);
 
-        final AtomicLong size = new AtomicLong(0);
-        try (final BufferedReader reader = Files.newBufferedReader(inPath)) {
-            reader.lines().filter(line -> !line.startsWith("#")).forEach(line -> size.addAndGet(2));
+        try {
+            iterator.size = Files.size(inPath);
         } catch (IOException ioe) {
             throw new IllegalStateException("Error reading File: " + inPath);
         }
 
-        iterator.size = size.get();
-
-        if (size.get() > 0) {
-            iterator.parseFile();
-        }
+        iterator.parseFile();
 
         return iterator;
     }
 
     private void parseFile() {
-        new Thread(() -> {
-            try (final BufferedReader reader = Files.newBufferedReader(inPath)) {
-                reader.lines().forEach(this::parseLine);
-                done = true;
+        Thread loopThread = new Thread(() -> {
+            try (FileChannel channel = FileChannel.open(inPath, StandardOpenOption.READ)) {
+                final long cbFile = channel.size();
+                if (cbFile <= CHUNK_SIZE || cntThreads == 1) {
+                    new MappedLines(channel, MappedLines.DEFAULT_WINDOW_SIZE).forEach(new LineParser(0)::parseLine);
+                } else {
+                    parseChunks(channel, cbFile);
+                }
             } catch (IOException ioe) {
-                done = true;
                 Logger.log(this, Severity.Error, "Error reading File: " + inPath);
+            } finally {
+                done = true;
             }
-        }).start();
+        }, "bro2json loop");
+        loopThread.setDaemon(true);
+        loopThread.start();
     }
 
-    private void parseLine(String lineText){
-        idxLine++;
-        lineText = lineText.trim();
-        if(lineText.isEmpty()) {
-            return;
-        }
-
+    private void parseChunks(FileChannel channel, long cbFile) throws IOException {
+        final int cntChunks = (int) ((cbFile + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(cntThreads, cntChunks), runnable -> {
+            final Thread thread = new Thread(runnable, "bro2json chunk");
+            thread.setDaemon(true);
+            return thread;
+        });
         try {
-            HashMap<String, Object> lineParsed = JsonParser.readObject(new StringParser(lineText));
-
-            String[] timeComps = ((String)lineParsed.get("ts")).split("\\.");
-            String timeString = timeComps[0] + (timeComps.length > 1 ? (timeComps[1] + "000").substring(0, 3) : "");
-            long time = Long.parseLong(timeString);
-            int dstPort = Integer.parseInt((String)lineParsed.get("id.resp_p"));
-            int srcPort = Integer.parseInt((String)lineParsed.get("id.orig_p"));
-            short proto = parseProtocol((String)lineParsed.get("proto"));
-
-            int sizePacket = -1;
-            if (lineParsed.containsKey("orig_bytes")) {
-                sizePacket = Integer.parseInt((String) lineParsed.get("orig_bytes"));
+            //Lines are numbered across the whole file, so each chunk needs to know how many lines precede it.  Counting
+            //is far cheaper than parsing, so the chunks are counted first.
+            final List<Future<Long>> counts = new ArrayList<>(cntChunks);
+            for (int idxChunk = 0; idxChunk < cntChunks; idxChunk++) {
+                final long offsetStart = idxChunk * CHUNK_SIZE;
+                counts.add(executor.submit(() -> {
+                    final long[] cntLines = new long[1];
+                    new MappedLines(channel, CHUNK_SIZE * 2).forEach(offsetStart, offsetStart + CHUNK_SIZE, (buffer, start, end, cbLine) -> cntLines[0]++);
+                    return cntLines[0];
+                }));
+            }
+
+            final List<Future<?>> results = new ArrayList<>(cntChunks);
+            long idxLineFirst = 0;
+            for (int idxChunk = 0; idxChunk < cntChunks; idxChunk++) {
+                final long offsetStart = idxChunk * CHUNK_SIZE;
+                final LineParser parser = new LineParser(idxLineFirst);
+                results.add(executor.submit(() -> {
+                    new MappedLines(channel, CHUNK_SIZE * 2).forEach(offsetStart, offsetStart + CHUNK_SIZE, parser::parseLine);
+                    return null;
+                }));
+                idxLineFirst += counts.get(idxChunk).get();
+            }
+            for (Future<?> result : results) {
+                result.get();
             }
+        } catch (ExecutionException ex) {
+            Logger.log(this, Severity.Error, "Error reading File: " + inPath + " (" + ex.getCause().getMessage() + ")");
+        } catch (InterruptedException ex) {
+            //Program is probably closing.
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            Cidr srcIp = new Cidr(parseIp((String)lineParsed.get("id.orig_h")));
-            Cidr dstIp = new Cidr(parseIp((String)lineParsed.get("id.resp_h")));
+    /**
+     * Parses the lines of one chunk of the file.  Each chunk has its own LineParser, since the bounds of the values
+     * being parsed are held in it.
+     */
+    private class LineParser {
+        // The bounds of each Field within the line being parsed, indexed by ordinal; -1 if the key is absent.
+        private final int[] starts;
+        private final int[] ends;
 
-            PMetaData meta = new PMetaData(source, time, idxLine, srcPort, dstPort, proto, srcIp, null, dstIp, null, -1, sizePacket, 2048, -1, -1, -1, -1, null);
+        private long idxLine;
 
-            PacketData data = new PacketData(1, meta);
+        public LineParser(long idxLineFirst) {
+            this.starts = new int[FIELDS.length];
+            this.ends = new int[FIELDS.length];
+            this.idxLine = idxLineFirst;
+        }
+
+        public void parseLine(ByteBuffer buffer, int start, int end, int cbLine) {
+            idxLine++;
+            final int idxFirst = skipWhitespace(buffer, start, end);
+            if (idxFirst == end) {
+                source.recordTaskProgress(cbLine);
+                return;
+            }
 
             try {
-                this.packetQueue.put(data);
-            } catch (InterruptedException ie) {
-                // don't care
+                scanObject(buffer, idxFirst, end);
+                for (Field field : FIELDS) {
+                    if (field.isRequired && starts[field.ordinal()] == -1) {
+                        throw new IllegalArgumentException("Missing value for " + new String(field.key, StandardCharsets.US_ASCII));
+                    }
+                }
+
+                final long time = AsciiFields.parseMillis(buffer, starts[Field.TIME.ordinal()], ends[Field.TIME.ordinal()]);
+                final int dstPort = (int) AsciiFields.parseLong(buffer, starts[Field.DST_PRT.ordinal()], ends[Field.DST_PRT.ordinal()]);
+                final int srcPort = (int) AsciiFields.parseLong(buffer, starts[Field.SRC_PRT.ordinal()], ends[Field.SRC_PRT.ordinal()]);
+                final short proto = parseProtocol(buffer, starts[Field.PROTO.ordinal()], ends[Field.PROTO.ordinal()]);
+
+                long sizePacket = -1;
+                if (starts[Field.SRC_BTS.ordinal()] != -1) {
+                    sizePacket = AsciiFields.parseLong(buffer, starts[Field.SRC_BTS.ordinal()], ends[Field.SRC_BTS.ordinal()]);
+                }
+
+                Cidr srcIp = Cidr.of(AsciiFields.parseIp(buffer, starts[Field.SRC_IP.ordinal()], ends[Field.SRC_IP.ordinal()]));
+                Cidr dstIp = Cidr.of(AsciiFields.parseIp(buffer, starts[Field.DST_IP.ordinal()], ends[Field.DST_IP.ordinal()]));
+
+                PMetaData meta = new PMetaData(source, time, idxLine, srcPort, dstPort, proto, srcIp, null, dstIp, null, -1, sizePacket, 2048, -1, -1, -1, -1, null);
+
+                PacketData data = new PacketData(cbLine, meta);
+
+                try {
+                    packetQueue.put(data);
+                } catch (InterruptedException ie) {
+                    // don't care
+                }
+            } catch (IllegalArgumentException ex) {
+                Logger.log(Bro2JsonIterator.this, Severity.Warning, "There was an error processing line " + idxLine + " in [" + inPath + "]: " + ex.getMessage());
+                source.recordTaskProgress(cbLine);
             }
-        } catch(IOException | NumberFormatException ex) {
-            Logger.log(this, Severity.Warning, "There was an error processing a line in [" + this.inPath + "]: " + ex.getMessage());
-            System.out.println("Unable to process Bro2ConnJson line:");
-            System.out.println("> " + lineText);
         }
+
+        /**
+         * Records the bounds of the values of interest in the flat JSON object starting at idx.  String values are
+         * bounded by their quotes; nested objects and arrays are skipped.
+         */
+        private void scanObject(ByteBuffer buffer, int idx, int end) throws IllegalArgumentException {
+            Arrays.fill(starts, -1);
+            expect(buffer, idx, end, '{');
+            idx = skipWhitespace(buffer, idx + 1, end);
+            if (byteAt(buffer, idx, end) == '}') {
+                return;
+            }
+
+            while (true) {
+                expect(buffer, idx, end, '"');
+                final int startKey = idx + 1;
+                final int endKey = endOfString(buffer, idx, end);
+                idx = skipWhitespace(buffer, endKey + 1, end);
+                expect(buffer, idx, end, ':');
+                idx = skipWhitespace(buffer, idx + 1, end);
+
+                final int startValue;
+                final int endValue;
+                final byte first = byteAt(buffer, idx, end);
+                if (first == '"') {
+                    startValue = idx + 1;
+                    endValue = endOfString(buffer, idx, end);
+                    idx = endValue + 1;
+                } else if (first == '{' || first == '[') {
+                    startValue = -1;
+                    endValue = -1;
+                    idx = endOfNested(buffer, idx, end);
+                } else {
+                    startValue = idx;
+                    while (idx < end && !isDelimiter(buffer.get(idx))) {
+                        idx++;
+                    }
+                    endValue = idx;
+                }
+
+                if (startValue != -1 && !AsciiFields.equals(buffer, startValue, endValue, VALUE_NULL)) {
+                    final Field field = fieldFor(buffer, startKey, endKey);
+                    if (field != null) {
+                        starts[field.ordinal()] = startValue;
+                        ends[field.ordinal()] = endValue;
+                    }
+                }
+
+                idx = skipWhitespace(buffer, idx, end);
+                final byte next = byteAt(buffer, idx, end);
+                if (next == '}') {
+                    return;
+                }
+                expect(buffer, idx, end, ',');
+                idx = skipWhitespace(buffer, idx + 1, end);
+            }
+        }
+    }
+
+    private static Field fieldFor(ByteBuffer buffer, int start, int end) {
+        for (Field field : FIELDS) {
+            if (AsciiFields.equals(buffer, start, end, field.key)) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static byte byteAt(ByteBuffer buffer, int idx, int end) throws IllegalArgumentException {
+        if (idx >= end) {
+            throw new IllegalArgumentException("Unexpected end of line");
+        }
+        return buffer.get(idx);
     }
 
-    private static short parseProtocol(String protocol) {
-        if( "udp".equalsIgnoreCase(protocol) ) {
+    private static void expect(ByteBuffer buffer, int idx, int end, char expected) throws IllegalArgumentException {
+        if (byteAt(buffer, idx, end) != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' but found '" + (char) buffer.get(idx) + "'");
+        }
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int idx, int end) {
+        while (idx < end) {
+            final byte b = buffer.get(idx);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                break;
+            }
+            idx++;
+        }
+        return idx;
+    }
+
+    private static boolean isDelimiter(byte b) {
+        return b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * @param idx The index of the opening quote.
+     * @return The index of the closing quote.
+     */
+    private static int endOfString(ByteBuffer buffer, int idx, int end) throws IllegalArgumentException {
+        for (idx++; idx < end; idx++) {
+            final byte b = buffer.get(idx);
+            if (b == '\\') {
+                idx++;
+            } else if (b == '"') {
+                return idx;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string");
+    }
+
+    /**
+     * @param idx The index of the opening brace or bracket.
+     * @return The index following the matching closing brace or bracket.
+     */
+    private static int endOfNested(ByteBuffer buffer, int idx, int end) throws IllegalArgumentException {
+        int depth = 0;
+        for (; idx < end; idx++) {
+            final byte b = buffer.get(idx);
+            if (b == '"') {
+                idx = endOfString(buffer, idx, end);
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (--depth == 0) {
+                    return idx + 1;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unterminated object or array");
+    }
+
+    private static short parseProtocol(ByteBuffer buffer, int start, int end) {
+        if (AsciiFields.equalsIgnoreCase(buffer, start, end, PROTO_UDP)) {
             return 17;
         }
-        if( "tcp".equalsIgnoreCase(protocol) ) {
+        if (AsciiFields.equalsIgnoreCase(buffer, start, end, PROTO_TCP)) {
             return 6;
         }
         return -1;
     }
-
-    private static Byte[] parseIp(String ip) {
-        // String.split() takes a regex, not a string.
-        return Arrays.stream(ip.split("\\.")).map(octet -> Integer.valueOf(octet).byteValue()).collect(Collectors.toList()).toArray(new Byte[4]);
-    }
 }
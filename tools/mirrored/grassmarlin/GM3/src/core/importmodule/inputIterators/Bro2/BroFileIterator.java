@@ -8,19 +8,25 @@ import core.logging.Logger;
 import core.logging.Severity;
 import util.Cidr;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
-import java.util.Iterator;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Class for parsing and iterating over Bro2 files
+ *
+ * The file is memory-mapped and each record is parsed in place from the mapped bytes.  The header directives (separator,
+ * empty and unset markers, and field order) are held per instance, so any number of files can be imported at once.
+ * Progress is measured in bytes of the file.
  */
 public class BroFileIterator implements Iterator<PacketData> {
 
@@ -35,7 +41,6 @@ public class BroFileIterator implements Iterator<PacketData> {
         DST_BTS("resp_bytes");
 
         String fieldLabel;
-        int fieldIndex;
 
         Field(String fieldLabel) {
             this.fieldLabel = fieldLabel;
@@ -44,46 +49,53 @@ public class BroFileIterator implements Iterator<PacketData> {
         public String getLabel() {
             return this.fieldLabel;
         }
-
-        public void setIndex(int index) {
-            this.fieldIndex = index;
-        }
-
-        public int getIndex() {
-            return this.fieldIndex;
-        }
     }
 
-    private static String separator = "\\s";
-    private static String empty;
-    private static String unset;
-
-    /**
-     * The reader required to import any Bro2.
-     */
-
+    private static final Field[] FIELDS = Field.values();
+    private static final byte[] PROTO_TCP = "tcp".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PROTO_UDP = "udp".getBytes(StandardCharsets.US_ASCII);
 
     private final ImportItem source;
 
     private final Path inPath;
 
-    private boolean done;
+    private volatile boolean done;
 
     private BlockingQueue<PacketData> packetQueue;
 
-    private Thread loopThread;
-
     private long size;
 
+    // Header state, set by the directives at the start of each log within the file.
+    private byte separator;
+    private byte[] empty;
+    private byte[] unset;
+    /**
+     * The Field found in each column, or null for columns that are not used.  Null until a valid #fields directive has
+     * been read.
+     */
+    private Field[] fieldForColumn;
 
+    // The bounds of each Field within the record being parsed, indexed by ordinal.
+    private final int[] starts;
+    private final int[] ends;
 
     private BroFileIterator(ImportItem source, Path inPath) {
         this.source = source;
         this.inPath = inPath;
         done = false;
         this.packetQueue = new ArrayBlockingQueue<>(100);
+
+        this.separator = '\t';
+        this.empty = null;
+        this.unset = null;
+        this.fieldForColumn = null;
+        this.starts = new int[FIELDS.length];
+        this.ends = new int[FIELDS.length];
     }
 
+    /**
+     * @return The size of the file, in bytes.
+     */
     public long getSize() {
         return this.size;
     }
@@ -91,18 +103,13 @@ public class BroFileIterator implements Iterator<PacketData> {
     public static Iterator<PacketData> getBro2LogIterator(ImportItem source, Path inPath) throws IllegalStateException{
         BroFileIterator iterator = new BroFileIterator(source, inPath);
 
-        final AtomicLong size = new AtomicLong(0);
-        try (final BufferedReader reader = Files.newBufferedReader(inPath)) {
-            reader.lines().filter(line -> !line.startsWith("#")).forEach(line -> size.addAndGet(2));
+        try {
+            iterator.size = Files.size(inPath);
         } catch (IOException ioe) {
             throw new IllegalStateException("Error reading File: " + inPath);
         }
 
-        iterator.size = size.get();
-
-        if (size.get() > 0) {
-            iterator.parseFile();
-        }
+        iterator.parseFile();
 
         return iterator;
     }
@@ -118,87 +125,159 @@ public class BroFileIterator implements Iterator<PacketData> {
     }
 
     private void parseFile() {
-        loopThread = new Thread(() -> {
-            try (final BufferedReader reader = Files.newBufferedReader(inPath)) {
-                reader.lines().forEach(this::parseLine);
-                done = true;
+        Thread loopThread = new Thread(() -> {
+            try (FileChannel channel = FileChannel.open(inPath, StandardOpenOption.READ)) {
+                new MappedLines(channel, MappedLines.DEFAULT_WINDOW_SIZE).forEach(this::parseLine);
             } catch (IOException ioe) {
-                done = true;
                 Logger.log(this, Severity.Error, "Error reading File: " + inPath);
+            } finally {
+                done = true;
             }
-        });
+        }, "bro loop");
+        loopThread.setDaemon(true);
         loopThread.start();
     }
 
-    private void parseLine(String line) {
-        if (line != null & !line.isEmpty()) {
-            String[] tokens = line.split(separator);
-            if (tokens[0].startsWith("#")) {
-                String directive = tokens[0].substring(1);
-                switch (directive) {
-                    case "separator":
-                        String character = tokens[1];
-                        if (character.startsWith("\\x")) {
-                            int codepoint = Integer.parseInt(character.substring(2), 16);
-                            separator = String.valueOf((char) codepoint);
-                        } else {
-                            separator = tokens[1];
-                        }
-                        break;
-                    case "set_separator":
-                        break;
-                    case "empty_field":
-                        empty = tokens[1];
-                        break;
-                    case "unset_field":
-                        unset = tokens[1];
-                        break;
-                    case "fields":
-                        List<String> fieldList = Arrays.asList(Arrays.copyOfRange(tokens, 1, tokens.length));
-                        for (Field field : Field.values()) {
-                            field.setIndex(fieldList.indexOf(field.getLabel()));
-                        }
-                        break;
+    private void parseLine(ByteBuffer buffer, int start, int end, int cbLine) {
+        if (start == end) {
+            source.recordTaskProgress(cbLine);
+        } else if (buffer.get(start) == '#') {
+            final byte[] bytes = new byte[end - start];
+            for (int idx = 0; idx < bytes.length; idx++) {
+                bytes[idx] = buffer.get(start + idx);
+            }
+            parseDirective(new String(bytes, StandardCharsets.UTF_8));
+            source.recordTaskProgress(cbLine);
+        } else if (fieldForColumn == null) {
+            // Records without a usable #fields directive cannot be interpreted.
+            source.recordTaskProgress(cbLine);
+        } else {
+            try {
+                parseRecord(buffer, start, end, cbLine);
+            } catch (IllegalArgumentException ex) {
+                Logger.log(this, Severity.Warning, "There was an error processing a line in [" + this.inPath + "]: " + ex.getMessage());
+                source.recordTaskProgress(cbLine);
+            }
+        }
+    }
+
+    private void parseDirective(String line) {
+        // The separator directive is itself always separated by whitespace.
+        final String[] tokens = line.startsWith("#separator") ? line.split("\\s") : line.split(Pattern.quote(String.valueOf((char) separator)));
+        if (tokens.length < 2) {
+            return;
+        }
+        String directive = tokens[0].substring(1);
+        switch (directive) {
+            case "separator":
+                String character = tokens[1];
+                if (character.startsWith("\\x")) {
+                    separator = (byte) Integer.parseInt(character.substring(2), 16);
+                } else {
+                    separator = (byte) character.charAt(0);
                 }
-            } else {
-                final String[] comps = tokens[Field.TIME.getIndex()].split("\\.");
-                final String milliString = comps[0] + (comps[1] + "000").substring(0, 3);
-                final long millis = Long.parseLong(milliString);
-                final String srcPortString = tokens[Field.SRC_PRT.getIndex()];
-                final int srcPort = !srcPortString.equals(empty) && !srcPortString.equals(unset) ? Integer.parseInt(srcPortString) : -1;
-                final String dstPortString = tokens[Field.DST_PRT.getIndex()];
-                final int dstPort = !dstPortString.equals(empty) && !dstPortString.equals(unset) ? Integer.parseInt(dstPortString) : -1;
-                final String protoString = tokens[Field.PROTO.getIndex()];
-                final short protoNum = protoString.equals("tcp") ? PcapFileParser.TCP_ID : protoString.equals("udp") ? PcapFileParser.UDP_ID : PcapFileParser.UNKNOWN_ID;
-                final String sentString = tokens[Field.SRC_BTS.getIndex()];
-                final long sentBytes = !sentString.equals(empty) && !sentString.equals(unset) ? Long.parseLong(sentString) : 0;
-                final String rcvString = tokens[Field.DST_BTS.getIndex()];
-                final long recvBytes = !rcvString.equals(empty) && !rcvString.equals(unset) ? Long.parseLong(rcvString) : 0;
-                final String srcIP = tokens[Field.SRC_IP.getIndex()];
-                final String dstIP = tokens[Field.DST_IP.getIndex()];
-                if (sentBytes > 0) {
-                    PMetaData sentMeta = new PMetaData(source, millis, -1, srcPort, dstPort, protoNum, new Cidr(srcIP),
-                            null, new Cidr(dstIP), null, -1, sentBytes, 2048, -1, -1, -1, -1, null);
-                    PacketData data = new PacketData(recvBytes > 0 ? 1 : 2, sentMeta);
-
-                    try {
-                        packetQueue.put(data);
-                    } catch (InterruptedException e) {
-                        // program must be closing or something
+                break;
+            case "set_separator":
+                break;
+            case "empty_field":
+                empty = tokens[1].getBytes(StandardCharsets.UTF_8);
+                break;
+            case "unset_field":
+                unset = tokens[1].getBytes(StandardCharsets.UTF_8);
+                break;
+            case "fields":
+                List<String> fieldList = Arrays.asList(Arrays.copyOfRange(tokens, 1, tokens.length));
+                Field[] columns = new Field[fieldList.size()];
+                List<Field> missing = new ArrayList<>();
+                for (Field field : FIELDS) {
+                    int index = fieldList.indexOf(field.getLabel());
+                    if (index == -1) {
+                        missing.add(field);
+                    } else {
+                        columns[index] = field;
                     }
                 }
-                if (recvBytes > 0) {
-                    PMetaData rcvMeta = new PMetaData(source, millis, -1, dstPort, srcPort, protoNum, new Cidr(dstIP),
-                            null, new Cidr(srcIP), null, -1, recvBytes, 2048, -1, -1, -1, -1, null);
-                    PacketData data = new PacketData(sentBytes > 0 ? 1 : 2, rcvMeta);
-
-                    try {
-                        packetQueue.put(data);
-                    } catch (InterruptedException e) {
-                        // program must be closing or something
-                    }
+                if (missing.isEmpty()) {
+                    fieldForColumn = columns;
+                } else {
+                    fieldForColumn = null;
+                    Logger.log(this, Severity.Error, "[" + this.inPath + "] is missing required fields (" + missing.stream().map(Field::getLabel).collect(Collectors.joining(", ")) + "); records will be skipped.");
                 }
+                break;
+        }
+    }
+
+    private void parseRecord(ByteBuffer buffer, int start, int end, int cbLine) throws IllegalArgumentException {
+        Arrays.fill(starts, -1);
+        int column = 0;
+        int idxField = start;
+        for (int idx = start; idx <= end && column < fieldForColumn.length; idx++) {
+            if (idx == end || buffer.get(idx) == separator) {
+                final Field field = fieldForColumn[column];
+                if (field != null) {
+                    starts[field.ordinal()] = idxField;
+                    ends[field.ordinal()] = idx;
+                }
+                column++;
+                idxField = idx + 1;
             }
         }
+        for (Field field : FIELDS) {
+            if (starts[field.ordinal()] == -1) {
+                throw new IllegalArgumentException("Missing value for " + field.getLabel());
+            }
+        }
+
+        final long millis = AsciiFields.parseMillis(buffer, starts[Field.TIME.ordinal()], ends[Field.TIME.ordinal()]);
+        final int srcPort = (int) parseOptional(buffer, Field.SRC_PRT, -1);
+        final int dstPort = (int) parseOptional(buffer, Field.DST_PRT, -1);
+        final short protoNum = AsciiFields.equals(buffer, starts[Field.PROTO.ordinal()], ends[Field.PROTO.ordinal()], PROTO_TCP) ? PcapFileParser.TCP_ID
+                : AsciiFields.equals(buffer, starts[Field.PROTO.ordinal()], ends[Field.PROTO.ordinal()], PROTO_UDP) ? PcapFileParser.UDP_ID
+                : PcapFileParser.UNKNOWN_ID;
+        final long sentBytes = parseOptional(buffer, Field.SRC_BTS, 0);
+        final long recvBytes = parseOptional(buffer, Field.DST_BTS, 0);
+        final Cidr srcIP = Cidr.of(AsciiFields.parseIp(buffer, starts[Field.SRC_IP.ordinal()], ends[Field.SRC_IP.ordinal()]));
+        final Cidr dstIP = Cidr.of(AsciiFields.parseIp(buffer, starts[Field.DST_IP.ordinal()], ends[Field.DST_IP.ordinal()]));
+
+        // The bytes of the line are credited to its records as they are processed; half to each if there are two.
+        final int unitsSent = sentBytes > 0 ? (recvBytes > 0 ? cbLine / 2 : cbLine) : 0;
+        final int unitsRecv = recvBytes > 0 ? cbLine - unitsSent : 0;
+        if (sentBytes <= 0 && recvBytes <= 0) {
+            source.recordTaskProgress(cbLine);
+        }
+        if (sentBytes > 0) {
+            PMetaData sentMeta = new PMetaData(source, millis, -1, srcPort, dstPort, protoNum, srcIP,
+                    null, dstIP, null, -1, sentBytes, 2048, -1, -1, -1, -1, null);
+            PacketData data = new PacketData(unitsSent, sentMeta);
+
+            try {
+                packetQueue.put(data);
+            } catch (InterruptedException e) {
+                // program must be closing or something
+            }
+        }
+        if (recvBytes > 0) {
+            PMetaData rcvMeta = new PMetaData(source, millis, -1, dstPort, srcPort, protoNum, dstIP,
+                    null, srcIP, null, -1, recvBytes, 2048, -1, -1, -1, -1, null);
+            PacketData data = new PacketData(unitsRecv, rcvMeta);
+
+            try {
+                packetQueue.put(data);
+            } catch (InterruptedException e) {
+                // program must be closing or something
+            }
+        }
+    }
+
+    /**
+     * @return The value of field, or valueAbsent if the field is empty or unset.
+     */
+    private long parseOptional(ByteBuffer buffer, Field field, long valueAbsent) throws NumberFormatException {
+        final int start = starts[field.ordinal()];
+        final int end = ends[field.ordinal()];
+        if (AsciiFields.equals(buffer, start, end, empty) || AsciiFields.equals(buffer, start, end, unset)) {
+            return valueAbsent;
+        }
+        return AsciiFields.parseLong(buffer, start, end);
     }
 }
@@ -0,0 +1,107 @@
+package core.importmodule.inputIterators.Bro2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a text file one line at a time through a memory-mapped window.  Each line is handed to a LineHandler as a
+ * range of the mapped buffer, so lines are never copied or decoded by the reader.
+ */
+class MappedLines {
+    /**
+     * Default size of the region mapped at one time.
+     */
+    public static final long DEFAULT_WINDOW_SIZE = 64L * 1024L * 1024L;
+
+    @FunctionalInterface
+    public interface LineHandler {
+        /**
+         * @param buffer The mapped region containing the line; only valid for the duration of the call.
+         * @param start The index of the first byte of the line.
+         * @param end The index following the last byte of the line, excluding the line terminator.
+         * @param cbLine The number of bytes the line occupies in the file, including the line terminator.
+         */
+        void handle(ByteBuffer buffer, int start, int end, int cbLine);
+    }
+
+    private final FileChannel channel;
+    private final long sizeWindow;
+
+    public MappedLines(FileChannel channel, long sizeWindow) {
+        this.channel = channel;
+        this.sizeWindow = sizeWindow;
+    }
+
+    public void forEach(LineHandler handler) throws IOException {
+        forEach(0, channel.size(), handler);
+    }
+
+    /**
+     * Reads every line that starts within [offsetStart, offsetEnd).  A line that starts in the range is read in full,
+     * even if it ends beyond offsetEnd, so consecutive ranges together read every line of the file exactly once.
+     */
+    public void forEach(long offsetStart, long offsetEnd, LineHandler handler) throws IOException {
+        final long cbFile = channel.size();
+        long sizeWindow = this.sizeWindow;
+        long offset;
+        boolean isSkipping;
+        if(offsetStart > 0) {
+            //Start at the preceding byte; unless it ends a line, the partial line that follows belongs to the previous range.
+            offset = offsetStart - 1;
+            isSkipping = true;
+        } else {
+            offset = 0;
+            isSkipping = false;
+        }
+
+        while(offset < cbFile && offset < offsetEnd) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(sizeWindow, cbFile - offset));
+            final int limit = buffer.limit();
+
+            int idxLine = 0;
+            for(int idx = 0; idx < limit; idx++) {
+                if(buffer.get(idx) == '\n') {
+                    if(isSkipping) {
+                        isSkipping = false;
+                    } else {
+                        handler.handle(buffer, idxLine, trimEnd(buffer, idxLine, idx), idx + 1 - idxLine);
+                    }
+                    idxLine = idx + 1;
+                    if(offset + idxLine >= offsetEnd) {
+                        return;
+                    }
+                }
+            }
+
+            if(offset + limit == cbFile) {
+                //The last line need not be terminated.
+                if(idxLine < limit && !isSkipping) {
+                    handler.handle(buffer, idxLine, trimEnd(buffer, idxLine, limit), limit - idxLine);
+                }
+                return;
+            }
+            if(isSkipping) {
+                //Nothing in this window belongs to the range.
+                offset += limit;
+                continue;
+            }
+            if(idxLine == 0) {
+                //A single line fills the window, so the window has to grow to hold it.
+                if(sizeWindow >= Integer.MAX_VALUE) {
+                    throw new IOException("Line at offset " + offset + " is too long to read.");
+                }
+                sizeWindow = Math.min(sizeWindow * 2, Integer.MAX_VALUE);
+            }
+            //The next window starts at the first line not yet read.
+            offset += idxLine;
+        }
+    }
+
+    private static int trimEnd(ByteBuffer buffer, int start, int end) {
+        if(end > start && buffer.get(end - 1) == '\r') {
+            return end - 1;
+        }
+        return end;
+    }
+}
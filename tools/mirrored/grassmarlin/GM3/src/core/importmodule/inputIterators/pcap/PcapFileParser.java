@@ -3,6 +3,7 @@ package core.importmodule.inputIterators.pcap;
 import core.Configuration;
 import core.exec.IEEE802154Data;
 import core.fingerprint.PMetaData;
+import core.fingerprint.PacketBufferPool;
 import core.fingerprint.PacketData;
 import core.importmodule.ImportItem;
 import core.logging.Logger;
@@ -13,10 +14,8 @@ import javafx.application.Platform;
 import org.jnetpcap.Pcap;
 import org.jnetpcap.PcapBpfProgram;
 import org.jnetpcap.PcapDumper;
-import org.jnetpcap.nio.JBuffer;
 import org.jnetpcap.packet.JPacket;
 import org.jnetpcap.packet.JPacketHandler;
-import org.jnetpcap.packet.PcapPacket;
 import org.jnetpcap.protocol.lan.Ethernet;
 import org.jnetpcap.protocol.network.Ip4;
 import org.jnetpcap.protocol.tcpip.Tcp;
@@ -25,6 +24,7 @@ import util.Cidr;
 import util.RateLimitedTask;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -157,7 +157,6 @@ public class PcapFileParser {
                 dumper.dump(packet);
             }
             try {
-                packet = new PcapPacket(packet);
                 if (numPackets++ == PACKET_INTERVAL_PACKETS) {
                     long sleepTime = lastCheckTime + PACKET_INTERVAL_MILLIS - System.currentTimeMillis();
                     if (sleepTime >= 0) {
@@ -182,18 +181,19 @@ public class PcapFileParser {
                 try {
                     final java.util.Map<String, String> propertiesSource = new java.util.HashMap<>();
                     propertiesSource.put("MAC", new util.Mac(eth.source()).toString());
-                    packetQueue.put(new core.importmodule.LogicalProcessor.Host(new Cidr(srcIp), propertiesSource, null));
+                    packetQueue.put(new core.importmodule.LogicalProcessor.Host(Cidr.of(srcIp), propertiesSource, null));
                     final java.util.Map<String, String> propertiesDest = new java.util.HashMap<>();
                     propertiesDest.put("MAC", new util.Mac(eth.destination()).toString());
-                    packetQueue.put(new core.importmodule.LogicalProcessor.Host(new Cidr(destIp), propertiesDest, null));
+                    packetQueue.put(new core.importmodule.LogicalProcessor.Host(Cidr.of(destIp), propertiesDest, null));
                 } catch(InterruptedException ex) {
                     //Ignore the error; we probably have redundant data.
                 }
 
                 PacketData data = null;
                 if (packet.hasHeader(tcp)) {
-                    JBuffer temp = new JBuffer(tcp.getPayloadLength() + 1);
-                    packet.transferTo(temp, tcp.getPayloadOffset(), tcp.getPayloadLength(), 0);
+                    ByteBuffer temp = PacketBufferPool.getInstance().acquire(tcp.getPayloadLength());
+                    packet.transferTo(temp, tcp.getPayloadOffset(), tcp.getPayloadLength());
+                    temp.rewind();
 
                     int mss = -1;
                     if (tcp.hasSubHeader(mssHeader)) {
@@ -201,9 +201,9 @@ public class PcapFileParser {
                     }
 
                     PMetaData meta = new PMetaData(source, packet.getCaptureHeader().timestampInMillis(), packet.getFrameNumber(), tcp.source(), tcp.destination(), TCP_ID,
-                            new Cidr(srcIp), Arrays.copyOf(eth.source(), eth.source().length), new Cidr(destIp), Arrays.copyOf(eth.destination(), eth.destination().length), tcp.ack(), packet.getPacketWirelen(), 2048,
+                            Cidr.of(srcIp), Arrays.copyOf(eth.source(), eth.source().length), Cidr.of(destIp), Arrays.copyOf(eth.destination(), eth.destination().length), tcp.ack(), packet.getPacketWirelen(), 2048,
                             mss, tcp.seq(), ip4.ttl(), tcp.windowScaled(), tcp.flagsEnum());
-                    data = new PacketData(packet.getCaptureHeader().caplen() + 16, meta, temp);
+                    data = PacketData.fromPool(packet.getCaptureHeader().caplen() + 16, meta, temp);
                 } else if (packet.hasHeader(udp)) {
 
                     if (zep.hasProtocol(udp)) {
@@ -223,16 +223,17 @@ public class PcapFileParser {
                         }
                     }
 
-                    JBuffer temp = new JBuffer(udp.getPayloadLength() + 1);
-                    packet.transferTo(temp, udp.getPayloadOffset(), udp.getPayloadLength(), 0);
+                    ByteBuffer temp = PacketBufferPool.getInstance().acquire(udp.getPayloadLength());
+                    packet.transferTo(temp, udp.getPayloadOffset(), udp.getPayloadLength());
+                    temp.rewind();
 
                     PMetaData meta = new PMetaData(source, packet.getCaptureHeader().timestampInMillis(), packet.getFrameNumber(), udp.source(), udp.destination(), UDP_ID,
-                            new Cidr(srcIp), Arrays.copyOf(eth.source(), eth.source().length), new Cidr(destIp), Arrays.copyOf(eth.destination(), eth.destination().length), -1, packet.getCaptureHeader().caplen() + 16, 2048,
+                            Cidr.of(srcIp), Arrays.copyOf(eth.source(), eth.source().length), Cidr.of(destIp), Arrays.copyOf(eth.destination(), eth.destination().length), -1, packet.getCaptureHeader().caplen() + 16, 2048,
                             -1, -1, ip4.ttl(), -1, null);
-                    data = new PacketData(packet.getCaptureHeader().caplen() + 16, meta, temp);
+                    data = PacketData.fromPool(packet.getCaptureHeader().caplen() + 16, meta, temp);
                 } else {
-                    PMetaData meta = new PMetaData(source, packet.getCaptureHeader().timestampInMillis(), packet.getFrameNumber(), -1, -1, UNKNOWN_ID, new Cidr(srcIp),
-                            Arrays.copyOf(eth.source(), eth.source().length), new Cidr(destIp), Arrays.copyOf(eth.destination(), eth.destination().length), -1,
+                    PMetaData meta = new PMetaData(source, packet.getCaptureHeader().timestampInMillis(), packet.getFrameNumber(), -1, -1, UNKNOWN_ID, Cidr.of(srcIp),
+                            Arrays.copyOf(eth.source(), eth.source().length), Cidr.of(destIp), Arrays.copyOf(eth.destination(), eth.destination().length), -1,
                             packet.getPacketWirelen(), 2048, -1, -1, ip4.ttl(), -1, null);
                     data = new PacketData(packet.getCaptureHeader().caplen() + 16, meta);
                 }
@@ -242,6 +243,7 @@ public class PcapFileParser {
                         queue.put(data);
                     } catch (InterruptedException e) {
                         // program must be closing or something
+                        data.release();
                     }
                 }
             } catch(Exception ex) {
@@ -10,15 +10,119 @@ import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashMap;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.*;
 
 /**
  * GeoIp is used to identify the country associated with a given IP or CIDR.
  */
 public abstract class GeoIp {
-    private final static HashMap<Cidr, Integer> idFromCidr = new HashMap<>();
+    /**
+     * The Cidr -> GeoId mapping, flattened into disjoint address ranges sorted by start address so that a lookup is a
+     * binary search.  Where one Cidr is nested inside another, the inner (more specific) Cidr determines the id.
+     */
+    static class Ranges {
+        final long[] starts;
+        final long[] ends;
+        final int[] ids;
+        final int size;
+
+        Ranges(long[] starts, long[] ends, int[] ids, int size) {
+            this.starts = starts;
+            this.ends = ends;
+            this.ids = ids;
+            this.size = size;
+        }
+
+        static Ranges build(List<Cidr> cidrs, List<Integer> idsCidr) {
+            final Integer[] order = new Integer[cidrs.size()];
+            for(int idx = 0; idx < order.length; idx++) {
+                order[idx] = idx;
+            }
+            //Outer Cidrs sort before the Cidrs nested within them.
+            Arrays.sort(order, (left, right) -> {
+                final int result = Long.compare(cidrs.get(left).getFirstIp(), cidrs.get(right).getFirstIp());
+                return result != 0 ? result : Long.compare(cidrs.get(right).getLastIp(), cidrs.get(left).getLastIp());
+            });
+
+            final Builder builder = new Builder(order.length);
+            // Cidrs either nest or are disjoint, so the enclosing Cidrs of the current position form a stack.
+            final ArrayDeque<Integer> enclosing = new ArrayDeque<>();
+            long position = 0;
+            for(Integer idx : order) {
+                final Cidr cidr = cidrs.get(idx);
+                while(!enclosing.isEmpty() && cidrs.get(enclosing.peek()).getLastIp() < cidr.getFirstIp()) {
+                    final int idxOuter = enclosing.pop();
+                    position = builder.add(position, cidrs.get(idxOuter).getLastIp(), idsCidr.get(idxOuter));
+                }
+                if(!enclosing.isEmpty()) {
+                    builder.add(position, cidr.getFirstIp() - 1, idsCidr.get(enclosing.peek()));
+                }
+                position = cidr.getFirstIp();
+                enclosing.push(idx);
+            }
+            while(!enclosing.isEmpty()) {
+                final int idxOuter = enclosing.pop();
+                position = builder.add(position, cidrs.get(idxOuter).getLastIp(), idsCidr.get(idxOuter));
+            }
+
+            return new Ranges(builder.starts, builder.ends, builder.ids, builder.size);
+        }
+
+        private static class Builder {
+            private long[] starts;
+            private long[] ends;
+            private int[] ids;
+            private int size;
+
+            public Builder(int capacity) {
+                this.starts = new long[Math.max(16, capacity * 2)];
+                this.ends = new long[starts.length];
+                this.ids = new int[starts.length];
+                this.size = 0;
+            }
+
+            /**
+             * Adds [start, end] unless it is empty.
+             * @return The address following the range.
+             */
+            public long add(long start, long end, int id) {
+                if(start > end) {
+                    return start;
+                }
+                if(size == starts.length) {
+                    starts = Arrays.copyOf(starts, size * 2);
+                    ends = Arrays.copyOf(ends, size * 2);
+                    ids = Arrays.copyOf(ids, size * 2);
+                }
+                starts[size] = start;
+                ends[size] = end;
+                ids[size] = id;
+                size++;
+                return end + 1;
+            }
+        }
+
+        /**
+         * @return The index of the range containing ip, or -1 if there is none.
+         */
+        int indexOf(long ip) {
+            int lo = 0;
+            int hi = size - 1;
+            while(lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if(starts[mid] > ip) {
+                    hi = mid - 1;
+                } else if(ends[mid] < ip) {
+                    lo = mid + 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static volatile Ranges idFromCidr = new Ranges(new long[0], new long[0], new int[0], 0);
     private final static HashMap<Integer, String> nameFromId = new HashMap<>();
 
     public static void Initialize(String pathToCidrIdMapping, String pathToIdNameMapping) {
@@ -36,16 +140,44 @@ public abstract class GeoIp {
             Logger.log(GeoIp.class, Severity.Error, "Unable to locate GeoId -> Name data file.");
         }
 
+        validate();
+    }
+
+    /**
+     * Replaces the mappings with those read from a KnowledgeBaseBundle.
+     */
+    static void load(Ranges ranges, Map<Integer, String> names) {
+        idFromCidr = ranges;
+        nameFromId.clear();
+        nameFromId.putAll(names);
+    }
+    static Ranges getRanges() {
+        return idFromCidr;
+    }
+    static Map<Integer, String> getNames() {
+        return nameFromId;
+    }
+
+    static void validate() {
         // Test the contents to ensure that every Id maps to a name and every name has an icon.
         // If we ever manage to get this to be error-free out-of-the-box, we can transition to using the logger to report the errors instead of hitting the console.
-        idFromCidr.values().stream().distinct().forEach(id -> {
+        final Ranges ranges = idFromCidr;
+        final Map<Integer, StringBuilder> sourcesMissing = new TreeMap<>();
+        for(int idx = 0; idx < ranges.size; idx++) {
+            final int id = ranges.ids[idx];
             if(!nameFromId.containsKey(id)) {
-                String source = idFromCidr.entrySet().stream().filter(entry -> entry.getValue().equals(id)).map(entry -> entry.getKey().toString()).collect(Collectors.joining(", "));
-                if(source.length() > 80) {
-                    source = source.substring(0, 77) + "...";
+                final StringBuilder source = sourcesMissing.computeIfAbsent(id, key -> new StringBuilder());
+                if(source.length() <= 80) {
+                    source.append(source.length() == 0 ? "" : ", ").append(Cidr.toIp(ranges.starts[idx])).append("-").append(Cidr.toIp(ranges.ends[idx]));
                 }
-                Launcher.RecordLogMessage("GeoIp lookup for country Id " + id + " failed: " + source);
             }
+        }
+        sourcesMissing.forEach((id, sourceBuilder) -> {
+            String source = sourceBuilder.toString();
+            if(source.length() > 80) {
+                source = source.substring(0, 77) + "...";
+            }
+            Launcher.RecordLogMessage("GeoIp lookup for country Id " + id + " failed: " + source);
         });
         nameFromId.values().stream().forEach(country -> {
             File pathImage = new File(("images|logical|country|" + country.replace(" ", "_").replaceAll("[^a-zA-Z_]", "") + ".png").replace("|", File.separator));
@@ -59,12 +191,17 @@ public abstract class GeoIp {
         try {
             Logger.log(GeoIp.class, Severity.Information, "Loading Cidr -> GeoId Mapping from: " + src.toAbsolutePath().toString());
 
-            idFromCidr.clear();
+            final List<Cidr> cidrs = new ArrayList<>();
+            final List<Integer> ids = new ArrayList<>();
             Files.lines(src)
                     .filter(line -> !line.isEmpty())
                     .map(line -> line.split(","))
                     .filter(tokens -> tokens.length >= 2 && !tokens[1].isEmpty())
-                    .forEach(tokens -> idFromCidr.put(new Cidr(tokens[0]), Integer.parseInt(tokens[1])));
+                    .forEach(tokens -> {
+                        cidrs.add(new Cidr(tokens[0]));
+                        ids.add(Integer.parseInt(tokens[1]));
+                    });
+            idFromCidr = Ranges.build(cidrs, ids);
 
             Logger.log(GeoIp.class, Severity.Information, "Cidr -> GeoId Mapping load complete.");
         } catch(Exception ex) {
@@ -89,15 +226,13 @@ public abstract class GeoIp {
     }
 
     public static String getCountryName(Cidr ip) {
-        Optional<Integer> result = idFromCidr.entrySet().stream()
-                .filter(set -> set.getKey().contains(ip))
-                .map(set -> set.getValue())
-                .findFirst();
-
-        if(!result.isPresent()) {
+        final Ranges ranges = idFromCidr;
+        //A Cidr is only attributed to a country if a single range covers all of it.
+        final int idx = ranges.indexOf(ip.getFirstIp());
+        if(idx == -1 || ranges.ends[idx] < ip.getLastIp()) {
             return null;
         }
-        return nameFromId.get(result.get());
+        return nameFromId.get(ranges.ids[idx]);
     }
 
     public static LocalIcon getFlagIcon(Cidr ip) {
@@ -0,0 +1,326 @@
+package core.knowledgebase;
+
+import core.Configuration;
+import core.logging.Logger;
+import core.logging.Severity;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The knowledge base (GeoIp, Manufacturer and Reference data) precompiled into a single binary file.
+ *
+ * Parsing the CSV, manuf and HTML sources and checking their consistency is slow, so it is done once by compile, which
+ * writes the resulting tables to the bundle.  At startup the bundle is memory-mapped and its tables copied out in bulk.
+ * The bundle records the size and modification time of every source file; if any source has changed, or the bundle is
+ * missing or from another format version, it is recompiled.
+ *
+ * The bundle can also be refreshed ahead of time by running this class:  KnowledgeBaseBundle [pathToBundle]
+ */
+public class KnowledgeBaseBundle {
+    private static final int MAGIC = 0x474D4B42; // "GMKB"
+    private static final int FORMAT_VERSION = 1;
+
+    public static final String PATH_CIDR_TO_GEO_ID = "data/cidr_to_geo_id.csv";
+    public static final String PATH_GEO_ID_TO_NAME = "data/geo_id_to_name.csv";
+
+    /**
+     * Loads the knowledge base from the configured bundle, recompiling the bundle first if it is out of date.
+     */
+    public static void Initialize() {
+        final Path pathBundle = Paths.get(Configuration.getPreferenceString(Configuration.Fields.PATH_KNOWLEDGE_BASE));
+        final List<Path> sources = getSources();
+
+        try {
+            if(load(pathBundle, sources)) {
+                Logger.log(KnowledgeBaseBundle.class, Severity.Information, "Loaded knowledge base from " + pathBundle.toAbsolutePath());
+                return;
+            }
+        } catch(IOException | RuntimeException ex) {
+            Logger.log(KnowledgeBaseBundle.class, Severity.Warning, "Unable to read the knowledge base bundle; it will be rebuilt: " + ex.getMessage());
+        }
+
+        compile();
+        try {
+            write(pathBundle, sources);
+        } catch(IOException ex) {
+            Logger.log(KnowledgeBaseBundle.class, Severity.Warning, "Unable to write the knowledge base bundle; the source files will be parsed again on the next launch: " + ex.getMessage());
+        }
+    }
+
+    public static void main(String[] args) {
+        final Path pathBundle = Paths.get(args.length > 0 ? args[0] : Configuration.getPreferenceString(Configuration.Fields.PATH_KNOWLEDGE_BASE));
+        compile();
+        try {
+            write(pathBundle, getSources());
+            System.out.println("Wrote knowledge base bundle to " + pathBundle.toAbsolutePath());
+        } catch(IOException ex) {
+            System.err.println("Unable to write knowledge base bundle: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static Path getManufacturerSource() {
+        final String path = Configuration.getPreferenceString(Configuration.Fields.PATH_MANUFACTURER_DB);
+        return path == null ? null : Paths.get(path);
+    }
+
+    private static List<Path> getSources() {
+        final List<Path> result = new ArrayList<>(Arrays.asList(
+                Paths.get(PATH_CIDR_TO_GEO_ID),
+                Paths.get(PATH_GEO_ID_TO_NAME),
+                Reference.bacnetPath,
+                Reference.enipDevicePath,
+                Reference.enipVendorsPath
+        ));
+        final Path pathManufacturer = getManufacturerSource();
+        if(pathManufacturer != null) {
+            result.add(pathManufacturer);
+        }
+        return result;
+    }
+
+    /**
+     * Parses and validates every source file, replacing the knowledge base currently in use.
+     */
+    public static void compile() {
+        GeoIp.Initialize(PATH_CIDR_TO_GEO_ID, PATH_GEO_ID_TO_NAME);
+
+        final Path pathManufacturer = getManufacturerSource();
+        if(pathManufacturer == null) {
+            Logger.log(KnowledgeBaseBundle.class, Severity.Warning, "Unable to locate manufacturer database from Wireshark; MAC lookup will be disabled.");
+        } else {
+            Manufacturer.parseSourceFile(pathManufacturer);
+        }
+
+        Reference.load(Reference.fromSources());
+    }
+
+    // == Writing
+
+    /**
+     * Every string is written once, to a pool at the start of the bundle, and referred to by index; manufacturer names
+     * in particular are heavily repeated.
+     */
+    private static class StringPool {
+        private final LinkedHashMap<String, Integer> indices = new LinkedHashMap<>();
+
+        public int indexOf(String value) {
+            return indices.computeIfAbsent(value, key -> indices.size());
+        }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(indices.size());
+            for(String value : indices.keySet()) {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static void write(Path pathBundle, List<Path> sources) throws IOException {
+        //The sections refer to the string pool, so they are assembled before the pool is written.
+        final StringPool pool = new StringPool();
+        final ByteArrayOutputStream bufSections = new ByteArrayOutputStream();
+        final DataOutputStream sections = new DataOutputStream(bufSections);
+
+        final GeoIp.Ranges ranges = GeoIp.getRanges();
+        sections.writeInt(ranges.size);
+        for(int idx = 0; idx < ranges.size; idx++) {
+            sections.writeLong(ranges.starts[idx]);
+        }
+        for(int idx = 0; idx < ranges.size; idx++) {
+            sections.writeLong(ranges.ends[idx]);
+        }
+        for(int idx = 0; idx < ranges.size; idx++) {
+            sections.writeInt(ranges.ids[idx]);
+        }
+        writeMap(sections, pool, GeoIp.getNames());
+
+        final Manufacturer.PrefixTable[] tables = Manufacturer.getTables();
+        sections.writeInt(tables.length);
+        for(Manufacturer.PrefixTable table : tables) {
+            sections.writeLong(table.mask);
+            sections.writeInt(table.values.length);
+            for(long value : table.values) {
+                sections.writeLong(value);
+            }
+            for(String manufacturer : table.manufacturers) {
+                sections.writeInt(pool.indexOf(manufacturer));
+            }
+        }
+
+        final Reference reference = Reference.getInstance();
+        writeMap(sections, pool, reference.getBacnetVendors().toMap());
+        writeMap(sections, pool, reference.getEnipDevices().toMap());
+        writeMap(sections, pool, reference.getEnipVendors().toMap());
+        sections.flush();
+
+        //Write to a temporary file and move it into place so that a failed write never leaves a partial bundle.
+        final Path pathParent = pathBundle.toAbsolutePath().getParent();
+        Files.createDirectories(pathParent);
+        final Path pathTemp = Files.createTempFile(pathParent, "knowledgebase", ".tmp");
+        try {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pathTemp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeStamp(out, sources);
+                pool.writeTo(out);
+                bufSections.writeTo(out);
+            }
+            Files.move(pathTemp, pathBundle, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(pathTemp);
+        }
+    }
+
+    private static void writeMap(DataOutputStream out, StringPool pool, Map<Integer, String> map) throws IOException {
+        out.writeInt(map.size());
+        for(Map.Entry<Integer, String> entry : map.entrySet()) {
+            out.writeInt(entry.getKey());
+            out.writeInt(pool.indexOf(entry.getValue()));
+        }
+    }
+
+    private static void writeStamp(DataOutputStream out, List<Path> sources) throws IOException {
+        out.writeInt(sources.size());
+        for(Path source : sources) {
+            final byte[] name = source.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(name.length);
+            out.write(name);
+            out.writeLong(sizeOf(source));
+            out.writeLong(modifiedTimeOf(source));
+        }
+    }
+
+    private static long sizeOf(Path source) {
+        try {
+            return Files.size(source);
+        } catch(IOException ex) {
+            return -1;
+        }
+    }
+    private static long modifiedTimeOf(Path source) {
+        try {
+            return Files.getLastModifiedTime(source).toMillis();
+        } catch(IOException ex) {
+            return -1;
+        }
+    }
+
+    // == Reading
+
+    /**
+     * @return true if the bundle was current and has been loaded; false if it is missing or out of date.
+     */
+    private static boolean load(Path pathBundle, List<Path> sources) throws IOException {
+        if(!Files.exists(pathBundle)) {
+            return false;
+        }
+
+        final ByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(pathBundle, StandardOpenOption.READ)) {
+            //The header is read without mapping the file: a stale bundle is about to be replaced, and a file that is
+            //still mapped cannot be replaced on every platform.
+            final DataInputStream header = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if(header.readInt() != MAGIC || header.readInt() != FORMAT_VERSION) {
+                return false;
+            }
+            final long offsetTables = readStamp(header, sources);
+            if(offsetTables == -1) {
+                return false;
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsetTables, channel.size() - offsetTables);
+        }
+
+        final String[] pool = new String[buffer.getInt()];
+        for(int idx = 0; idx < pool.length; idx++) {
+            pool[idx] = readString(buffer);
+        }
+
+        final int cntRanges = buffer.getInt();
+        final long[] starts = readLongs(buffer, cntRanges);
+        final long[] ends = readLongs(buffer, cntRanges);
+        final int[] ids = readInts(buffer, cntRanges);
+        final Map<Integer, String> names = readMap(buffer, pool);
+
+        final Manufacturer.PrefixTable[] tables = new Manufacturer.PrefixTable[buffer.getInt()];
+        for(int idxTable = 0; idxTable < tables.length; idxTable++) {
+            final long mask = buffer.getLong();
+            final int cntValues = buffer.getInt();
+            final long[] values = readLongs(buffer, cntValues);
+            final String[] manufacturers = new String[cntValues];
+            for(int idx = 0; idx < cntValues; idx++) {
+                manufacturers[idx] = pool[buffer.getInt()];
+            }
+            tables[idxTable] = new Manufacturer.PrefixTable(mask, values, manufacturers);
+        }
+
+        final Map<Integer, String> bacnetVendors = readMap(buffer, pool);
+        final Map<Integer, String> enipDevices = readMap(buffer, pool);
+        final Map<Integer, String> enipVendors = readMap(buffer, pool);
+
+        //Nothing is replaced until the whole bundle has been read; a truncated bundle fails above and is rebuilt.
+        GeoIp.load(new GeoIp.Ranges(starts, ends, ids, cntRanges), names);
+        Manufacturer.load(tables);
+        Reference.load(new Reference(bacnetVendors, enipDevices, enipVendors));
+        return true;
+    }
+
+    /**
+     * Reads the source stamp that follows the magic number and version.
+     * @return The offset of the data following the stamp, or -1 if any source has changed.
+     */
+    private static long readStamp(DataInputStream in, List<Path> sources) throws IOException {
+        final int cntSources = in.readInt();
+        if(cntSources != sources.size()) {
+            return -1;
+        }
+        long offset = 12;
+        for(Path source : sources) {
+            final byte[] name = new byte[in.readInt()];
+            in.readFully(name);
+            if(!new String(name, StandardCharsets.UTF_8).equals(source.toAbsolutePath().toString())) {
+                return -1;
+            }
+            if(in.readLong() != sizeOf(source) || in.readLong() != modifiedTimeOf(source)) {
+                return -1;
+            }
+            offset += 4 + name.length + 16;
+        }
+        return offset;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    private static long[] readLongs(ByteBuffer buffer, int cnt) {
+        final long[] result = new long[cnt];
+        buffer.asLongBuffer().get(result);
+        buffer.position(buffer.position() + cnt * 8);
+        return result;
+    }
+    private static int[] readInts(ByteBuffer buffer, int cnt) {
+        final int[] result = new int[cnt];
+        buffer.asIntBuffer().get(result);
+        buffer.position(buffer.position() + cnt * 4);
+        return result;
+    }
+    private static Map<Integer, String> readMap(ByteBuffer buffer, String[] pool) {
+        final int cnt = buffer.getInt();
+        final Map<Integer, String> result = new HashMap<>(cnt * 2);
+        for(int idx = 0; idx < cnt; idx++) {
+            final int key = buffer.getInt();
+            result.put(key, pool[buffer.getInt()]);
+        }
+        return result;
+    }
+}
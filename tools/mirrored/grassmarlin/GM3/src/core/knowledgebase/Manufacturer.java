@@ -9,19 +9,26 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-
+import java.util.*;
+
+/**
+ * Resolves MAC addresses to the manufacturer named in the Wireshark manuf file.
+ *
+ * Entries may cover 24-bit OUIs or longer (e.g. /28 and /36) blocks within them, so a lookup must find the longest
+ * matching prefix.  The entries are grouped into one sorted table per prefix length; a lookup binary-searches each
+ * table from the longest prefix to the shortest and allocates nothing.
+ */
 public class Manufacturer {
     protected static class Resolver {
+        protected final int bits;
         protected final long mask;
         protected final long value;
         protected final String manufacturer;
 
-        protected Resolver(long mask, long value, String manufacturer) {
-            this.mask = mask;
-            this.value = value;
+        protected Resolver(int bits, long value, String manufacturer) {
+            this.bits = bits;
+            this.mask = 0x0000FFFFFFFFFFFFL & (0x0000FFFFFFFFFFFFL << (48 - bits));
+            this.value = value & mask;
             this.manufacturer = manufacturer;
         }
         public boolean matches(long id) {
@@ -33,7 +40,29 @@ public class Manufacturer {
         }
     }
 
-    protected static HashMap<Integer, List<Resolver>> resolvers = new HashMap<>();
+    /**
+     * The resolvers for a single prefix length, sorted by value.
+     */
+    protected static class PrefixTable {
+        protected final long mask;
+        protected final long[] values;
+        protected final String[] manufacturers;
+
+        protected PrefixTable(long mask, long[] values, String[] manufacturers) {
+            this.mask = mask;
+            this.values = values;
+            this.manufacturers = manufacturers;
+        }
+
+        public String find(long id) {
+            final int idx = Arrays.binarySearch(values, id & mask);
+            return idx < 0 ? null : manufacturers[idx];
+        }
+    }
+
+    protected static final List<Resolver> resolvers = new ArrayList<>();
+    // Ordered from the longest prefix to the shortest; replaced as a whole whenever a source file is loaded.
+    protected static volatile PrefixTable[] tables = new PrefixTable[0];
 
     protected static long idFromMac(byte[] mac) {
         return
@@ -44,39 +73,23 @@ public class Manufacturer {
                 ((long)mac[4] & 0xFF) <<  8 |
                 ((long)mac[5] & 0xFF);
     }
-    protected static long idFromMac(Mac mac) {
-        final int[] value = mac.getValue();
-        return
-                (long)value[0] << 40 |
-                (long)value[1] << 32 |
-                (long)value[2] << 24 |
-                (long)value[3] << 16 |
-                (long)value[4] <<  8 |
-                (long)value[5];
-    }
-
-    protected static int keyFromMac(byte[] mac) {
-        //The map is built on the first 2 bytes.  This only works if
-        return
-                ((int)mac[0] & 0xFF) <<  8 |
-                ((int)mac[1] & 0xFF);
-    }
-    protected static int keyFromMac(Mac mac) {
-        final int[] value = mac.getValue();
-
-        return (value[0] << 8) | value[1];
-    }
 
     public static String forMac(Mac mac) {
-        final int key = keyFromMac(mac);
-        final long id = idFromMac(mac);
+        return forMac(mac.toLong());
+    }
 
-        if(!resolvers.containsKey(key)) {
+    /**
+     * @param id A 48-bit MAC address, most significant byte first, as returned by Mac.toLong.
+     * @return The manufacturer with the most specific prefix matching id, or null if there is none.
+     */
+    public static String forMac(long id) {
+        if(id < 0) {
             return null;
         }
-        for(Resolver resolver : resolvers.get(key)) {
-            if(resolver.matches(id)) {
-                return resolver.getManufacturer();
+        for(PrefixTable table : tables) {
+            final String result = table.find(id);
+            if(result != null) {
+                return result;
             }
         }
         return null;
@@ -88,10 +101,49 @@ public class Manufacturer {
             while((line = reader.readLine()) != null) {
                 addResolverFromLine(line);
             }
-            //TODO: sort by most precise to least precise for each bin
         } catch(IOException ioe) {
             Logger.log(Manufacturer.class, Severity.Error, "Unable to load MAC manufacturer reference: " + ioe.getMessage());
         }
+        buildTables();
+    }
+
+    /**
+     * Replaces the tables with those read from a KnowledgeBaseBundle.
+     */
+    static void load(PrefixTable[] tablesLoaded) {
+        tables = tablesLoaded;
+    }
+    static PrefixTable[] getTables() {
+        return tables;
+    }
+
+    protected static void buildTables() {
+        final TreeMap<Integer, List<Resolver>> byLength = new TreeMap<>(Comparator.reverseOrder());
+        for(Resolver resolver : resolvers) {
+            byLength.computeIfAbsent(resolver.bits, key -> new ArrayList<>()).add(resolver);
+        }
+
+        //Many entries name the same manufacturer, so the tables share one instance of each name.
+        final HashMap<String, String> names = new HashMap<>();
+        final List<PrefixTable> tablesNew = new ArrayList<>(byLength.size());
+        for(List<Resolver> group : byLength.values()) {
+            //The sort is stable, so where a prefix is listed more than once the first entry is kept, as before.
+            group.sort(Comparator.comparingLong(resolver -> resolver.value));
+            final long[] values = new long[group.size()];
+            final String[] manufacturers = new String[group.size()];
+            int cnt = 0;
+            for(Resolver resolver : group) {
+                if(cnt > 0 && values[cnt - 1] == resolver.value) {
+                    continue;
+                }
+                values[cnt] = resolver.value;
+                manufacturers[cnt] = names.computeIfAbsent(resolver.manufacturer, key -> key);
+                cnt++;
+            }
+            tablesNew.add(new PrefixTable(group.get(0).mask, Arrays.copyOf(values, cnt), Arrays.copyOf(manufacturers, cnt)));
+        }
+
+        tables = tablesNew.toArray(new PrefixTable[tablesNew.size()]);
     }
 
     protected static void addResolverFromLine(String source) {
@@ -126,11 +178,6 @@ public class Manufacturer {
         if(id == 0) {
             return;
         }
-        final Resolver result = new Resolver(0x0000FFFFFFFFFFFFL & (0x0000FFFFFFFFFFFFL << (48 - bitsMask)), id, manufacturer);
-        final int key = keyFromMac(value);
-        if(!resolvers.containsKey(key)) {
-            resolvers.put(keyFromMac(value), new ArrayList<>());
-        }
-        resolvers.get(key).add(result);
+        resolvers.add(new Resolver(bitsMask, id, manufacturer));
     }
 }
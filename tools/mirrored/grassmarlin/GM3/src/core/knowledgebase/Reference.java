@@ -18,29 +18,114 @@ import java.util.regex.Pattern;
  * Class for accessing data stored in the reference flat files
  */
 public class Reference {
-    private final Path referencePath = Paths.get("data", "reference");
-    private final Path bacnetPath = referencePath.resolve("BACnetVendors.htm");
-    private final Path enipDevicePath = referencePath.resolve("enipDevice.csv");
-    private final Path enipVendorsPath = referencePath.resolve("enipVendors.csv");
+    private static final Path referencePath = Paths.get("data", "reference");
+    static final Path bacnetPath = referencePath.resolve("BACnetVendors.htm");
+    static final Path enipDevicePath = referencePath.resolve("enipDevice.csv");
+    static final Path enipVendorsPath = referencePath.resolve("enipVendors.csv");
+
+    /**
+     * Names indexed directly by id.  The ids in the reference files are small, so nearly all of them fit in a dense
+     * array; any larger ids fall back to a map.  Lookups by id or from raw bytes do not allocate.
+     */
+    public static class IdTable {
+        private static final int MAX_DENSE_ID = 0xFFFF;
+
+        private final String[] dense;
+        private final Map<Integer, String> sparse;
+
+        IdTable(final Map<Integer, String> names, final Map<String, String> pool) {
+            int maxDense = -1;
+            for(Integer id : names.keySet()) {
+                if(isDense(id)) {
+                    maxDense = Math.max(maxDense, id);
+                }
+            }
+            this.dense = new String[maxDense + 1];
+            this.sparse = new HashMap<>();
+            for(Map.Entry<Integer, String> entry : names.entrySet()) {
+                //Vendor and device names repeat across tables, so they are shared rather than held once per table.
+                final String name = pool.computeIfAbsent(entry.getValue(), key -> key);
+                if(isDense(entry.getKey())) {
+                    dense[entry.getKey()] = name;
+                } else {
+                    sparse.put(entry.getKey(), name);
+                }
+            }
+        }
 
-    private final Map<Integer, String> bacnetMap;
-    private final Map<Integer, String> enipDeviceMap;
-    private final Map<Integer, String> enipVendorMap;
-    private final Map<Integer, String> ouiMap;
+        private static boolean isDense(final int id) {
+            return id >= 0 && id <= MAX_DENSE_ID;
+        }
 
-    private static Reference instance;
+        /**
+         * @return The name for id, or null if there is none.
+         */
+        public String get(long id) {
+            if(id < 0) {
+                return null;
+            } else if(id < dense.length) {
+                return dense[(int)id];
+            } else if(sparse.isEmpty() || id > Integer.MAX_VALUE) {
+                return null;
+            } else {
+                return sparse.get((int)id);
+            }
+        }
 
-    private Reference() {
-        bacnetMap = new HashMap<>();
-        enipDeviceMap = new HashMap<>();
-        enipVendorMap = new HashMap<>();
-        ouiMap = new HashMap<>();
+        /**
+         * Looks up the unsigned id held in length bytes of raw, starting at offset.  Ids longer than 4 bytes are
+         * truncated to their low 32 bits.
+         * @return The name for the id, or null if there is none or length is not positive.
+         */
+        public String get(final byte[] raw, final int offset, final int length, final boolean bigEndian) {
+            if(length <= 0) {
+                return null;
+            }
+            long id = 0;
+            if(bigEndian) {
+                for(int idx = Math.max(0, length - Integer.BYTES); idx < length; idx++) {
+                    id = (id << 8) | (raw[offset + idx] & 0xFF);
+                }
+            } else {
+                for(int idx = Math.min(length, Integer.BYTES) - 1; idx >= 0; idx--) {
+                    id = (id << 8) | (raw[offset + idx] & 0xFF);
+                }
+            }
+            return get(id);
+        }
 
-        // this.initialize must be called, but only after the constructor completes.
+        Map<Integer, String> toMap() {
+            final Map<Integer, String> result = new HashMap<>(sparse);
+            for(int id = 0; id < dense.length; id++) {
+                if(dense[id] != null) {
+                    result.put(id, dense[id]);
+                }
+            }
+            return result;
+        }
+    }
+
+    private final IdTable bacnetVendors;
+    private final IdTable enipDevices;
+    private final IdTable enipVendors;
+
+    private static Reference instance;
+
+    Reference(final Map<Integer, String> bacnetMap, final Map<Integer, String> enipDeviceMap, final Map<Integer, String> enipVendorMap) {
+        final Map<String, String> pool = new HashMap<>();
+        this.bacnetVendors = new IdTable(bacnetMap, pool);
+        this.enipDevices = new IdTable(enipDeviceMap, pool);
+        this.enipVendors = new IdTable(enipVendorMap, pool);
     }
 
-    // Because initialize can log, we must only call initialize after the constructor has completed.
-    private void initialize() {
+    /**
+     * Parses the reference flat files.
+     */
+    static Reference fromSources() {
+        final Map<Integer, String> bacnetMap = new HashMap<>();
+        final Map<Integer, String> enipDeviceMap = new HashMap<>();
+        final Map<Integer, String> enipVendorMap = new HashMap<>();
+
         try (BufferedReader reader = Files.newBufferedReader(bacnetPath, StandardCharsets.ISO_8859_1)) {
             String line;
             int column = 0;
@@ -69,7 +154,7 @@ public class Reference {
                 }
             }
         } catch (IOException ioe) {
-            Logger.log(this, Severity.Error, "Unable to Load BACNet reference: " + ioe.getMessage());
+            Logger.log(Reference.class, Severity.Error, "Unable to Load BACNet reference: " + ioe.getMessage());
         }
 
         try (BufferedReader reader = Files.newBufferedReader(enipDevicePath, StandardCharsets.ISO_8859_1)) {
@@ -87,7 +172,7 @@ public class Reference {
                 }
             }
         } catch (IOException ioe) {
-            Logger.log(this, Severity.Error, "Unable to Load ENIP Device reference: " + ioe.getMessage());
+            Logger.log(Reference.class, Severity.Error, "Unable to Load ENIP Device reference: " + ioe.getMessage());
         }
 
         try (BufferedReader reader = Files.newBufferedReader(enipVendorsPath, StandardCharsets.ISO_8859_1)) {
@@ -105,29 +190,46 @@ public class Reference {
                 }
             }
         } catch (IOException ioe) {
-            Logger.log(this, Severity.Error, "Unable to Load ENIP Vendor reference: " + ioe.getMessage());
+            Logger.log(Reference.class, Severity.Error, "Unable to Load ENIP Vendor reference: " + ioe.getMessage());
         }
+
+        return new Reference(bacnetMap, enipDeviceMap, enipVendorMap);
     }
 
     public static Reference getInstance() {
         if (instance == null) {
-            instance = new Reference();
-            instance.initialize();
+            instance = fromSources();
         }
 
         return instance;
     }
 
+    /**
+     * Replaces the instance with one read from a KnowledgeBaseBundle.
+     */
+    static void load(final Reference reference) {
+        instance = reference;
+    }
+
+    public IdTable getBacnetVendors() {
+        return bacnetVendors;
+    }
+    public IdTable getEnipDevices() {
+        return enipDevices;
+    }
+    public IdTable getEnipVendors() {
+        return enipVendors;
+    }
 
     public String getBacnetVendor(int id) {
-        return this.bacnetMap.get(id);
+        return this.bacnetVendors.get(id);
     }
 
     public String getEnipDevice(int id) {
-        return this.enipDeviceMap.get(id);
+        return this.enipDevices.get(id);
     }
 
     public String getEnipVendor(int id) {
-        return this.enipVendorMap.get(id);
+        return this.enipVendors.get(id);
     }
 }
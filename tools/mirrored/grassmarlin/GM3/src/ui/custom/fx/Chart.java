@@ -2,7 +2,9 @@ package ui.custom.fx;
 
 import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
 import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.geometry.Rectangle2D;
@@ -140,6 +142,7 @@ public abstract class Chart<T, TX extends Comparable<TX>, TY extends Comparable<
     private double pxTickLength = 5.0;
 
     private Rectangle2D viewport;
+    private final SimpleObjectProperty<Rectangle2D> viewportProperty;
     private final Text textForMeasuring = new Text();
 
     protected double pointRadius = 5.0;
@@ -161,6 +164,7 @@ public abstract class Chart<T, TX extends Comparable<TX>, TY extends Comparable<
         this.fnFormatY = fnFormatY;
 
         this.viewport = DEFAULT_VIEWPORT;
+        this.viewportProperty = new SimpleObjectProperty<>(DEFAULT_VIEWPORT);
         this.textForMeasuring.setFont(Font.font("MONOSPACE", 12.0));
 
         setHeight(200.0);
@@ -241,8 +245,13 @@ public abstract class Chart<T, TX extends Comparable<TX>, TY extends Comparable<
     }
     public void zoom(Rectangle2D viewport) {
         this.viewport = viewport;
+        //Listeners may replace the series data for the new viewport before it is drawn.
+        this.viewportProperty.set(viewport);
         redraw();
     }
+    public ReadOnlyObjectProperty<Rectangle2D> viewportProperty() {
+        return viewportProperty;
+    }
 
 
     public double viewportXForControlX(final double pxX) {
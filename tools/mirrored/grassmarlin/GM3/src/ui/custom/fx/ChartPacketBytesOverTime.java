@@ -1,6 +1,6 @@
 package ui.custom.fx;
 
-import core.document.graph.LogicalEdge;
+import core.document.graph.FrameTable;
 import core.importmodule.ImportItem;
 import util.Cidr;
 
@@ -12,24 +12,62 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ChartPacketBytesOverTime extends Chart<ChartPacketBytesOverTime.FrameWrapper, Long, Integer> {
+    /**
+     * A point on the chart; either a single frame or the total of a time bucket taken from a TrafficRollup.
+     */
     public static class FrameWrapper {
         private final ImportItem source;
         private final Cidr ipSrc;
         private final Cidr ipDest;
-        private final LogicalEdge.ConnectionDetails.FrameRecord record;
-
-        public FrameWrapper(ImportItem source, Cidr ipSrc, Cidr ipDest, LogicalEdge.ConnectionDetails.FrameRecord record) {
+        private final FrameTable frames;
+        private final int idxFrame;
+        // Only used for buckets.
+        private final long time;
+        private final long bytes;
+        private final long cntFrames;
+
+        public FrameWrapper(ImportItem source, Cidr ipSrc, Cidr ipDest, FrameTable frames, int idxFrame) {
             this.source = source;
             this.ipSrc = ipSrc;
             this.ipDest = ipDest;
-            this.record = record;
+            this.frames = frames;
+            this.idxFrame = idxFrame;
+            this.time = 0;
+            this.bytes = 0;
+            this.cntFrames = 1;
+        }
+        public FrameWrapper(Cidr ipSrc, Cidr ipDest, long tsBucket, long bytes, long cntFrames) {
+            this.source = null;
+            this.ipSrc = ipSrc;
+            this.ipDest = ipDest;
+            this.frames = null;
+            this.idxFrame = -1;
+            this.time = tsBucket;
+            this.bytes = bytes;
+            this.cntFrames = cntFrames;
         }
 
+        /**
+         * @return true if this is the total for a time bucket rather than a single frame.  Buckets have no source,
+         * frame number, or ports.
+         */
+        public boolean isBucket() {
+            return frames == null;
+        }
+        public long getFrameCount() {
+            return cntFrames;
+        }
         public ImportItem getSource() {
             return source;
         }
-        public LogicalEdge.ConnectionDetails.FrameRecord getRecord() {
-            return record;
+        public long getFrame() {
+            return frames == null ? -1 : frames.getFrame(idxFrame);
+        }
+        public int getSourcePort() {
+            return frames == null ? -1 : frames.getSourcePort(idxFrame);
+        }
+        public int getDestinationPort() {
+            return frames == null ? -1 : frames.getDestinationPort(idxFrame);
         }
         public Cidr getIpSrc() {
             return ipSrc;
@@ -39,10 +77,10 @@ public class ChartPacketBytesOverTime extends Chart<ChartPacketBytesOverTime.Fra
         }
         //X/Y accessor methods
         public long getTime() {
-            return record.getTime();
+            return frames == null ? time : frames.getTime(idxFrame);
         }
         public int getBytes() {
-            return record.getBytes();
+            return frames == null ? (int)Math.min(bytes, Integer.MAX_VALUE) : frames.getBytes(idxFrame);
         }
     }
 
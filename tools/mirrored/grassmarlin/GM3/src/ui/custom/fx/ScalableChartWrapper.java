@@ -122,12 +122,18 @@ public class ScalableChartWrapper extends GridPane {
         // Tooltip Handler
         overlaysChart.setOnMouseMoved(event -> {
             ChartPacketBytesOverTime.FrameWrapper point = chart.pointNearestLocation(new Point2D(event.getScreenX(), event.getScreenY()));
-            if (point != null) {
+            if (point != null && point.isBucket()) {
+                tooltip.setText(String.format("%s -> %s\n%d bytes in %d frames\n%s",
+                        point.getIpSrc(), point.getIpDest(),
+                        point.getBytes(), point.getFrameCount(),
+                        Instant.ofEpochMilli(point.getTime()).atZone(ZoneId.of("Z")).format(DateTimeFormatter.ISO_INSTANT)));
+                tooltip.setVisible(true);
+            } else if (point != null) {
 
                 tooltip.setText(String.format("%s:%d -> %s:%d\n%d bytes\n%s",
-                        point.getIpSrc(), point.getRecord().getSourcePort(),
-                        point.getIpDest(), point.getRecord().getDestinationPort(),
-                        point.getRecord().getBytes(),
+                        point.getIpSrc(), point.getSourcePort(),
+                        point.getIpDest(), point.getDestinationPort(),
+                        point.getBytes(),
                         Instant.ofEpochMilli(point.getTime()).atZone(ZoneId.of("Z")).format(DateTimeFormatter.ISO_INSTANT)));
                 tooltip.setVisible(true);
             } else {
@@ -221,6 +227,8 @@ public class ScalableChartWrapper extends GridPane {
     protected void OnContextMenuShowing(Point2D screen) {
         menuOpenInWireshark.getItems().clear();
         List<ChartPacketBytesOverTime.FrameWrapper> records = chart.pointsNearLocation(screen);
+        //Buckets aggregate many frames, so there is no single frame to open.
+        records.removeIf(ChartPacketBytesOverTime.FrameWrapper::isBucket);
 
         if(records.isEmpty()) {
             menuOpenInWireshark.setDisable(true);
@@ -229,15 +237,15 @@ public class ScalableChartWrapper extends GridPane {
             for(ChartPacketBytesOverTime.FrameWrapper wrapper : records) {
                 menuOpenInWireshark.getItems().add(new ActiveMenuItem(
                         String.format("%s:%d (%s:%d -> %s:%d %d bytes@%s)",
-                                wrapper.getSource().getPath().getFileName().toString(), wrapper.getRecord().getFrame(),
-                                wrapper.getIpSrc(), wrapper.getRecord().getSourcePort(),
-                                wrapper.getIpDest(), wrapper.getRecord().getDestinationPort(),
-                                wrapper.getRecord().getBytes(),
-                                Instant.ofEpochMilli(wrapper.getRecord().getTime()).atZone(ZoneId.of("Z")).format(DateTimeFormatter.ISO_INSTANT)),
+                                wrapper.getSource().getPath().getFileName().toString(), wrapper.getFrame(),
+                                wrapper.getIpSrc(), wrapper.getSourcePort(),
+                                wrapper.getIpDest(), wrapper.getDestinationPort(),
+                                wrapper.getBytes(),
+                                Instant.ofEpochMilli(wrapper.getTime()).atZone(ZoneId.of("Z")).format(DateTimeFormatter.ISO_INSTANT)),
                         event -> {
                             Wireshark.OpenPcapFile(
                                     wrapper.getSource().getPath().toString(),
-                                    wrapper.getRecord().getFrame());
+                                    wrapper.getFrame());
                         }
                 ));
             }
@@ -1,13 +1,16 @@
 package ui.dialog;
 
-import com.sun.javafx.collections.ObservableListWrapper;
+import core.document.graph.FrameTable;
 import core.document.graph.LogicalEdge;
 import core.document.graph.LogicalNode;
 import core.document.graph.NetworkGraph;
+import core.document.graph.TrafficRollup;
 import core.importmodule.ImportItem;
 import javafx.beans.Observable;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.ObservableListBase;
 import javafx.geometry.Orientation;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -33,21 +36,24 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class ConnectionDetailsDialogFx extends Dialog {
     protected class DetailLine {
         private final boolean isSameDirection;
         private final ImportItem source;
-        private final LogicalEdge.ConnectionDetails.FrameRecord details;
+        private final FrameTable frames;
+        private final int idxFrame;
         private final LogicalEdge edge;
 
-        public DetailLine(boolean isSameDirection, ImportItem item, LogicalEdge edge, LogicalEdge.ConnectionDetails.FrameRecord details) {
+        public DetailLine(boolean isSameDirection, ImportItem item, LogicalEdge edge, FrameTable frames, int idxFrame) {
             this.isSameDirection = isSameDirection;
             this.source = item;
             this.edge = edge;
-            this.details = details;
+            this.frames = frames;
+            this.idxFrame = idxFrame;
         }
 
         // These are called via reflection for the TableView (tbl) defined below.
@@ -58,30 +64,30 @@ public class ConnectionDetailsDialogFx extends Dialog {
             return source.getPath().getFileName().toString();
         }
         public long getFrame() {
-            return details.getFrame();
+            return frames.getFrame(idxFrame);
         }
         public int getBytes() {
-            return details.getBytes();
+            return frames.getBytes(idxFrame);
         }
         public ZonedDateTime getTime() {
-            return Instant.ofEpochMilli(details.getTime()).atZone(ZoneId.of("Z"));//.format(DateTimeFormatter.ISO_INSTANT);
+            return Instant.ofEpochMilli(frames.getTime(idxFrame)).atZone(ZoneId.of("Z"));//.format(DateTimeFormatter.ISO_INSTANT);
         }
         public int getSourcePort() {
             if(isSameDirection) {
-                return details.getSourcePort();
+                return frames.getSourcePort(idxFrame);
             } else {
-                return details.getDestinationPort();
+                return frames.getDestinationPort(idxFrame);
             }
         }
         public int getDestinationPort() {
             if(isSameDirection) {
-                return details.getDestinationPort();
+                return frames.getDestinationPort(idxFrame);
             } else {
-                return details.getSourcePort();
+                return frames.getSourcePort(idxFrame);
             }
         }
         public String getProtocol() {
-            return Wireshark.getProtocolName(details.getProtocol());
+            return Wireshark.getProtocolName(frames.getProtocol(idxFrame));
         }
         public Cidr getSourceIp() {
             if(isSameDirection) {
@@ -99,11 +105,151 @@ public class ConnectionDetailsDialogFx extends Dialog {
         }
     }
 
+    /**
+     * A read-only view of the frames of a set of edges.  Opening the dialog only counts the frames in each FrameTable;
+     * the DetailLine for a row is created when the table asks for it.  Frames added after the list is built are not
+     * shown.
+     */
+    protected class DetailList extends ObservableListBase<DetailLine> {
+        /**
+         * The frames of one direction of an edge from a single ImportItem, occupying the rows from start onwards.
+         */
+        private class Segment {
+            private final LogicalEdge edge;
+            private final boolean isSameDirection;
+            private final ImportItem item;
+            private final FrameTable frames;
+            private final int start;
+
+            public Segment(LogicalEdge edge, boolean isSameDirection, ImportItem item, FrameTable frames, int start) {
+                this.edge = edge;
+                this.isSameDirection = isSameDirection;
+                this.item = item;
+                this.frames = frames;
+                this.start = start;
+            }
+        }
+
+        private final List<Segment> segments;
+        private int size;
+        // The row shown at each index once the table has been sorted; null while unsorted.
+        private int[] order;
+
+        public DetailList() {
+            this.segments = new ArrayList<>();
+            this.size = 0;
+            this.order = null;
+        }
+
+        /**
+         * Adds the frames of one direction of an edge.  Only called before the list is shown.
+         */
+        public void addFrames(LogicalEdge edge, LogicalEdge.ConnectionDetails details) {
+            final boolean isSameDirection = details == edge.getDetailsToDestination();
+            for(ImportItem item : details.getFrameGroups()) {
+                final FrameTable frames = details.getFrames(item);
+                final int cntFrames = frames.size();
+                if(cntFrames > 0) {
+                    segments.add(new Segment(edge, isSameDirection, item, frames, size));
+                    size += cntFrames;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public DetailLine get(int idx) {
+            if(idx < 0 || idx >= size) {
+                throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + size);
+            }
+            return getRow(order == null ? idx : order[idx]);
+        }
+
+        private DetailLine getRow(int idxRow) {
+            //Find the last segment starting at or before the row.
+            int lo = 0;
+            int hi = segments.size() - 1;
+            while(lo < hi) {
+                final int mid = (lo + hi + 1) >>> 1;
+                if(segments.get(mid).start <= idxRow) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            final Segment segment = segments.get(lo);
+            return new DetailLine(segment.isSameDirection, segment.item, segment.edge, segment.frames, idxRow - segment.start);
+        }
+
+        /**
+         * Reorders the rows by comparator, or restores the original order if it is null.
+         */
+        public void setComparator(Comparator<? super DetailLine> comparator) {
+            final int[] orderOld = order;
+            if(comparator == null) {
+                order = null;
+            } else {
+                //Sorting has to see every row, but the lines are only held until the order is known.
+                final DetailLine[] lines = new DetailLine[size];
+                final Integer[] rows = new Integer[size];
+                for(int idxRow = 0; idxRow < size; idxRow++) {
+                    lines[idxRow] = getRow(idxRow);
+                    rows[idxRow] = idxRow;
+                }
+                Arrays.sort(rows, (left, right) -> comparator.compare(lines[left], lines[right]));
+                order = new int[size];
+                for(int idx = 0; idx < size; idx++) {
+                    order[idx] = rows[idx];
+                }
+            }
+
+            //The permutation maps the old index of each row to its new index.
+            final int[] indexNew = new int[size];
+            for(int idx = 0; idx < size; idx++) {
+                indexNew[order == null ? idx : order[idx]] = idx;
+            }
+            final int[] permutation = new int[size];
+            for(int idx = 0; idx < size; idx++) {
+                permutation[idx] = indexNew[orderOld == null ? idx : orderOld[idx]];
+            }
+            beginChange();
+            nextPermutation(0, size, permutation);
+            endChange();
+        }
+    }
+
+    /**
+     * An edge drawn on the chart.  If any edge has more frames than MAX_POINTS_PER_SERIES, every edge is drawn from its
+     * rollups, at a resolution that depends on the visible time span, so the series are rebuilt whenever the chart is
+     * zoomed.
+     */
+    protected static class ChartedEdge {
+        private final LogicalEdge edge;
+        private final Chart.Series<ChartPacketBytesOverTime.FrameWrapper> series;
+
+        public ChartedEdge(LogicalEdge edge, Chart.Series<ChartPacketBytesOverTime.FrameWrapper> series) {
+            this.edge = edge;
+            this.series = series;
+        }
+    }
+
+    /**
+     * Maximum number of points plotted for a single edge.
+     */
+    private static final int MAX_POINTS_PER_SERIES = 1000;
+
     private final SimpleObjectProperty<LogicalNode> root;
-    private ObservableListWrapper<DetailLine> content;
+    private TableView<DetailLine> tblFrames;
     private final NetworkGraph<LogicalNode, LogicalEdge> graph;
 
     private final ScalableChartWrapper chartControl;
+    private final List<ChartedEdge> edgesBucketed;
+    private long tsChartFirst;
+    private long tsChartLast;
 
     public ConnectionDetailsDialogFx(NetworkGraph<LogicalNode, LogicalEdge> graph) {
         root = new SimpleObjectProperty<>(null);
@@ -111,9 +257,9 @@ public class ConnectionDetailsDialogFx extends Dialog {
 
         this.graph = graph;
 
-        content = new ObservableListWrapper<>(new ArrayList<>(1024));
-
         chartControl = new ScalableChartWrapper();
+        edgesBucketed = new ArrayList<>();
+        chartControl.getChart().viewportProperty().addListener((observable, oldValue, newValue) -> Handle_ViewportChanged(newValue));
 
         initComponents();
     }
@@ -128,7 +274,8 @@ public class ConnectionDetailsDialogFx extends Dialog {
         pane.setOrientation(Orientation.VERTICAL);
 
         final VBox containerTable = new VBox();
-        TableView<DetailLine> tbl = new TableView<>();
+        final TableView<DetailLine> tbl = new TableView<>();
+        tblFrames = tbl;
 
         TableColumn<DetailLine, ZonedDateTime> colTimestamp = new TableColumn<>("Timestamp");
         colTimestamp.setCellValueFactory(new PropertyValueFactory<>("time"));
@@ -163,7 +310,12 @@ public class ConnectionDetailsDialogFx extends Dialog {
                 colProtocol,
                 colSize
         );
-        tbl.setItems(content);
+        tbl.setItems(new DetailList());
+        //The rows are a read-only view, so sorting reorders the view instead of the items.
+        tbl.setSortPolicy(table -> {
+            ((DetailList)table.getItems()).setComparator(table.getComparator());
+            return true;
+        });
         ContextMenu menuTbl = new ContextMenu();
         menuTbl.getItems().addAll(
                 new ActiveMenuItem("Open in Wireshark", event -> {
@@ -207,34 +359,24 @@ public class ConnectionDetailsDialogFx extends Dialog {
         this.root.set(root);
         super.setTitle("Connections involving " + root.toString());
     }
-    protected List<DetailLine> buildDetailList(LogicalEdge edge, LogicalEdge.ConnectionDetails detailsTo, LogicalEdge.ConnectionDetails detailsFrom) {
-        //Pre-allocate for the full size requirement.
-        final ArrayList<DetailLine> result = new ArrayList<>(detailsTo.getFrameCount() + detailsFrom.getFrameCount());
-
-        for(ImportItem item : detailsTo.getFrameGroups()) {
-            for(LogicalEdge.ConnectionDetails.FrameRecord record : detailsTo.getFrames(item)) {
-                result.add(new DetailLine(detailsTo == edge.getDetailsToDestination(), item, edge, record));
-            }
-        }
-        for(ImportItem item : detailsFrom.getFrameGroups()) {
-            for(LogicalEdge.ConnectionDetails.FrameRecord record : detailsFrom.getFrames(item)) {
-                result.add(new DetailLine(detailsFrom == edge.getDetailsToDestination(), item, edge, record));
-            }
-        }
-
-        return result;
-    }
     protected void Handle_RootNodeChanged(Observable o, LogicalNode rootOld, LogicalNode rootNew) {
-        content.clear();
+        final DetailList rows = new DetailList();
+        edgesBucketed.clear();
         chartControl.suspendLayout(true);
         try {
             chartControl.clearSeries();
             chartControl.zoomReset();
+            chartControl.getChart().setXRange(null);
 
             if (rootNew == null) {
+                tblFrames.setItems(rows);
                 return;
             }
 
+            tsChartFirst = Long.MAX_VALUE;
+            tsChartLast = Long.MIN_VALUE;
+            final List<ChartedEdge> edgesCharted = new ArrayList<>();
+            boolean isBucketed = false;
             //Find all the edges connected to the root.
             //Each edge contains 2 sets of details, one set to the node, one set from.
             // Which set is which depends on which end of the edge is the node we care about.
@@ -243,29 +385,98 @@ public class ConnectionDetailsDialogFx extends Dialog {
                 //The edges are bidirectional and store directional data, so we need to check what endpoint the root is before assembling the data.
                 if (edge.getSource().equals(rootNew)) {
                     nodeOther = edge.getDestination();
-                    content.addAll(buildDetailList(edge, edge.getDetailsToSource(), edge.getDetailsToDestination()));
+                    rows.addFrames(edge, edge.getDetailsToSource());
+                    rows.addFrames(edge, edge.getDetailsToDestination());
                 } else {
                     nodeOther = edge.getSource();
-                    content.addAll(buildDetailList(edge, edge.getDetailsToDestination(), edge.getDetailsToSource()));
+                    rows.addFrames(edge, edge.getDetailsToDestination());
+                    rows.addFrames(edge, edge.getDetailsToSource());
                 }
 
                 Chart.Series<ChartPacketBytesOverTime.FrameWrapper> series = new Chart.Series<>();
                 series.setName(nodeOther.getIp().toString());
 
-                for (ImportItem item : edge.getDetailsToSource().getFrameGroups()) {
-                    series.getData().addAll(edge.getDetailsToSource().getFrames(item).stream()
-                            .map(frame -> new ChartPacketBytesOverTime.FrameWrapper(item, edge.getDestination().getIp(), edge.getSource().getIp(), frame))
-                            .collect(Collectors.toList()));
-                }
-                for (ImportItem item : edge.getDetailsToDestination().getFrameGroups()) {
-                    series.getData().addAll(edge.getDetailsToDestination().getFrames(item).stream()
-                    .map(frame -> new ChartPacketBytesOverTime.FrameWrapper(item, edge.getSource().getIp(), edge.getDestination().getIp(), frame))
-                    .collect(Collectors.toList()));
-                }
+                tsChartFirst = Math.min(tsChartFirst, Math.min(edge.getDetailsToSource().getRollup().getFirstTime(), edge.getDetailsToDestination().getRollup().getFirstTime()));
+                tsChartLast = Math.max(tsChartLast, Math.max(edge.getDetailsToSource().getRollup().getLastTime(), edge.getDetailsToDestination().getRollup().getLastTime()));
+
+                isBucketed |= edge.getDetailsToSource().getFrameCount() + edge.getDetailsToDestination().getFrameCount() > MAX_POINTS_PER_SERIES;
+                edgesCharted.add(new ChartedEdge(edge, series));
                 chartControl.addSeries(series);
             }
+            tblFrames.setItems(rows);
+            //Keep any sort the user has chosen.
+            tblFrames.sort();
+
+            //Buckets hold the total bytes for a span of time rather than the size of a frame, so if any edge has to be
+            //bucketed, every edge is, and all the series share one meaning for the Y axis.
+            if(isBucketed) {
+                edgesBucketed.addAll(edgesCharted);
+            } else {
+                for(ChartedEdge charted : edgesCharted) {
+                    final LogicalEdge edge = charted.edge;
+                    addFrames(charted.series, edge.getDetailsToSource(), edge.getDestination().getIp(), edge.getSource().getIp());
+                    addFrames(charted.series, edge.getDetailsToDestination(), edge.getSource().getIp(), edge.getDestination().getIp());
+                }
+            }
+
+            if(!edgesBucketed.isEmpty()) {
+                //The series for bucketed edges only cover the visible span, so the axis has to be fixed to the full span.
+                chartControl.getChart().setXRange(new Chart.Range<>(tsChartFirst, tsChartLast));
+                Handle_ViewportChanged(Chart.DEFAULT_VIEWPORT);
+            }
         } finally {
             chartControl.suspendLayout(false);
         }
     }
+
+    protected void Handle_ViewportChanged(Rectangle2D viewport) {
+        if(edgesBucketed.isEmpty()) {
+            return;
+        }
+
+        final long msSpan = tsChartLast - tsChartFirst;
+        final long tsFrom = tsChartFirst + (long)(Math.max(0.0, viewport.getMinX()) * msSpan);
+        final long tsTo = tsChartFirst + (long)(Math.min(1.0, viewport.getMaxX()) * msSpan);
+        final TrafficRollup.Resolution resolution = TrafficRollup.Resolution.forSpan(tsTo - tsFrom, MAX_POINTS_PER_SERIES);
+        //Include a bucket on either side so the lines continue to the edge of the chart.
+        final long tsFromBuckets = tsFrom - resolution.getBucketMillis();
+        final long tsToBuckets = tsTo + resolution.getBucketMillis();
+
+        for(ChartedEdge charted : edgesBucketed) {
+            final LogicalEdge edge = charted.edge;
+            charted.series.getData().clear();
+            addBuckets(charted.series, edge.getDetailsToSource().getRollup(), resolution, tsFromBuckets, tsToBuckets, edge.getDestination().getIp(), edge.getSource().getIp());
+            addBuckets(charted.series, edge.getDetailsToDestination().getRollup(), resolution, tsFromBuckets, tsToBuckets, edge.getSource().getIp(), edge.getDestination().getIp());
+        }
+    }
+
+    private static void addFrames(Chart.Series<ChartPacketBytesOverTime.FrameWrapper> series, LogicalEdge.ConnectionDetails details, Cidr ipSource, Cidr ipDestination) {
+        for (ImportItem item : details.getFrameGroups()) {
+            final FrameTable frames = details.getFrames(item);
+            final int cntFrames = frames.size();
+            for(int idx = 0; idx < cntFrames; idx++) {
+                series.getData().add(new ChartPacketBytesOverTime.FrameWrapper(item, ipSource, ipDestination, frames, idx));
+            }
+        }
+    }
+
+    private static void addBuckets(Chart.Series<ChartPacketBytesOverTime.FrameWrapper> series, TrafficRollup rollup, TrafficRollup.Resolution resolution, long tsFrom, long tsTo, Cidr ipSource, Cidr ipDestination) {
+        //The rollup has a bucket for each protocol; they are visited consecutively and are combined into one point.
+        final long[] pending = new long[] {Long.MIN_VALUE, 0, 0};
+        rollup.forEach(resolution, tsFrom, tsTo, (tsStart, protocol, cntPackets, cntBytes) -> {
+            if(tsStart != pending[0]) {
+                if(pending[0] != Long.MIN_VALUE) {
+                    series.getData().add(new ChartPacketBytesOverTime.FrameWrapper(ipSource, ipDestination, pending[0], pending[1], pending[2]));
+                }
+                pending[0] = tsStart;
+                pending[1] = 0;
+                pending[2] = 0;
+            }
+            pending[1] += cntBytes;
+            pending[2] += cntPackets;
+        });
+        if(pending[0] != Long.MIN_VALUE) {
+            series.getData().add(new ChartPacketBytesOverTime.FrameWrapper(ipSource, ipDestination, pending[0], pending[1], pending[2]));
+        }
+    }
 }
@@ -2,13 +2,24 @@ package util;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class Cidr implements Comparable<Cidr> {
     public final static long maxIP = 0xFFFFFFFFL;
     public final static short maxBits = 32;
 
+    // Recently seen host addresses, shared so that packets between the same hosts reuse the same instances.  This is a
+    // fixed-size cache indexed by a hash of the address: a lookup neither boxes the address nor allocates when it hits,
+    // and an address that collides with another simply replaces it, so memory stays bounded however many addresses an
+    // import contains.
+    private static final int HOSTS_BITS = 16;
+    private static final AtomicReferenceArray<Cidr> hosts = new AtomicReferenceArray<>(1 << HOSTS_BITS);
+
     private long baseIp;
     private short bits;
+    // Derived from baseIp and bits in init, since equals, hashCode and contains are called for every map lookup.
+    private long firstIp;
+    private long lastIp;
 
     private static int log2(long arg) throws IllegalArgumentException {
         if(arg < 1) {
@@ -94,6 +105,24 @@ public class Cidr implements Comparable<Cidr> {
 
         this.baseIp = ip;
         this.bits = bits;
+        this.firstIp = ip & (0xFFFFFFFFL << (32 - bits));
+        this.lastIp = ip | (0xFFFFFFFFL >>> bits);
+    }
+
+    /**
+     * Returns a /32 Cidr for a host address, reusing a recently returned instance where possible.  Packet parsers should
+     * use this rather than the constructor; Cidr is immutable, so the instance may be held anywhere a new one would have
+     * been.  Instances are not guaranteed to be unique, so compare them with equals.
+     */
+    public static Cidr of(long ip) {
+        final int slot = (int)((ip * 0x9E3779B97F4A7C15L) >>> (64 - HOSTS_BITS));
+        final Cidr existing = hosts.get(slot);
+        if(existing != null && existing.baseIp == ip) {
+            return existing;
+        }
+        final Cidr cidrNew = new Cidr(ip);
+        hosts.set(slot, cidrNew);
+        return cidrNew;
     }
 
     @Override
@@ -115,7 +144,7 @@ public class Cidr implements Comparable<Cidr> {
             return 1;
         }
 
-        int ipComp = compare(this.getFirstIp() - cidr.getFirstIp());
+        int ipComp = compare(this.firstIp - cidr.firstIp);
 
         return (0 != ipComp) ? ipComp : compare((long)cidr.bits - (long)this.bits);
     }
@@ -123,7 +152,7 @@ public class Cidr implements Comparable<Cidr> {
     @Override
     public boolean equals(Object other) {
         if(other != null && other instanceof Cidr) {
-            return (this.getFirstIp() == ((Cidr)other).getFirstIp()) && (this.bits == ((Cidr)other).bits);
+            return (this.firstIp == ((Cidr)other).firstIp) && (this.bits == ((Cidr)other).bits);
         } else {
             return false;
         }
@@ -131,7 +160,7 @@ public class Cidr implements Comparable<Cidr> {
 
     @Override
     public int hashCode() {
-        return (int)this.getFirstIp();
+        return (int)this.firstIp;
     }
 
     // == Utility Functions
@@ -177,28 +206,28 @@ public class Cidr implements Comparable<Cidr> {
     }
 
     public long getFirstIp() {
-        return this.baseIp & (0xFFFFFFFFL << (32 - this.bits));
+        return this.firstIp;
     }
     public String getFirstIpString() {
         return Cidr.toIp(this.getFirstIp());
     }
     public long getLastIp() {
-        return this.baseIp | (0xFFFFFFFFL >>> this.bits);
+        return this.lastIp;
     }
     public String getLastIpString() {
         return Cidr.toIp(this.getLastIp());
     }
     public boolean contains(long ip) {
-        return contains(new Cidr(ip));
+        return (this.firstIp <= ip) && (this.lastIp >= ip);
     }
     public boolean contains(String ipOrCidr) {
         return contains(new Cidr(ipOrCidr));
     }
     public boolean contains(Cidr cidr) {
         // For our purposes, a Cidr contains itself.
-        return (this.getFirstIp() <= cidr.getFirstIp()) && (this.getLastIp() >= cidr.getLastIp());
+        return (this.firstIp <= cidr.firstIp) && (this.lastIp >= cidr.lastIp);
     }
     public boolean overlaps(Cidr cidr) {
-        return !((this.getFirstIp() > cidr.getLastIp()) || (this.getLastIp() < cidr.getFirstIp()));
+        return !((this.firstIp > cidr.lastIp) || (this.lastIp < cidr.firstIp));
     }
 }
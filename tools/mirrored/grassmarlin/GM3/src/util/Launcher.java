@@ -4,8 +4,7 @@ import core.Configuration;
 import core.Version;
 import core.document.fingerprint.FPDocument;
 import core.importmodule.ImportProcessors;
-import core.knowledgebase.GeoIp;
-import core.knowledgebase.Manufacturer;
+import core.knowledgebase.KnowledgeBaseBundle;
 import core.logging.Logger;
 import core.logging.Severity;
 import javafx.collections.ListChangeListener;
@@ -51,12 +50,7 @@ public class Launcher {
         InitializeLogging();
         RecordLogMessage(Version.APPLICATION_TITLE + "-r" + Version.APPLICATION_REVISION);
 
-        GeoIp.Initialize("data/cidr_to_geo_id.csv", "data/geo_id_to_name.csv");
-        try {
-            Manufacturer.parseSourceFile(Paths.get(Configuration.getPreferenceString(Configuration.Fields.PATH_MANUFACTURER_DB)));
-        } catch(Exception ex) {
-            Logger.log(Launcher.class, Severity.Warning, "Unable to load manufacturer database from Wireshark; MAC lookup will be disabled. (" + ex.getMessage() + ")");
-        }
+        KnowledgeBaseBundle.Initialize();
 
         CreateAppDirectories();
         ReportConfigurationSettings();
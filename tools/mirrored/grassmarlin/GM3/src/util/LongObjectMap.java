@@ -0,0 +1,146 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive long keys to objects, using open addressing with linear probing so that lookups neither box
+ * the key nor allocate entries.  Not thread safe.
+ */
+public class LongObjectMap<V> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    // 0 marks an empty slot, so the value for key 0 is held separately.
+    private boolean hasZeroKey;
+    private V valueZeroKey;
+
+    public LongObjectMap() {
+        this.keys = new long[INITIAL_CAPACITY];
+        this.values = new Object[INITIAL_CAPACITY];
+        this.mask = INITIAL_CAPACITY - 1;
+        this.size = 0;
+        this.hasZeroKey = false;
+        this.valueZeroKey = null;
+    }
+
+    private static int slotFor(long key, int mask) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if(key == 0) {
+            return valueZeroKey;
+        }
+        for(int idx = slotFor(key, mask); keys[idx] != 0; idx = (idx + 1) & mask) {
+            if(keys[idx] == key) {
+                return (V)values[idx];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The value previously associated with key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if(key == 0) {
+            final V previous = valueZeroKey;
+            if(!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            valueZeroKey = value;
+            return previous;
+        }
+
+        int idx = slotFor(key, mask);
+        for(; keys[idx] != 0; idx = (idx + 1) & mask) {
+            if(keys[idx] == key) {
+                final V previous = (V)values[idx];
+                values[idx] = value;
+                return previous;
+            }
+        }
+        keys[idx] = key;
+        values[idx] = value;
+        size++;
+        //Keep the table at most half full so probe sequences stay short.
+        if(size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return The value previously associated with key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        if(key == 0) {
+            final V previous = valueZeroKey;
+            if(hasZeroKey) {
+                hasZeroKey = false;
+                size--;
+            }
+            valueZeroKey = null;
+            return previous;
+        }
+
+        for(int idx = slotFor(key, mask); keys[idx] != 0; idx = (idx + 1) & mask) {
+            if(keys[idx] == key) {
+                final V previous = (V)values[idx];
+                //Move later entries of the probe sequence back into the gap, so lookups for them don't stop short.
+                int idxGap = idx;
+                for(int idxNext = (idx + 1) & mask; keys[idxNext] != 0; idxNext = (idxNext + 1) & mask) {
+                    final int idxHome = slotFor(keys[idxNext], mask);
+                    if(((idxNext - idxHome) & mask) >= ((idxNext - idxGap) & mask)) {
+                        keys[idxGap] = keys[idxNext];
+                        values[idxGap] = values[idxNext];
+                        idxGap = idxNext;
+                    }
+                }
+                keys[idxGap] = 0;
+                values[idxGap] = null;
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, null);
+        size = 0;
+        hasZeroKey = false;
+        valueZeroKey = null;
+    }
+
+    private void rehash(int capacity) {
+        final long[] keysOld = keys;
+        final Object[] valuesOld = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        for(int idxOld = 0; idxOld < keysOld.length; idxOld++) {
+            if(keysOld[idxOld] != 0) {
+                int idx = slotFor(keysOld[idxOld], mask);
+                while(keys[idx] != 0) {
+                    idx = (idx + 1) & mask;
+                }
+                keys[idx] = keysOld[idxOld];
+                values[idx] = valuesOld[idxOld];
+            }
+        }
+    }
+}
@@ -46,6 +46,34 @@ public class Mac {
         return value;
     }
 
+    /**
+     * @return The address as a 48-bit value, most significant byte first.
+     */
+    public long toLong() {
+        long result = 0;
+        for(int idx = 0; idx < 6; idx++) {
+            result = (result << 8) | value[idx];
+        }
+        return result;
+    }
+
+    /**
+     * Parses a formatted address into a 48-bit value without allocating; any separators are ignored, as in Mac(String).
+     * @return The address, or -1 if formatted does not contain 12 hex digits.
+     */
+    public static long toLong(String formatted) {
+        long result = 0;
+        int cntDigits = 0;
+        for(int idx = 0; idx < formatted.length() && cntDigits < 12; idx++) {
+            final int digit = Character.digit(formatted.charAt(idx), 16);
+            if(digit >= 0) {
+                result = (result << 4) | digit;
+                cntDigits++;
+            }
+        }
+        return cntDigits == 12 ? result : -1;
+    }
+
     @Override
     public int hashCode() {
         if(value == null) {